@@ -0,0 +1,169 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The add-ons (modifiers) that can be put on a drink, each with a dense id.
+ * Prices and labels are kept in arrays indexed by id, so pricing and
+ * counting a cart line never goes through a string-keyed map.
+ *
+ * Loaded from a CSV with the columns "Add-on Name,Label,Price", e.g.
+ * "vanilla syrup,vanilla,0.60". The label is the short form shown on
+ * receipts. {@link #standard()} holds the two classic add-ons.
+ */
+public class AddonCatalog {
+    public static final String VANILLA_SYRUP = "vanilla syrup";
+    public static final String EXTRA_SHOT = "extra shot";
+
+    private static final AddonCatalog STANDARD = new AddonCatalog(
+            Arrays.asList(VANILLA_SYRUP, EXTRA_SHOT),
+            Arrays.asList("vanilla", "extra shot"),
+            new double[] {0.60, 0.50});
+
+    private final String[] names;
+    private final String[] labels;
+    private final double[] prices;
+    private final Map<String, Integer> idByName; // key: lower-case name
+    private final int vanillaId;
+    private final int extraShotId;
+
+    /**
+     * @param names add-on names; ids follow list order
+     * @param labels short receipt labels, in the same order
+     * @param prices price per shot/pump, in the same order
+     */
+    public AddonCatalog(List<String> names, List<String> labels, double[] prices) {
+        if (names.size() != labels.size() || names.size() != prices.length) {
+            throw new IllegalArgumentException("Add-on names, labels and prices must line up");
+        }
+        this.names = names.toArray(new String[0]);
+        this.labels = labels.toArray(new String[0]);
+        this.prices = prices.clone();
+        this.idByName = new HashMap<>();
+        for (int id = 0; id < this.names.length; id++) {
+            idByName.putIfAbsent(this.names[id].toLowerCase(), id);
+        }
+        this.vanillaId = idOf(VANILLA_SYRUP);
+        this.extraShotId = idOf(EXTRA_SHOT);
+    }
+
+    /**
+     * Returns the built-in catalog: vanilla syrup ($0.60) and extra shot ($0.50).
+     * @return the shared standard catalog
+     */
+    public static AddonCatalog standard() {
+        return STANDARD;
+    }
+
+    /**
+     * Loads a catalog from CSV, skipping malformed rows.
+     * @param filePath the CSV path
+     * @return the catalog
+     * @throws IOException if the file cannot be read
+     */
+    public static AddonCatalog load(String filePath) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        List<Double> prices = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+            String line = br.readLine(); // header
+            int lineNumber = 1;
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] f = line.split(",", -1);
+                if (f.length < 3 || f[0].isBlank()) {
+                    System.err.println("Skipping add-on row " + lineNumber + ": " + line);
+                    continue;
+                }
+                try {
+                    prices.add(Double.parseDouble(f[2].trim()));
+                } catch (NumberFormatException nfe) {
+                    System.err.println("Skipping add-on row " + lineNumber + " with bad price: " + line);
+                    continue;
+                }
+                names.add(f[0].trim());
+                labels.add(f[1].isBlank() ? f[0].trim() : f[1].trim());
+            }
+        }
+        double[] priceArray = new double[prices.size()];
+        for (int i = 0; i < priceArray.length; i++) {
+            priceArray[i] = prices.get(i);
+        }
+        return new AddonCatalog(names, labels, priceArray);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Looks up an add-on id by name (case-insensitive).
+     * @param name the add-on name
+     * @return the id, or -1 if not in the catalog
+     */
+    public int idOf(String name) {
+        Integer id = idByName.get(name.toLowerCase());
+        return id != null ? id : -1;
+    }
+
+    public String nameAt(int id) {
+        return names[id];
+    }
+
+    public String labelAt(int id) {
+        return labels[id];
+    }
+
+    public double priceAt(int id) {
+        return prices[id];
+    }
+
+    /** Id of vanilla syrup, or -1 if this catalog does not sell it. */
+    int vanillaId() {
+        return vanillaId;
+    }
+
+    /** Id of the extra espresso shot, or -1 if this catalog does not sell it. */
+    int extraShotId() {
+        return extraShotId;
+    }
+
+    /**
+     * Parses add-ons typed as "name x count" pairs, e.g. "vanilla syrup x2, oat milk".
+     * A name without a count means one.
+     * @param spec the typed add-ons (blank for none)
+     * @return counts indexed by add-on id
+     * @throws IllegalArgumentException if a name is unknown or a count is above 255 per drink
+     */
+    public int[] parseCounts(String spec) {
+        int[] counts = new int[names.length];
+        if (spec == null || spec.isBlank()) {
+            return counts;
+        }
+        for (String part : spec.split(",")) {
+            String p = part.trim();
+            if (p.isEmpty()) {
+                continue;
+            }
+            int count = 1;
+            int x = p.toLowerCase().lastIndexOf(" x");
+            if (x > 0 && p.substring(x + 2).trim().matches("\\d+")) {
+                count = Integer.parseInt(p.substring(x + 2).trim());
+                p = p.substring(0, x).trim();
+            }
+            int id = idOf(p);
+            if (id < 0) {
+                throw new IllegalArgumentException("Unknown add-on: " + p);
+            }
+            counts[id] += count;
+            if (counts[id] > CartItem.MAX_COUNT) {
+                throw new IllegalArgumentException("At most " + CartItem.MAX_COUNT + " " + names[id] + " per drink");
+            }
+        }
+        return counts;
+    }
+}
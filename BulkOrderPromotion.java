@@ -17,6 +17,11 @@ public class BulkOrderPromotion implements Promotion {
         return baseTotal * DISCOUNT_PERCENTAGE;
     }
     
+    @Override
+    public double maxLineDiscount(CartItem item) {
+        return item.basePrice() * DISCOUNT_PERCENTAGE;
+    }
+    
     @Override
     public String getPromotionName() {
         return "Bulk Order 10% (drinks only)";
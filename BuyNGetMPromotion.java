@@ -1,92 +1,132 @@
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Buy-N-Get-M Promotion: Buy 3 of the same drink (any size) get 1 free.
- * The free item is the cheapest size of that drink.
+ * Buy-N-Get-M Promotion: for every N of the same drink (any size) in the cart,
+ * M of them are free. The free items are priced at the cheapest size of that drink.
+ * Defaults to buy 3 get 1. When several drinks qualify, the drink giving the
+ * largest discount is chosen.
  */
 public class BuyNGetMPromotion implements Promotion {
-    private static final int REQUIRED_QUANTITY = 3;
-    private List<Drink> menu;
+    private static final int DEFAULT_REQUIRED_QUANTITY = 3;
+    private static final int DEFAULT_FREE_QUANTITY = 1;
+    
+    private final int requiredQuantity;
+    private final int freeQuantity;
+    private final Map<String, Double> cheapestPriceByName; // key: lower-case drink name
     
     public BuyNGetMPromotion(List<Drink> menu) {
-        this.menu = menu != null ? new ArrayList<>(menu) : new ArrayList<>();
+        this(menu, DEFAULT_REQUIRED_QUANTITY, DEFAULT_FREE_QUANTITY);
+    }
+    
+    /**
+     * Creates a promotion where every {@code requiredQuantity} items of a drink
+     * earn {@code freeQuantity} of them free.
+     * @param menu the menu, used to find each drink's cheapest size
+     * @param requiredQuantity items of the same drink needed (at least 2)
+     * @param freeQuantity free items per group (1 to requiredQuantity - 1)
+     */
+    public BuyNGetMPromotion(List<Drink> menu, int requiredQuantity, int freeQuantity) {
+        this(cheapestPrices(menu), requiredQuantity, freeQuantity);
+    }
+    
+    /**
+     * Creates a default buy 3 get 1 promotion over a precomputed price table.
+     * @param cheapestPriceByName cheapest price per lower-case drink name (shared, not copied)
+     */
+    public BuyNGetMPromotion(Map<String, Double> cheapestPriceByName) {
+        this(cheapestPriceByName, DEFAULT_REQUIRED_QUANTITY, DEFAULT_FREE_QUANTITY);
+    }
+    
+    /**
+     * Creates a promotion over a precomputed price table, such as the live view
+     * of a store's {@link MenuOverlay}. The map is used as is, not copied.
+     * @param cheapestPriceByName cheapest price per lower-case drink name
+     * @param requiredQuantity items of the same drink needed (at least 2)
+     * @param freeQuantity free items per group (1 to requiredQuantity - 1)
+     */
+    public BuyNGetMPromotion(Map<String, Double> cheapestPriceByName, int requiredQuantity, int freeQuantity) {
+        this.requiredQuantity = Math.max(2, requiredQuantity);
+        this.freeQuantity = Math.max(1, Math.min(freeQuantity, this.requiredQuantity - 1));
+        this.cheapestPriceByName = cheapestPriceByName != null ? cheapestPriceByName : new HashMap<>();
+    }
+    
+    // Precompute the cheapest size per drink name once, at menu load
+    private static Map<String, Double> cheapestPrices(List<Drink> menu) {
+        Map<String, Double> cheapest = new HashMap<>();
+        if (menu != null) {
+            for (Drink drink : menu) {
+                cheapest.merge(drink.getName().toLowerCase(), drink.getPrice(), Math::min);
+            }
+        }
+        return cheapest;
     }
     
     @Override
     public double calculateDiscount(List<CartItem> items, double baseTotal, double addonsTotal) {
-        if (!isApplicable(items)) {
+        if (items == null || items.isEmpty() || cheapestPriceByName.isEmpty()) {
             return 0.0;
         }
         
-        // Find the drink name that appears 3+ times (by quantity)
-        Map<String, Integer> drinkNameCounts = new HashMap<>();
-        for (CartItem item : items) {
-            String drinkName = item.getDrink().getName();
-            drinkNameCounts.put(drinkName, 
-                drinkNameCounts.getOrDefault(drinkName, 0) + item.getQuantity());
-        }
-        
-        // Find drink name with 3+ items
-        String eligibleDrinkName = null;
-        for (Map.Entry<String, Integer> entry : drinkNameCounts.entrySet()) {
-            if (entry.getValue() >= REQUIRED_QUANTITY) {
-                eligibleDrinkName = entry.getKey();
-                break;
+        // Pick the drink whose free items are worth the most
+        double bestDiscount = 0.0;
+        for (Map.Entry<String, Integer> entry : countByName(items).entrySet()) {
+            int groups = entry.getValue() / requiredQuantity;
+            Double cheapestPrice = cheapestPriceByName.get(entry.getKey());
+            if (groups > 0 && cheapestPrice != null) {
+                bestDiscount = Math.max(bestDiscount, groups * freeQuantity * cheapestPrice);
             }
         }
-        
-        if (eligibleDrinkName == null) {
+        return bestDiscount;
+    }
+    
+    @Override
+    public double maxLineDiscount(CartItem item) {
+        // Free items per item bought, at the cheapest size of this drink
+        Double cheapestPrice = cheapestPriceByName.get(item.getDrink().getName().toLowerCase());
+        if (cheapestPrice == null) {
             return 0.0;
         }
-        
-        // Find cheapest size of this drink from menu
-        double cheapestPrice = Double.MAX_VALUE;
-        for (Drink drink : menu) {
-            if (drink.getName().equalsIgnoreCase(eligibleDrinkName)) {
-                if (drink.getPrice() < cheapestPrice) {
-                    cheapestPrice = drink.getPrice();
-                }
-            }
-        }
-        
-        // If we found a price, return it as discount
-        if (cheapestPrice != Double.MAX_VALUE) {
-            return cheapestPrice;
-        }
-        
-        return 0.0;
+        return item.getQuantity() * cheapestPrice * freeQuantity / requiredQuantity;
     }
     
     @Override
     public String getPromotionName() {
-        return "Buy 3 Get 1 Free (cheapest size)";
+        return String.format("Buy %d Get %d Free (cheapest size)", requiredQuantity, freeQuantity);
     }
     
     @Override
     public boolean isApplicable(List<CartItem> items) {
-        if (items == null || items.isEmpty() || menu == null || menu.isEmpty()) {
+        if (items == null || items.isEmpty() || cheapestPriceByName.isEmpty()) {
             return false;
         }
         
-        // Count items by drink name (sum quantities)
-        Map<String, Integer> drinkNameCounts = new HashMap<>();
-        for (CartItem item : items) {
-            String drinkName = item.getDrink().getName();
-            drinkNameCounts.put(drinkName, 
-                drinkNameCounts.getOrDefault(drinkName, 0) + item.getQuantity());
-        }
-        
-        // Check if any drink name has 3+ items
-        for (int count : drinkNameCounts.values()) {
-            if (count >= REQUIRED_QUANTITY) {
+        // Check if any menu drink has enough items
+        for (Map.Entry<String, Integer> entry : countByName(items).entrySet()) {
+            if (entry.getValue() >= requiredQuantity
+                    && cheapestPriceByName.get(entry.getKey()) != null) {
                 return true;
             }
         }
         
         return false;
     }
+    
+    public int getRequiredQuantity() {
+        return requiredQuantity;
+    }
+    
+    public int getFreeQuantity() {
+        return freeQuantity;
+    }
+    
+    // Count items by drink name (sum quantities) in one pass over the cart lines
+    private static Map<String, Integer> countByName(List<CartItem> items) {
+        Map<String, Integer> drinkNameCounts = new HashMap<>();
+        for (CartItem item : items) {
+            drinkNameCounts.merge(item.getDrink().getName().toLowerCase(), item.getQuantity(), Integer::sum);
+        }
+        return drinkNameCounts;
+    }
 }
-
@@ -4,41 +4,144 @@ import java.util.List;
 /**
  * Represents an item in the shopping cart.
  * Tracks drink, quantity, and add-ons.
+ * Cart items are immutable so that completed orders can share them safely.
+ *
+ * Add-ons are ids in an {@link AddonCatalog}. A line's add-ons are packed
+ * into a small sorted int array, one entry per add-on present:
+ * {@code (addonId << 8) | count}, with counts from 1 to 255 per drink.
  */
 public class CartItem {
-    private static final double ADDON_VANILLA_SYRUP = 0.60;  // per shot
-    private static final double ADDON_EXTRA_SHOT = 0.50;  // per shot
-    
-    private Drink drink;
-    private int quantity;
-    private int vanillaShots; // count
-    private int espressoShots; // count
+    private static final int[] NO_MODIFIERS = new int[0];
+    static final int MAX_COUNT = 0xFF; // per add-on, per drink
+
+    private final Drink drink;
+    private final int quantity;
+    private final AddonCatalog addons;
+    private final int[] modifiers; // packed (id << 8) | count, sorted by id
 
     public CartItem(Drink drink, int quantity, int vanillaShots, int espressoShots) {
+        this(drink, quantity, AddonCatalog.standard(),
+                new int[] {Math.max(0, vanillaShots), Math.max(0, espressoShots)});
+    }
+
+    /**
+     * Creates a cart line with any add-ons from a catalog.
+     * @param drink the drink
+     * @param quantity number of drinks (at least 1)
+     * @param addons the catalog the add-on ids refer to
+     * @param addonCounts add-on count per drink, indexed by add-on id (may be shorter than the catalog)
+     * @throws IllegalArgumentException if an add-on count is above 255
+     */
+    public CartItem(Drink drink, int quantity, AddonCatalog addons, int[] addonCounts) {
         this.drink = drink;
         this.quantity = Math.max(1, quantity); // Ensure at least 1
-        this.vanillaShots = Math.max(0, vanillaShots);
-        this.espressoShots = Math.max(0, espressoShots);
+        this.addons = addons;
+        int present = 0;
+        for (int count : addonCounts) {
+            if (count > MAX_COUNT) {
+                throw new IllegalArgumentException("At most " + MAX_COUNT + " of one add-on per drink: " + count);
+            }
+            if (count > 0) {
+                present++;
+            }
+        }
+        if (present == 0) {
+            this.modifiers = NO_MODIFIERS;
+        } else {
+            int[] packed = new int[present];
+            int n = 0;
+            for (int id = 0; id < addonCounts.length; id++) {
+                if (addonCounts[id] > 0) {
+                    packed[n++] = (id << 8) | addonCounts[id];
+                }
+            }
+            this.modifiers = packed;
+        }
+    }
+
+    private CartItem(CartItem line, Drink drink) {
+        this.drink = drink;
+        this.quantity = line.quantity;
+        this.addons = line.addons;
+        this.modifiers = line.modifiers;
+    }
+
+    /**
+     * Returns this line with another drink and the same quantity and add-ons,
+     * e.g. the same drink at a store's regional price.
+     * @param drink the drink
+     * @return the line
+     */
+    public CartItem withDrink(Drink drink) {
+        return drink == this.drink ? this : new CartItem(this, drink);
     }
 
     public Drink getDrink() {
         return drink;
     }
-    
+
     public int getQuantity() {
         return quantity;
     }
-    
+
+    public AddonCatalog getAddonCatalog() {
+        return addons;
+    }
+
+    /**
+     * Returns how many different add-ons this line has.
+     * @return number of modifiers
+     */
+    public int getModifierCount() {
+        return modifiers.length;
+    }
+
+    /**
+     * Returns the catalog id of the i-th add-on on this line.
+     * @param index 0 to {@link #getModifierCount()} - 1
+     * @return add-on id
+     */
+    public int getModifierId(int index) {
+        return modifiers[index] >>> 8;
+    }
+
+    /**
+     * Returns the count (per drink) of the i-th add-on on this line.
+     * @param index 0 to {@link #getModifierCount()} - 1
+     * @return count per drink
+     */
+    public int getModifierShots(int index) {
+        return modifiers[index] & MAX_COUNT;
+    }
+
+    /**
+     * Returns the count (per drink) of an add-on.
+     * @param addonId the catalog id
+     * @return count per drink, 0 if absent
+     */
+    public int getAddonCount(int addonId) {
+        for (int m : modifiers) {
+            if (m >>> 8 == addonId) {
+                return m & MAX_COUNT;
+            }
+        }
+        return 0;
+    }
+
     public int getVanillaShots() {
-        return vanillaShots;
+        return getAddonCount(addons.vanillaId());
     }
-    
+
     public int getEspressoShots() {
-        return espressoShots;
+        return getAddonCount(addons.extraShotId());
     }
 
     public double addonsCost() {
-        return quantity * ((vanillaShots * ADDON_VANILLA_SYRUP) + (espressoShots * ADDON_EXTRA_SHOT));
+        double perDrink = 0.0;
+        for (int m : modifiers) {
+            perDrink += (m & MAX_COUNT) * addons.priceAt(m >>> 8);
+        }
+        return quantity * perDrink;
     }
 
     public double basePrice() {
@@ -51,11 +154,12 @@ public class CartItem {
 
     public String addonsLabel() {
         List<String> parts = new ArrayList<>();
-        if (vanillaShots > 0) parts.add(vanillaShots + "x vanilla");
-        if (espressoShots > 0) parts.add(espressoShots + "x extra shot");
+        for (int m : modifiers) {
+            parts.add((m & MAX_COUNT) + "x " + addons.labelAt(m >>> 8));
+        }
         return parts.isEmpty() ? "no add-ons" : String.join(", ", parts);
     }
-    
+
     /**
      * Returns a string representation of this cart item for display.
      */
@@ -66,4 +170,3 @@ public class CartItem {
         return String.format("%s (%s)", drink.getName(), drink.getSize());
     }
 }
-
@@ -0,0 +1,306 @@
+import java.util.*;
+
+/**
+ * Market-basket statistics: which drinks are bought together.
+ *
+ * Drinks (by name, all sizes) get dense ids on first sale. Pair counts form a
+ * sparse symmetric matrix, stored once per unordered pair in an
+ * open-addressing table keyed by {@code (lowId << 32) | highId}. Memory is
+ * bounded: when the table holds more than {@code maxPairs} pairs, the rarest
+ * pairs are dropped. A dropped pair may come back and be dropped again, so
+ * a count is low by at most the sum of every prune's threshold, which is
+ * kept as {@link #getMaxUndercount()}.
+ *
+ * Updated inline from {@link SalesStatistics#recordOrder}, so it has a single
+ * writer as well. An order with k distinct drinks costs O(k^2) table updates.
+ */
+public class CoPurchaseStatistics {
+    private static final int DEFAULT_MAX_PAIRS = 1 << 16;
+
+    private final int maxPairs;
+    private final Map<String, Integer> idByName = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private int[] basketsWith = new int[16]; // orders containing each drink
+    private int baskets;                     // orders recorded
+
+    private long[] keys = new long[64];      // 0 = empty slot
+    private int[] counts = new int[64];
+    private int pairCount;
+    private int maxUndercount;               // sum of the prune thresholds
+    private int[] scratch = new int[8];      // distinct ids of the current order
+
+    public CoPurchaseStatistics() {
+        this(DEFAULT_MAX_PAIRS);
+    }
+
+    /**
+     * @param maxPairs pairs kept before the rarest ones are pruned
+     */
+    public CoPurchaseStatistics(int maxPairs) {
+        this.maxPairs = Math.max(16, maxPairs);
+    }
+
+    /**
+     * Records the drinks of one order as a basket.
+     * @param order the completed order
+     */
+    public void recordOrder(Order order) {
+        int distinct = 0;
+        for (int i = 0; i < order.getItemCount(); i++) {
+            int id = idOf(order.getItem(i).getDrink().getName());
+            boolean seen = false;
+            for (int j = 0; j < distinct && !seen; j++) {
+                seen = scratch[j] == id;
+            }
+            if (!seen) {
+                if (distinct == scratch.length) {
+                    scratch = Arrays.copyOf(scratch, distinct * 2);
+                }
+                scratch[distinct++] = id;
+            }
+        }
+        baskets++;
+        for (int i = 0; i < distinct; i++) {
+            basketsWith[scratch[i]]++;
+            for (int j = i + 1; j < distinct; j++) {
+                addPair(scratch[i], scratch[j], 1);
+            }
+        }
+        if (pairCount > maxPairs) {
+            prune();
+        }
+    }
+
+    /**
+     * Adds another set of co-purchase statistics into this one.
+     * @param other the statistics to add (not modified)
+     */
+    public void merge(CoPurchaseStatistics other) {
+        int[] remap = new int[other.names.size()];
+        for (int i = 0; i < remap.length; i++) {
+            remap[i] = idOf(other.names.get(i));
+            basketsWith[remap[i]] += other.basketsWith[i];
+        }
+        baskets += other.baskets;
+        for (int slot = 0; slot < other.keys.length; slot++) {
+            long key = other.keys[slot];
+            if (key != 0) {
+                addPair(remap[(int) (key >>> 32)], remap[(int) key], other.counts[slot]);
+            }
+        }
+        maxUndercount += other.maxUndercount; // either side may have dropped the pair
+        if (pairCount > maxPairs) {
+            prune();
+        }
+    }
+
+    /**
+     * Returns the number of orders containing both drinks.
+     * @param a a drink name
+     * @param b another drink name
+     * @return orders with both (0 if either is unknown)
+     */
+    public int getPairCount(String a, String b) {
+        Integer ia = idByName.get(a);
+        Integer ib = idByName.get(b);
+        if (ia == null || ib == null || ia.equals(ib)) {
+            return 0;
+        }
+        int slot = find(key(ia, ib));
+        return keys[slot] != 0 ? counts[slot] : 0;
+    }
+
+    /**
+     * Returns the number of orders containing a drink.
+     * @param name the drink name
+     * @return order count
+     */
+    public int getBasketCount(String name) {
+        Integer id = idByName.get(name);
+        return id != null ? basketsWith[id] : 0;
+    }
+
+    public int getTotalBaskets() {
+        return baskets;
+    }
+
+    /**
+     * Support of {a, b}: the fraction of all orders containing both.
+     */
+    public double support(String a, String b) {
+        return baskets == 0 ? 0.0 : (double) getPairCount(a, b) / baskets;
+    }
+
+    /**
+     * Confidence of a -> b: the fraction of orders with a that also have b.
+     */
+    public double confidence(String a, String b) {
+        int withA = getBasketCount(a);
+        return withA == 0 ? 0.0 : (double) getPairCount(a, b) / withA;
+    }
+
+    /**
+     * Lift of a -> b: confidence relative to how often b is bought anyway.
+     * Above 1 means the drinks are bought together more than by chance.
+     */
+    public double lift(String a, String b) {
+        int withB = getBasketCount(b);
+        return withB == 0 ? 0.0 : confidence(a, b) * baskets / withB;
+    }
+
+    /**
+     * Returns the drinks most often bought with the given one.
+     * @param name the drink name
+     * @param k maximum number of companions
+     * @return companion names, most frequent first
+     */
+    public List<String> topCompanions(String name, int k) {
+        Integer id = idByName.get(name);
+        List<String> result = new ArrayList<>();
+        if (id == null || k <= 0) {
+            return result;
+        }
+        // Bounded min-heap of (count, companion id) over the row of 'id'
+        PriorityQueue<long[]> heap = new PriorityQueue<>(Comparator
+                .<long[]>comparingLong(e -> e[0]).thenComparing(e -> names.get((int) e[1]), Comparator.reverseOrder()));
+        for (int slot = 0; slot < keys.length; slot++) {
+            long key = keys[slot];
+            if (key == 0) {
+                continue;
+            }
+            int low = (int) (key >>> 32);
+            int high = (int) key;
+            if (low != id && high != id) {
+                continue;
+            }
+            heap.add(new long[] {counts[slot], low == id ? high : low});
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        }
+        while (!heap.isEmpty()) {
+            result.add(names.get((int) heap.poll()[1]));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Returns how far a pair count may be below the true count because of
+     * pruning: the sum of the thresholds of every prune (and of merged
+     * statistics). 0 when nothing was pruned.
+     */
+    public int getMaxUndercount() {
+        return maxUndercount;
+    }
+
+    public int getTrackedPairs() {
+        return pairCount;
+    }
+
+    private int idOf(String name) {
+        Integer id = idByName.get(name);
+        if (id == null) {
+            id = names.size();
+            idByName.put(name, id);
+            names.add(name);
+            if (id == basketsWith.length) {
+                basketsWith = Arrays.copyOf(basketsWith, id * 2);
+            }
+        }
+        return id;
+    }
+
+    private static long key(int a, int b) {
+        return a < b ? ((long) a << 32) | b : ((long) b << 32) | a; // high id >= 1, so never 0
+    }
+
+    private void addPair(int a, int b, int count) {
+        long key = key(a, b);
+        int slot = find(key);
+        if (keys[slot] == 0) {
+            keys[slot] = key;
+            pairCount++;
+            if (pairCount * 2 > keys.length) {
+                rehash(keys.length * 2);
+                slot = find(key);
+            }
+        }
+        counts[slot] += count;
+    }
+
+    // Linear probing: the slot holding key, or the empty slot where it belongs
+    private int find(long key) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[capacity];
+        counts = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    // Drops the rarest pairs until at most 3/4 of maxPairs remain
+    private void prune() {
+        int target = maxPairs * 3 / 4;
+        int[] histogram = new int[64]; // pairs by count, last bucket = 63+
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                histogram[Math.min(63, counts[slot])]++;
+            }
+        }
+        int threshold = 0;
+        int remaining = pairCount;
+        while (remaining > target && threshold < 62) {
+            threshold++;
+            remaining -= histogram[threshold];
+        }
+        // Too many pairs with counts of 63 and up: rank those exactly
+        int ties = -1; // pairs at the threshold still to drop; -1 = all of them
+        if (remaining > target) {
+            int[] frequent = new int[remaining];
+            int n = 0;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0 && counts[slot] > threshold) {
+                    frequent[n++] = counts[slot];
+                }
+            }
+            Arrays.sort(frequent);
+            int drop = remaining - target;
+            threshold = frequent[drop - 1];
+            ties = drop;
+            for (int i = 0; i < drop && frequent[i] < threshold; i++) {
+                ties--;
+            }
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0 && counts[slot] <= threshold) {
+                if (counts[slot] == threshold && ties >= 0) {
+                    if (ties == 0) {
+                        continue;
+                    }
+                    ties--;
+                }
+                keys[slot] = 0;
+                counts[slot] = 0;
+                pairCount--;
+            }
+        }
+        maxUndercount += threshold;
+        rehash(keys.length); // restore probe chains broken by the removals
+    }
+}
@@ -0,0 +1,388 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * One compacted day of the {@link OrderJournal}, read through a memory map.
+ *
+ * Layout (big-endian):
+ *   header:   magic, version, menu fingerprint, metadata CRC32, order count,
+ *             block count, string count, bitmap words, and the offsets of the
+ *             summary, index and record sections
+ *   strings:  varint-length UTF-8 (promotion names, then categories)
+ *   summary:  revenue, discount and tax in cents; gross sales in cents per
+ *             category; units sold per catalog drink id
+ *   index:    per block of {@value #BLOCK_ORDERS} orders: first and last
+ *             timestamp, record offset, order count, record bytes, record
+ *             CRC32 and a bitmap of the drink ids sold in the block
+ *   records:  {@link OrderRecordCodec} records; timestamp deltas restart at
+ *             each block
+ *
+ * Opening the file checks only the metadata checksum. A block's records are
+ * checked when that block is decoded. Day totals are read from the summary,
+ * and time or drink filters choose blocks from the index, so a query only
+ * touches the pages it needs.
+ */
+public class DailyOrderFile {
+    static final int MAGIC = 0x53424A44; // "SBJD"
+    static final int VERSION = 4;
+    static final int BLOCK_ORDERS = 64;
+    private static final int HEADER_BYTES = 4 * 11;
+    private static final int INDEX_FIXED_BYTES = 8 + 8 + 4 + 4 + 4 + 4;
+
+    private final Path path;
+    private final OrderRecordCodec codec;
+    private final ByteBuffer buf;
+    private final List<String> strings;
+    private final int orderCount;
+    private final int blockCount;
+    private final int bitmapWords;
+    private final int indexOffset;
+    private final int recordsOffset;
+    private final int indexEntryBytes;
+    private final long revenueCents;
+    private final long discountCents;
+    private final long taxCents;
+    private final Map<String, Long> grossCentsByCategory;
+    private final int unitsOffset;
+    private final int unitsCount;
+
+    private DailyOrderFile(Path path, OrderRecordCodec codec, ByteBuffer buf) throws IOException {
+        this.path = path;
+        this.codec = codec;
+        this.buf = buf;
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("Not a daily order file: " + path);
+        }
+        if (buf.getInt(8) != codec.getFingerprint()) {
+            throw new IOException("Daily order file was written for a different menu: " + path);
+        }
+        int metadataCrc = buf.getInt(12);
+        orderCount = buf.getInt(16);
+        blockCount = buf.getInt(20);
+        int stringCount = buf.getInt(24);
+        bitmapWords = buf.getInt(28);
+        int summaryOffset = buf.getInt(32);
+        indexOffset = buf.getInt(36);
+        recordsOffset = buf.getInt(40);
+        indexEntryBytes = INDEX_FIXED_BYTES + 8 * bitmapWords;
+        if (recordsOffset > buf.limit() || indexOffset + blockCount * indexEntryBytes != recordsOffset) {
+            throw new IOException("Truncated daily order file: " + path);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().position(HEADER_BYTES).limit(recordsOffset));
+        if ((int) crc.getValue() != metadataCrc) {
+            throw new IOException("Corrupt daily order file: " + path);
+        }
+
+        OrderRecordCodec.Reader in = new OrderRecordCodec.Reader(buf, HEADER_BYTES, summaryOffset);
+        List<String> table = new ArrayList<>(stringCount);
+        for (int i = 0; i < stringCount; i++) {
+            table.add(in.readString());
+        }
+        strings = Collections.unmodifiableList(table);
+
+        ByteBuffer summary = buf.duplicate().position(summaryOffset);
+        revenueCents = summary.getLong();
+        discountCents = summary.getLong();
+        taxCents = summary.getLong();
+        Map<String, Long> byCategory = new LinkedHashMap<>();
+        int categoryCount = summary.getInt();
+        for (int i = 0; i < categoryCount; i++) {
+            byCategory.put(strings.get(summary.getInt()), summary.getLong());
+        }
+        grossCentsByCategory = Collections.unmodifiableMap(byCategory);
+        unitsCount = summary.getInt();
+        unitsOffset = summary.position();
+    }
+
+    /**
+     * Memory-maps a daily file.
+     * @param path the file
+     * @param codec codec for the menu the file was written with
+     * @return the open file
+     * @throws IOException if it is unreadable, corrupt or for another menu
+     */
+    static DailyOrderFile open(Path path, OrderRecordCodec codec) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Truncated daily order file: " + path);
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new DailyOrderFile(path, codec, buf);
+        }
+    }
+
+    /**
+     * Writes a day of orders (sorted by timestamp) as a daily file.
+     * @param orders the day's orders, oldest first
+     * @param path destination
+     * @param codec codec for the current menu
+     * @throws IOException if the file cannot be written
+     */
+    static void write(List<Order> orders, Path path, OrderRecordCodec codec) throws IOException {
+        MenuCatalog catalog = codec.getCatalog();
+
+        // Shared string table, so every block decodes without the ones before it
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        for (Order order : orders) {
+            if (order.getPromotionName() != null) {
+                strings.putIfAbsent(order.getPromotionName(), strings.size() + 1);
+            }
+        }
+        long revenue = 0;
+        long discount = 0;
+        long tax = 0;
+        Map<Integer, Long> grossByCategory = new LinkedHashMap<>(); // string ref -> cents
+        int[] units = new int[catalog.size()];
+        for (Order order : orders) {
+            long base = OrderRecordCodec.cents(order.getBaseTotal());
+            long addons = OrderRecordCodec.cents(order.getAddonsTotal());
+            long orderDiscount = OrderRecordCodec.cents(order.getDiscount());
+            long orderTax = OrderRecordCodec.cents(order.getTax());
+            revenue += base + addons - orderDiscount + orderTax; // final total as replayed
+            discount += orderDiscount;
+            tax += orderTax;
+            for (int i = 0; i < order.getItemCount(); i++) {
+                CartItem item = order.getItem(i);
+                int id = codec.drinkId(item.getDrink());
+                units[id] += item.getQuantity();
+                String category = catalog.drinkAt(id).getCategoryName();
+                int ref = strings.computeIfAbsent(category, k -> strings.size() + 1);
+                grossByCategory.merge(ref, OrderRecordCodec.cents(item.lineSubtotalBeforeDiscounts()), Long::sum);
+            }
+        }
+
+        OrderRecordCodec.Bytes stringBytes = new OrderRecordCodec.Bytes();
+        for (String s : strings.keySet()) {
+            stringBytes.writeString(s);
+        }
+
+        ByteBuffer summary = ByteBuffer.allocate(8 * 3 + 4 + grossByCategory.size() * 12 + 4 + 4 * units.length);
+        summary.putLong(revenue).putLong(discount).putLong(tax);
+        summary.putInt(grossByCategory.size());
+        for (Map.Entry<Integer, Long> entry : grossByCategory.entrySet()) {
+            summary.putInt(entry.getKey() - 1).putLong(entry.getValue());
+        }
+        summary.putInt(units.length);
+        for (int u : units) {
+            summary.putInt(u);
+        }
+
+        int bitmapWords = (catalog.size() + 63) / 64;
+        int blockCount = (orders.size() + BLOCK_ORDERS - 1) / BLOCK_ORDERS;
+        ByteBuffer index = ByteBuffer.allocate(blockCount * (INDEX_FIXED_BYTES + 8 * bitmapWords));
+        OrderRecordCodec.Bytes records = new OrderRecordCodec.Bytes();
+        for (int block = 0; block < blockCount; block++) {
+            int from = block * BLOCK_ORDERS;
+            int to = Math.min(orders.size(), from + BLOCK_ORDERS);
+            long first = OrderRecordCodec.toMillis(orders.get(from).getTimestamp());
+            long millis = first;
+            int start = records.size();
+            long[] bitmap = new long[bitmapWords];
+            for (int i = from; i < to; i++) {
+                Order order = orders.get(i);
+                millis = codec.encode(order, millis, strings, records);
+                for (int j = 0; j < order.getItemCount(); j++) {
+                    int id = codec.drinkId(order.getItem(j).getDrink());
+                    bitmap[id >>> 6] |= 1L << id;
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(records.buf, start, records.size() - start);
+            index.putLong(first).putLong(millis).putInt(start).putInt(to - from)
+                    .putInt(records.size() - start).putInt((int) crc.getValue());
+            for (long word : bitmap) {
+                index.putLong(word);
+            }
+        }
+
+        int summaryOffset = HEADER_BYTES + stringBytes.size();
+        int indexOffset = summaryOffset + summary.capacity();
+        int recordsOffset = indexOffset + index.capacity();
+        CRC32 crc = new CRC32();
+        crc.update(stringBytes.buf, 0, stringBytes.size());
+        crc.update(summary.array());
+        crc.update(index.array());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(codec.getFingerprint()).putInt((int) crc.getValue())
+                .putInt(orders.size()).putInt(blockCount).putInt(strings.size()).putInt(bitmapWords)
+                .putInt(summaryOffset).putInt(indexOffset).putInt(recordsOffset);
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(new ByteBuffer[] {header.flip(), ByteBuffer.wrap(stringBytes.buf, 0, stringBytes.size()),
+                    summary.flip(), index.flip(), ByteBuffer.wrap(records.buf, 0, records.size())});
+            out.force(true);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getOrderCount() {
+        return orderCount;
+    }
+
+    public double getRevenue() {
+        return revenueCents / 100.0;
+    }
+
+    public double getDiscount() {
+        return discountCents / 100.0;
+    }
+
+    public double getTax() {
+        return taxCents / 100.0;
+    }
+
+    /**
+     * Returns line sales before order-level discounts, per category.
+     * @return category -> amount
+     */
+    public Map<String, Double> getGrossSalesByCategory() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : grossCentsByCategory.entrySet()) {
+            result.put(entry.getKey(), entry.getValue() / 100.0);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the units sold of one catalog drink, from the summary.
+     * @param drinkId the catalog id
+     * @return units sold that day
+     */
+    public int getUnitsSold(int drinkId) {
+        return drinkId >= 0 && drinkId < unitsCount ? buf.getInt(unitsOffset + 4 * drinkId) : 0;
+    }
+
+    /**
+     * Decodes every order of the day.
+     * @return orders, oldest first
+     * @throws IOException if a block is corrupt
+     */
+    public List<Order> readAll() throws IOException {
+        List<Order> orders = new ArrayList<>(orderCount);
+        for (int block = 0; block < blockCount; block++) {
+            readBlock(block, orders);
+        }
+        return orders;
+    }
+
+    /**
+     * Decodes the orders placed in [from, to), skipping blocks outside the range.
+     * @param from inclusive start
+     * @param to exclusive end
+     * @return matching orders, oldest first
+     * @throws IOException if a block is corrupt
+     */
+    public List<Order> read(LocalDateTime from, LocalDateTime to) throws IOException {
+        long fromMillis = OrderRecordCodec.toMillis(from);
+        long toMillis = OrderRecordCodec.toMillis(to);
+        // First block that ends at or after 'from' (blocks are in time order)
+        int lo = 0;
+        int hi = blockCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buf.getLong(entry(mid) + 8) < fromMillis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<Order> orders = new ArrayList<>();
+        List<Order> block = new ArrayList<>(BLOCK_ORDERS);
+        for (int b = lo; b < blockCount && buf.getLong(entry(b)) < toMillis; b++) {
+            block.clear();
+            readBlock(b, block);
+            for (Order order : block) {
+                long millis = OrderRecordCodec.toMillis(order.getTimestamp());
+                if (millis >= fromMillis && millis < toMillis) {
+                    orders.add(order);
+                }
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Decodes the orders containing any of the given drinks, using the block
+     * bitmaps to skip blocks where none of them was sold.
+     * @param drinkIds catalog ids
+     * @return matching orders, oldest first
+     * @throws IOException if a block is corrupt
+     */
+    public List<Order> readContaining(int[] drinkIds) throws IOException {
+        List<Order> orders = new ArrayList<>();
+        List<Order> block = new ArrayList<>(BLOCK_ORDERS);
+        for (int b = 0; b < blockCount; b++) {
+            if (!blockHasAny(b, drinkIds)) {
+                continue;
+            }
+            block.clear();
+            readBlock(b, block);
+            for (Order order : block) {
+                if (containsAny(order, drinkIds)) {
+                    orders.add(order);
+                }
+            }
+        }
+        return orders;
+    }
+
+    private boolean blockHasAny(int block, int[] drinkIds) {
+        int bitmap = entry(block) + INDEX_FIXED_BYTES;
+        for (int id : drinkIds) {
+            if (id >= 0 && (id >>> 6) < bitmapWords
+                    && (buf.getLong(bitmap + 8 * (id >>> 6)) & (1L << id)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean containsAny(Order order, int[] drinkIds) throws IOException {
+        for (int i = 0; i < order.getItemCount(); i++) {
+            int id = codec.drinkId(order.getItem(i).getDrink());
+            for (int wanted : drinkIds) {
+                if (id == wanted) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void readBlock(int block, List<Order> out) throws IOException {
+        int entry = entry(block);
+        long millis = buf.getLong(entry);
+        int start = recordsOffset + buf.getInt(entry + 16);
+        int count = buf.getInt(entry + 20);
+        int length = buf.getInt(entry + 24);
+        if (start + length > buf.limit()) {
+            throw new IOException("Truncated daily order file: " + path);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().position(start).limit(start + length));
+        if ((int) crc.getValue() != buf.getInt(entry + 28)) {
+            throw new IOException("Corrupt block " + block + " in " + path);
+        }
+        OrderRecordCodec.Reader in = new OrderRecordCodec.Reader(buf, start, start + length);
+        for (int i = 0; i < count; i++) {
+            Order order = codec.decode(in, millis, strings);
+            millis = OrderRecordCodec.toMillis(order.getTimestamp());
+            out.add(order);
+        }
+    }
+
+    private int entry(int block) {
+        return indexOffset + block * indexEntryBytes;
+    }
+}
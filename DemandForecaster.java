@@ -0,0 +1,209 @@
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Streaming hourly demand forecast per drink and size, for planning prep.
+ *
+ * Units sold are counted per catalog drink id in the current clock hour.
+ * When a drink's hour closes, its count updates a Holt (level + trend)
+ * exponential smoothing model for that hour of the day, so each of the 24
+ * hours learns its own demand (7 AM rush vs. 3 PM lull) from day to day.
+ * All state is in flat primitive arrays indexed by {@code drinkId * 24 + hour}.
+ *
+ * Recording an order costs O(items). A drink's hour is closed lazily, the
+ * next time the drink sells or a forecast is asked for. Hours in which a
+ * drink did not sell count as zero demand. Forecasting the whole menu costs
+ * O(drinks) and allocates nothing when given an output array. Orders that
+ * arrive late (for an hour already closed) count towards the open hour.
+ */
+public class DemandForecaster implements OrderEventHandler {
+    static final int HOURS = 24;
+    private static final long MILLIS_PER_HOUR = 3_600_000L;
+    private static final int MAX_CATCHUP_DAYS = 7; // zero-demand updates per hour slot after a gap
+
+    private final MenuCatalog catalog;
+    private final Map<Drink, Integer> drinkIds = new IdentityHashMap<>();
+    private final double alpha;
+    private final double beta;
+    private final double[] level;
+    private final double[] trend;
+    private final boolean[] seeded;
+    private final long[] openHour;   // per drink: epoch hour being counted, -1 if none
+    private final int[] openUnits;   // per drink: units sold in openHour
+    private long latestHour = -1;
+
+    /**
+     * Creates a forecaster with level smoothing 0.3 and trend smoothing 0.05.
+     * @param catalog the menu that drink ids refer to
+     */
+    public DemandForecaster(MenuCatalog catalog) {
+        this(catalog, 0.3, 0.05);
+    }
+
+    /**
+     * @param catalog the menu that drink ids refer to
+     * @param alpha level smoothing (0-1; higher reacts faster)
+     * @param beta trend smoothing (0-1; 0 disables the trend)
+     */
+    public DemandForecaster(MenuCatalog catalog, double alpha, double beta) {
+        if (alpha <= 0 || alpha > 1 || beta < 0 || beta > 1) {
+            throw new IllegalArgumentException("Smoothing factors must be in (0, 1] and [0, 1]");
+        }
+        this.catalog = catalog;
+        this.alpha = alpha;
+        this.beta = beta;
+        int drinks = catalog.size();
+        this.level = new double[drinks * HOURS];
+        this.trend = new double[drinks * HOURS];
+        this.seeded = new boolean[drinks * HOURS];
+        this.openHour = new long[drinks];
+        this.openUnits = new int[drinks];
+        Arrays.fill(openHour, -1L);
+        for (int id = 0; id < drinks; id++) {
+            drinkIds.put(catalog.drinkAt(id), id);
+        }
+    }
+
+    public MenuCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Counts an order's units towards its hour. Drinks not on the catalog are ignored.
+     * @param order the completed order
+     */
+    public synchronized void recordOrder(Order order) {
+        long hour = epochHour(order.getTimestamp());
+        latestHour = Math.max(latestHour, hour);
+        for (int i = 0; i < order.getItemCount(); i++) {
+            CartItem item = order.getItem(i);
+            int id = drinkId(item.getDrink());
+            if (id < 0) {
+                continue;
+            }
+            if (openHour[id] < hour) {
+                closeThrough(id, hour);
+            }
+            openUnits[id] += item.getQuantity();
+        }
+    }
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        if (event.getType() == OrderEvent.Type.ORDER_COMPLETED) {
+            recordOrder(event.getOrder());
+        }
+    }
+
+    /**
+     * Returns the latest hour an order was recorded in.
+     * @return the start of that hour, or null before the first order
+     */
+    public synchronized LocalDateTime getCurrentHour() {
+        return latestHour < 0 ? null : OrderRecordCodec.fromMillis(latestHour * MILLIS_PER_HOUR);
+    }
+
+    /**
+     * Forecasts units per drink for the hour after the latest recorded order.
+     * @return units indexed by catalog drink id
+     */
+    public double[] forecastNextHour() {
+        return forecastNextHour(new double[catalog.size()]);
+    }
+
+    /**
+     * Forecasts units per drink for the hour after the latest recorded order.
+     * @param out array of at least {@link MenuCatalog#size()} to fill
+     * @return out, filled with units indexed by catalog drink id
+     */
+    public synchronized double[] forecastNextHour(double[] out) {
+        if (latestHour < 0) {
+            Arrays.fill(out, 0, catalog.size(), 0.0);
+            return out;
+        }
+        // Close every completed hour, so no finished hour's sales are left out
+        int slot = (int) ((latestHour + 1) % HOURS);
+        for (int id = 0; id < openHour.length; id++) {
+            if (openHour[id] >= 0 && openHour[id] < latestHour) {
+                closeThrough(id, latestHour);
+            }
+            out[id] = forecastAt(id * HOURS + slot);
+        }
+        return out;
+    }
+
+    /**
+     * Forecasts a drink's units for its next occurrence of an hour of the day.
+     * Sales in hours not yet closed are not included.
+     * @param drinkId catalog drink id
+     * @param hourOfDay 0-23
+     * @return forecast units (0 if the drink has no history for that hour)
+     */
+    public synchronized double forecast(int drinkId, int hourOfDay) {
+        return forecastAt(drinkId * HOURS + hourOfDay);
+    }
+
+    /**
+     * Returns the drinks with the highest next-hour forecast.
+     * @param n how many
+     * @return "Name (Size)" -> forecast units, highest first
+     */
+    public Map<String, Double> topNextHour(int n) {
+        double[] forecast = forecastNextHour();
+        Integer[] ids = new Integer[forecast.length];
+        for (int id = 0; id < ids.length; id++) {
+            ids[id] = id;
+        }
+        Arrays.sort(ids, (a, b) -> Double.compare(forecast[b], forecast[a]));
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(n, ids.length) && forecast[ids[i]] > 0; i++) {
+            Drink drink = catalog.drinkAt(ids[i]);
+            result.put(drink.getName() + " (" + drink.getSize() + ")", forecast[ids[i]]);
+        }
+        return result;
+    }
+
+    private double forecastAt(int cell) {
+        return seeded[cell] ? Math.max(0.0, level[cell] + trend[cell]) : 0.0;
+    }
+
+    // Folds the drink's open hour and any quiet hours before `hour` into the model
+    private void closeThrough(int id, long hour) {
+        long open = openHour[id];
+        if (open >= 0) {
+            update(id * HOURS + (int) (open % HOURS), openUnits[id]);
+            // Zero demand for the hours in between, at most a week's worth per slot
+            long quietFrom = Math.max(open + 1, hour - (long) HOURS * MAX_CATCHUP_DAYS);
+            for (long h = quietFrom; h < hour; h++) {
+                int cell = id * HOURS + (int) (h % HOURS);
+                if (seeded[cell]) {
+                    update(cell, 0);
+                }
+            }
+        }
+        openHour[id] = hour;
+        openUnits[id] = 0;
+    }
+
+    private void update(int cell, int units) {
+        if (!seeded[cell]) {
+            level[cell] = units;
+            trend[cell] = 0.0;
+            seeded[cell] = true;
+            return;
+        }
+        double previous = level[cell];
+        level[cell] = alpha * units + (1 - alpha) * (previous + trend[cell]);
+        trend[cell] = beta * (level[cell] - previous) + (1 - beta) * trend[cell];
+    }
+
+    private int drinkId(Drink drink) {
+        Integer id = drinkIds.get(drink);
+        // Same drink from another menu instance (e.g. a store overlay)
+        return id != null ? id : catalog.idOf(drink.getName(), drink.getSize());
+    }
+
+    private static long epochHour(LocalDateTime timestamp) {
+        return Math.floorDiv(OrderRecordCodec.toMillis(timestamp), MILLIS_PER_HOUR);
+    }
+}
@@ -0,0 +1,241 @@
+import java.util.*;
+
+/**
+ * Search index over the menu, built once when the menu is loaded.
+ * Supports exact name + size lookup, prefix autocomplete on any word of a
+ * drink name, and typo-tolerant matching, with results ranked by popularity.
+ */
+public class DrinkSearchIndex {
+    private static final int GRAM = 3;
+
+    private final Map<String, Drink> exact;          // key: "name|size" (lower-case)
+    private final String[] names;                    // distinct drink names, by id
+    private final String[] lowerNames;               // lower-case names, by id
+    private final String[] prefixKeys;               // sorted word-start suffixes of names
+    private final int[] prefixIds;                   // name id for each prefix key
+    private final Map<String, int[]> trigramPostings; // trigram -> name ids
+
+    public DrinkSearchIndex(List<Drink> menu) {
+        exact = new HashMap<>();
+        Map<String, Integer> nameIds = new LinkedHashMap<>();
+        for (Drink drink : menu) {
+            if (drink.getName() == null || drink.getSize() == null) {
+                continue;
+            }
+            String lowerName = drink.getName().toLowerCase();
+            exact.putIfAbsent(lowerName + "|" + drink.getSize().toLowerCase(), drink);
+            if (!nameIds.containsKey(lowerName)) {
+                nameIds.put(lowerName, nameIds.size());
+            }
+        }
+
+        names = new String[nameIds.size()];
+        lowerNames = new String[nameIds.size()];
+        for (Drink drink : menu) {
+            if (drink.getName() == null) {
+                continue;
+            }
+            int id = nameIds.get(drink.getName().toLowerCase());
+            if (names[id] == null) {
+                names[id] = drink.getName();
+                lowerNames[id] = drink.getName().toLowerCase();
+            }
+        }
+
+        // Prefix table: one entry per word start, so "lat" finds "Caffe Latte"
+        List<String> keys = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < lowerNames.length; id++) {
+            String n = lowerNames[id];
+            for (int i = 0; i < n.length(); i++) {
+                if (i == 0 || n.charAt(i - 1) == ' ') {
+                    keys.add(n.substring(i));
+                    ids.add(id);
+                }
+            }
+        }
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> keys.get(a).compareTo(keys.get(b)));
+        prefixKeys = new String[order.length];
+        prefixIds = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            prefixKeys[i] = keys.get(order[i]);
+            prefixIds[i] = ids.get(order[i]);
+        }
+
+        // Trigram postings for typo-tolerant candidate generation
+        Map<String, List<Integer>> postings = new HashMap<>();
+        for (int id = 0; id < lowerNames.length; id++) {
+            for (String gram : trigrams(lowerNames[id])) {
+                List<Integer> list = postings.computeIfAbsent(gram, k -> new ArrayList<>());
+                if (list.isEmpty() || list.get(list.size() - 1) != id) {
+                    list.add(id);
+                }
+            }
+        }
+        trigramPostings = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+            List<Integer> list = entry.getValue();
+            int[] arr = new int[list.size()];
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = list.get(i);
+            }
+            trigramPostings.put(entry.getKey(), arr);
+        }
+    }
+
+    /**
+     * Finds a menu item by exact name and size (case-insensitive).
+     * @param name the drink name
+     * @param size the drink size
+     * @return the matching drink, or null if not on the menu
+     */
+    public Drink find(String name, String size) {
+        if (name == null || size == null) {
+            return null;
+        }
+        return exact.get(name.toLowerCase() + "|" + size.toLowerCase());
+    }
+
+    /**
+     * Returns drink names having a word that starts with the given prefix,
+     * most popular first.
+     * @param prefix the typed prefix
+     * @param limit maximum number of results
+     * @param statistics sales statistics used for ranking (may be null)
+     * @return matching drink names
+     */
+    public List<String> autocomplete(String prefix, int limit, SalesStatistics statistics) {
+        if (prefix == null || prefix.isBlank() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        String p = prefix.trim().toLowerCase();
+        int from = lowerBound(p);
+        Set<Integer> matches = new LinkedHashSet<>();
+        for (int i = from; i < prefixKeys.length && prefixKeys[i].startsWith(p); i++) {
+            matches.add(prefixIds[i]);
+        }
+        return rank(matches, null, limit, statistics);
+    }
+
+    /**
+     * Returns drink names within a small edit distance of the query
+     * (closest first, then most popular).
+     * @param query the typed name, possibly misspelled
+     * @param limit maximum number of results
+     * @param statistics sales statistics used for ranking (may be null)
+     * @return suggested drink names
+     */
+    public List<String> suggest(String query, int limit, SalesStatistics statistics) {
+        if (query == null || query.isBlank() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        String q = query.trim().toLowerCase();
+        int maxEdits = q.length() <= 4 ? 1 : 2;
+
+        // Candidates must share enough trigrams to possibly be within maxEdits
+        Map<Integer, Integer> shared = new HashMap<>();
+        List<String> grams = trigrams(q);
+        for (String gram : new HashSet<>(grams)) {
+            int[] ids = trigramPostings.get(gram);
+            if (ids != null) {
+                for (int id : ids) {
+                    shared.merge(id, 1, Integer::sum);
+                }
+            }
+        }
+        int minShared = Math.max(1, grams.size() - GRAM * maxEdits);
+
+        Map<Integer, Integer> distances = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : shared.entrySet()) {
+            if (entry.getValue() < minShared) {
+                continue;
+            }
+            int d = editDistance(q, lowerNames[entry.getKey()], maxEdits);
+            if (d <= maxEdits) {
+                distances.put(entry.getKey(), d);
+            }
+        }
+        return rank(distances.keySet(), distances, limit, statistics);
+    }
+
+    private List<String> rank(Collection<Integer> ids, Map<Integer, Integer> distances,
+                              int limit, SalesStatistics statistics) {
+        List<Integer> sorted = new ArrayList<>(ids);
+        sorted.sort((a, b) -> {
+            if (distances != null) {
+                int byDistance = Integer.compare(distances.get(a), distances.get(b));
+                if (byDistance != 0) {
+                    return byDistance;
+                }
+            }
+            int byPopularity = Integer.compare(popularity(b, statistics), popularity(a, statistics));
+            return byPopularity != 0 ? byPopularity : lowerNames[a].compareTo(lowerNames[b]);
+        });
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, sorted.size()); i++) {
+            result.add(names[sorted.get(i)]);
+        }
+        return result;
+    }
+
+    private int popularity(int id, SalesStatistics statistics) {
+        return statistics == null ? 0 : statistics.getDrinkNameCount(names[id]);
+    }
+
+    private int lowerBound(String p) {
+        int lo = 0;
+        int hi = prefixKeys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (prefixKeys[mid].compareTo(p) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static List<String> trigrams(String s) {
+        String padded = " " + s + " ";
+        List<String> grams = new ArrayList<>();
+        for (int i = 0; i + GRAM <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    /**
+     * Levenshtein distance with early exit once every cell exceeds the bound.
+     */
+    private static int editDistance(String a, String b, int bound) {
+        if (Math.abs(a.length() - b.length()) > bound) {
+            return bound + 1;
+        }
+        int[] prev = new int[b.length() + 1];
+        int[] curr = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            curr[0] = i;
+            int rowMin = curr[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                curr[j] = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, curr[j]);
+            }
+            if (rowMin > bound) {
+                return bound + 1;
+            }
+            int[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+        }
+        return prev[b.length()];
+    }
+}
@@ -0,0 +1,243 @@
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Remembers recently ingested order ids so that a register retrying an
+ * upload does not count the same order twice.
+ *
+ * Ids are bucketed by the time in the id (see {@link OrderIdGenerator}) into
+ * a ring of partitions covering a rolling window, one hour each by default.
+ * Each partition has a Bloom filter sized for its expected orders and an
+ * exact open-addressing table of its ids. A new id almost always misses the
+ * small, cache-resident Bloom filter and is added without looking at the
+ * table; only a Bloom hit (a retry, or a false positive at about 1%) is
+ * confirmed against the table. Both checks are O(1).
+ *
+ * When time moves into a new partition, the oldest one is cleared and reused,
+ * so memory is bounded by the orders inside the window: 1.2-2.4 bytes per
+ * expected order for the Bloom filters and 16-32 bytes per order for the
+ * tables. Ids older than the window cannot be checked, nor can ids dated
+ * more than one partition ahead of the clock (which would otherwise expire
+ * the whole window); they are reported as {@link Result#UNCHECKABLE} and not
+ * recorded, so the caller decides whether to ingest them.
+ * The window should be longer than any register keeps retrying.
+ *
+ * Thread-safe.
+ */
+public class DuplicateOrderFilter {
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    /** What {@link #add(long)} found out about an id. */
+    public enum Result {
+        /** Not seen before; now recorded. */
+        NEW,
+        /** Seen before inside the window. */
+        DUPLICATE,
+        /** Outside the window (too old, or too far ahead): cannot be checked. */
+        UNCHECKABLE
+    }
+
+    private final Clock clock;
+    private final long partitionMillis;
+    private final Partition[] partitions;
+    private long newestPartition = Long.MIN_VALUE;
+    private long accepted;
+    private long duplicates;
+    private long outOfWindow;
+    private long falsePositives;
+
+    /**
+     * Creates a filter over the last 24 hours in hourly partitions.
+     * @param expectedPerHour orders expected in a busy hour (sizes the Bloom filters)
+     */
+    public DuplicateOrderFilter(int expectedPerHour) {
+        this(Duration.ofHours(24), 24, expectedPerHour, Clock.systemUTC());
+    }
+
+    /**
+     * @param window how far back duplicates are detected
+     * @param partitionCount partitions the window is split into
+     * @param expectedPerPartition orders expected in one partition (sizes the Bloom filters)
+     * @param clock the clock the window is measured back from
+     */
+    public DuplicateOrderFilter(Duration window, int partitionCount, int expectedPerPartition, Clock clock) {
+        if (partitionCount < 1 || window.toMillis() < partitionCount) {
+            throw new IllegalArgumentException("Need at least one partition of at least 1 ms");
+        }
+        this.clock = clock;
+        this.partitionMillis = window.toMillis() / partitionCount;
+        this.partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(Math.max(1, expectedPerPartition));
+        }
+    }
+
+    /**
+     * Records an id unless it has been seen before.
+     * @param id an order id
+     * @return NEW if the order should be counted, DUPLICATE for a retry, or
+     *         UNCHECKABLE for an id outside the window (not recorded)
+     */
+    public synchronized Result add(long id) {
+        long partition = Math.floorDiv(OrderIdGenerator.millisOf(id), partitionMillis);
+        long current = Math.floorDiv(clock.millis(), partitionMillis);
+        if (partition > current + 1) {
+            outOfWindow++;
+            return Result.UNCHECKABLE;
+        }
+        // The window ends at the clock or the newest id, whichever is later
+        newestPartition = Math.max(newestPartition, Math.max(partition, current));
+        if (partition <= newestPartition - partitions.length) {
+            outOfWindow++;
+            return Result.UNCHECKABLE;
+        }
+        Partition p = partitions[(int) Math.floorMod(partition, (long) partitions.length)];
+        if (p.index != partition) {
+            p.reset(partition);
+        }
+        long hash = mix(id);
+        if (p.mightContain(hash)) {
+            if (p.contains(id, hash)) {
+                duplicates++;
+                return Result.DUPLICATE;
+            }
+            falsePositives++;
+        }
+        p.insert(id, hash);
+        accepted++;
+        return Result.NEW;
+    }
+
+    /**
+     * Tells whether an id has been recorded, without recording it.
+     * @param id an order id
+     * @return true if the id is inside the window and was added before
+     */
+    public synchronized boolean contains(long id) {
+        long partition = Math.floorDiv(OrderIdGenerator.millisOf(id), partitionMillis);
+        Partition p = partitions[(int) Math.floorMod(partition, (long) partitions.length)];
+        long hash = mix(id);
+        return p.index == partition && p.mightContain(hash) && p.contains(id, hash);
+    }
+
+    public synchronized long getAccepted() {
+        return accepted;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    /** Returns ids that were too old (or too far ahead) to check. */
+    public synchronized long getOutOfWindow() {
+        return outOfWindow;
+    }
+
+    /** Returns new ids that hit the Bloom filter and had to be confirmed against the table. */
+    public synchronized long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /** Returns the heap used by Bloom filters and id tables. */
+    public synchronized long getMemoryBytes() {
+        long bytes = 0;
+        for (Partition p : partitions) {
+            bytes += 8L * (p.bits.length + p.table.length);
+        }
+        return bytes;
+    }
+
+    // Stafford variant 13 of the MurmurHash3 finalizer (as in SplittableRandom)
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * One time slice: a Bloom filter over its ids, and the ids themselves in
+     * an open-addressing table. Slots hold {@code ~id}, so ids (never
+     * negative) never collide with the empty slot 0.
+     */
+    private static final class Partition {
+        private final long[] bits;
+        private final int bitMask;
+        private final int hashes;
+        private long[] table = new long[1024];
+        private int size;
+        private long index = Long.MIN_VALUE;
+
+        Partition(int expected) {
+            // m = -n ln p / (ln 2)^2 bits, rounded up to a power of two; k = m/n ln 2
+            double bitsWanted = -expected * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2));
+            int bitCount = Integer.highestOneBit((int) Math.min(1 << 30, Math.max(64, (long) bitsWanted)) - 1) << 1;
+            this.bits = new long[bitCount >>> 6];
+            this.bitMask = bitCount - 1;
+            this.hashes = Math.max(1, (int) Math.round((double) bitCount / expected * Math.log(2)));
+        }
+
+        // Keeps the table's capacity: the same hour tomorrow needs about the same
+        void reset(long partition) {
+            Arrays.fill(bits, 0L);
+            Arrays.fill(table, 0L);
+            size = 0;
+            index = partition;
+        }
+
+        // Double hashing: bit i is h1 + i * h2
+        boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (h1 + i * h2) & bitMask;
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean contains(long id, long hash) {
+            int mask = table.length - 1;
+            for (int slot = (int) hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                if (table[slot] == ~id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void insert(long id, long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (h1 + i * h2) & bitMask;
+                bits[bit >>> 6] |= 1L << bit;
+            }
+            if (++size > table.length / 2) {
+                grow();
+            }
+            put(table, ~id, hash);
+        }
+
+        private void grow() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            for (long slotValue : old) {
+                if (slotValue != 0) {
+                    put(table, slotValue, mix(~slotValue));
+                }
+            }
+        }
+
+        private static void put(long[] table, long slotValue, long hash) {
+            int mask = table.length - 1;
+            int slot = (int) hash & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = slotValue;
+        }
+    }
+}
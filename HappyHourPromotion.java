@@ -4,8 +4,9 @@ import java.util.List;
 /**
  * Happy Hour Promotion: 20% off Tea drinks between 2:00 PM and 4:00 PM.
  * Applies discount to base drink prices only, not add-ons.
+ * The time window is enforced by {@link PromotionScheduler}.
  */
-public class HappyHourPromotion implements Promotion {
+public class HappyHourPromotion implements TimeWindowPromotion {
     private static final LocalTime HAPPY_HOUR_START = LocalTime.of(14, 0); // 2:00 PM
     private static final LocalTime HAPPY_HOUR_END = LocalTime.of(16, 0); // 4:00 PM
     private static final double DISCOUNT_PERCENTAGE = 0.20;
@@ -26,21 +27,31 @@ public class HappyHourPromotion implements Promotion {
         return teaBaseTotal * DISCOUNT_PERCENTAGE;
     }
     
+    @Override
+    public double maxLineDiscount(CartItem item) {
+        return item.getDrink() instanceof Tea ? item.basePrice() * DISCOUNT_PERCENTAGE : 0.0;
+    }
+    
     @Override
     public String getPromotionName() {
         return "Happy Hour: Tea 20% (drinks only, 2–4 PM)";
     }
     
+    @Override
+    public LocalTime getWindowStart() {
+        return HAPPY_HOUR_START;
+    }
+    
+    @Override
+    public LocalTime getWindowEnd() {
+        return HAPPY_HOUR_END;
+    }
+    
     @Override
     public boolean isApplicable(List<CartItem> items) {
         if (items == null || items.isEmpty()) {
             return false;
         }
-        // Check if current time is within happy hour
-        LocalTime now = LocalTime.now();
-        if (now.isBefore(HAPPY_HOUR_START) || !now.isBefore(HAPPY_HOUR_END)) {
-            return false;
-        }
         // Check if there are any Tea drinks in the cart
         for (CartItem item : items) {
             if (item.getDrink() instanceof Tea) {
@@ -50,4 +61,3 @@ public class HappyHourPromotion implements Promotion {
         return false;
     }
 }
-
@@ -0,0 +1,117 @@
+/**
+ * Fixed-memory histogram over [0, max) with equal-width buckets, plus one
+ * overflow bucket. Recording is O(1) and allocation-free. Percentiles are
+ * interpolated within a bucket, so they are accurate to one bucket width
+ * (exact min and max are kept). Histograms with the same shape can be merged.
+ */
+public class Histogram {
+    private final double max;
+    private final double bucketWidth;
+    private final long[] counts; // last bucket: values >= max
+    private long total;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double maxSeen = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param max upper bound of the regular buckets
+     * @param buckets number of regular buckets
+     */
+    public Histogram(double max, int buckets) {
+        if (max <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("Histogram needs a positive range and bucket count");
+        }
+        this.max = max;
+        this.bucketWidth = max / buckets;
+        this.counts = new long[buckets + 1];
+    }
+
+    /**
+     * Records one value (negative values count as 0).
+     * @param value the value
+     */
+    public void record(double value) {
+        double v = Math.max(0.0, value);
+        int bucket = v >= max ? counts.length - 1 : (int) (v / bucketWidth);
+        counts[bucket]++;
+        total++;
+        sum += v;
+        min = Math.min(min, v);
+        maxSeen = Math.max(maxSeen, v);
+    }
+
+    /**
+     * Returns an independent histogram of the same shape and contents.
+     * @return the copy
+     */
+    public Histogram copy() {
+        Histogram copy = new Histogram(max, counts.length - 1);
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * Adds another histogram of the same shape into this one.
+     * @param other the histogram to add
+     */
+    public void merge(Histogram other) {
+        if (other.counts.length != counts.length || other.max != max) {
+            throw new IllegalArgumentException("Cannot merge histograms of different shapes");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        maxSeen = Math.max(maxSeen, other.maxSeen);
+    }
+
+    /**
+     * Returns the value below which the given fraction of values fall.
+     * @param percentile 0-100
+     * @return the estimated value, or 0 if nothing was recorded
+     */
+    public double percentile(double percentile) {
+        if (total == 0) {
+            return 0.0;
+        }
+        double rank = Math.max(0.0, Math.min(100.0, percentile)) / 100.0 * total;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (seen + counts[i] >= rank) {
+                if (i == counts.length - 1) {
+                    return maxSeen; // overflow bucket has no width
+                }
+                double fraction = (rank - seen) / counts[i];
+                double value = (i + fraction) * bucketWidth;
+                return Math.max(min, Math.min(maxSeen, value));
+            }
+            seen += counts[i];
+        }
+        return maxSeen;
+    }
+
+    public double getMedian() {
+        return percentile(50);
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public double getMean() {
+        return total == 0 ? 0.0 : sum / total;
+    }
+
+    public double getMin() {
+        return total == 0 ? 0.0 : min;
+    }
+
+    public double getMax() {
+        return total == 0 ? 0.0 : maxSeen;
+    }
+}
@@ -0,0 +1,415 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ingredient stock shared by all registers, reserved at checkout.
+ *
+ * Each menu drink (per size) and each add-on has a recipe: the amount of
+ * each ingredient one unit uses. Items without a recipe use nothing and are
+ * never out of stock. Stock levels are CAS counters in an
+ * {@link AtomicLongArray}, so reserving a cart takes no locks: each
+ * ingredient the cart needs is decremented in turn, and if one is short the
+ * ingredients already taken are given back (all or nothing).
+ *
+ * Availability per item is kept in an {@link AtomicIntegerArray} and is
+ * recomputed only when an ingredient's stock falls below what one unit of
+ * some dependent item needs, or when stock comes back while items are out.
+ * Each change is published to the {@link DepletionListener}s, on the thread
+ * that caused it, so the menu can hide sold-out items without polling.
+ *
+ * Configure recipes before the inventory is shared between threads.
+ */
+public class Inventory {
+    private final MenuCatalog catalog;
+    private final AddonCatalog addons;
+    private final Map<Drink, Integer> drinkIds = new IdentityHashMap<>();
+    private final String[] ingredientNames;
+    private final Map<String, Integer> ingredientIds = new HashMap<>(); // key: lower-case name
+    private final AtomicLongArray stock;
+    private final int[][] recipeIngredients; // per item: drinks first, then add-ons
+    private final long[][] recipeAmounts;
+    private final int[][] dependents;        // per ingredient: items that use it
+    private final long[] maxUnitNeed;        // per ingredient: most any item needs per unit
+    private final AtomicIntegerArray available; // per item: 1 in stock, 0 out
+    private final AtomicInteger unavailableItems = new AtomicInteger();
+    private final List<DepletionListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Receives availability changes of menu items and add-ons.
+     */
+    public interface DepletionListener {
+        /**
+         * Called when an item sells out or comes back. Runs on the thread that
+         * changed the stock (e.g. a register's checkout), so it must not block.
+         * @param itemName "Name (Size)" for drinks, the add-on name for add-ons
+         * @param available false when the item sold out, true when it is back
+         */
+        void onAvailabilityChanged(String itemName, boolean available);
+    }
+
+    /**
+     * Creates an inventory with no stock and no recipes.
+     * @param catalog the menu that drink recipes refer to
+     * @param addons the add-on catalog that add-on recipes refer to
+     * @param ingredients ingredient names; ids follow list order
+     */
+    public Inventory(MenuCatalog catalog, AddonCatalog addons, List<String> ingredients) {
+        this.catalog = catalog;
+        this.addons = addons;
+        for (int id = 0; id < catalog.size(); id++) {
+            drinkIds.put(catalog.drinkAt(id), id);
+        }
+        this.ingredientNames = ingredients.toArray(new String[0]);
+        for (int id = 0; id < ingredientNames.length; id++) {
+            ingredientIds.putIfAbsent(ingredientNames[id].toLowerCase(), id);
+        }
+        this.stock = new AtomicLongArray(ingredientNames.length);
+        int items = catalog.size() + addons.size();
+        this.recipeIngredients = new int[items][0];
+        this.recipeAmounts = new long[items][0];
+        this.dependents = new int[ingredientNames.length][0];
+        this.maxUnitNeed = new long[ingredientNames.length];
+        this.available = new AtomicIntegerArray(items);
+        for (int item = 0; item < items; item++) {
+            available.set(item, 1);
+        }
+    }
+
+    /**
+     * Loads an inventory from two CSV files:
+     * stock with the columns "Ingredient,Stock", and recipes with the columns
+     * "Item,Size,Ingredient,Amount". A recipe row names a drink and size (a
+     * blank size means every size) or an add-on (size left blank).
+     * Malformed rows are skipped.
+     * @param stockPath the stock CSV
+     * @param recipesPath the recipes CSV
+     * @param catalog the menu
+     * @param addons the add-on catalog
+     * @return the inventory
+     * @throws IOException if a file cannot be read
+     */
+    public static Inventory load(String stockPath, String recipesPath,
+                                 MenuCatalog catalog, AddonCatalog addons) throws IOException {
+        List<String[]> stockRows = readRows(stockPath, 2);
+        List<String> names = new ArrayList<>();
+        for (String[] row : stockRows) {
+            names.add(row[0]);
+        }
+        Inventory inventory = new Inventory(catalog, addons, names);
+        for (String[] row : readRows(recipesPath, 4)) {
+            try {
+                long amount = Long.parseLong(row[3]);
+                if (addons.idOf(row[0]) >= 0 && row[1].isEmpty()) {
+                    inventory.addAddonUsage(row[0], row[2], amount);
+                } else {
+                    inventory.addDrinkUsage(row[0], row[1].isEmpty() ? null : row[1], row[2], amount);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping recipe row " + String.join(",", row) + ": " + e.getMessage());
+            }
+        }
+        for (String[] row : stockRows) {
+            try {
+                inventory.restock(row[0], Long.parseLong(row[1]));
+            } catch (NumberFormatException nfe) {
+                System.err.println("Skipping stock with bad amount: " + String.join(",", row));
+            }
+        }
+        return inventory;
+    }
+
+    /**
+     * Adds an ingredient to a drink's recipe.
+     * @param drinkName the drink name (case-insensitive)
+     * @param size the size, or null for every size of the drink
+     * @param ingredient the ingredient name
+     * @param amount amount used per drink
+     * @throws IllegalArgumentException if the drink or ingredient is unknown
+     */
+    public void addDrinkUsage(String drinkName, String size, String ingredient, long amount) {
+        int[] ids = size == null
+                ? catalog.idsNamed(drinkName.toLowerCase())
+                : idArray(catalog.idOf(drinkName, size));
+        if (ids.length == 0) {
+            throw new IllegalArgumentException("Not on the menu: " + drinkName + (size != null ? " (" + size + ")" : ""));
+        }
+        for (int id : ids) {
+            addUsage(id, ingredientId(ingredient), amount);
+        }
+    }
+
+    /**
+     * Adds an ingredient to an add-on's recipe.
+     * @param addonName the add-on name (case-insensitive)
+     * @param ingredient the ingredient name
+     * @param amount amount used per shot/pump
+     * @throws IllegalArgumentException if the add-on or ingredient is unknown
+     */
+    public void addAddonUsage(String addonName, String ingredient, long amount) {
+        int addonId = addons.idOf(addonName);
+        if (addonId < 0) {
+            throw new IllegalArgumentException("Unknown add-on: " + addonName);
+        }
+        addUsage(catalog.size() + addonId, ingredientId(ingredient), amount);
+    }
+
+    public void addListener(DepletionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Adds stock (or removes it, with a negative amount, e.g. for waste).
+     * @param ingredient the ingredient name
+     * @param amount amount to add
+     */
+    public void restock(String ingredient, long amount) {
+        int id = ingredientId(ingredient);
+        long now = stock.addAndGet(id, amount);
+        if ((amount > 0 && unavailableItems.get() > 0) || now < maxUnitNeed[id]) {
+            refresh(id);
+        }
+    }
+
+    public long getStock(String ingredient) {
+        return stock.get(ingredientId(ingredient));
+    }
+
+    /**
+     * Checks whether a drink can be made at least once from current stock.
+     * @param drink the drink
+     * @return false if the drink is sold out
+     */
+    public boolean isAvailable(Drink drink) {
+        int id = drinkId(drink);
+        return id < 0 || available.get(id) == 1;
+    }
+
+    /**
+     * Checks whether an add-on can be served at least once from current stock.
+     * @param addonName the add-on name (case-insensitive)
+     * @return false if the add-on is sold out
+     */
+    public boolean isAddonAvailable(String addonName) {
+        int id = addons.idOf(addonName);
+        return id < 0 || available.get(catalog.size() + id) == 1;
+    }
+
+    /**
+     * Reserves the ingredients for a cart, all or nothing.
+     * @param items the cart lines
+     * @return the reservation; check {@link Reservation#isReserved()}
+     */
+    public Reservation reserve(List<CartItem> items) {
+        // Total need per ingredient for the whole cart
+        long[] need = new long[ingredientNames.length];
+        int[] used = new int[ingredientNames.length];
+        int usedCount = 0;
+        for (CartItem item : items) {
+            int drink = drinkId(item.getDrink());
+            if (drink >= 0) {
+                usedCount = addNeed(drink, item.getQuantity(), need, used, usedCount);
+            }
+            for (int m = 0; m < item.getModifierCount(); m++) {
+                int addon = addonId(item.getAddonCatalog(), item.getModifierId(m));
+                if (addon >= 0) {
+                    usedCount = addNeed(catalog.size() + addon,
+                            (long) item.getQuantity() * item.getModifierShots(m), need, used, usedCount);
+                }
+            }
+        }
+        int[] ingredients = Arrays.copyOf(used, usedCount);
+        long[] amounts = new long[usedCount];
+        for (int i = 0; i < usedCount; i++) {
+            amounts[i] = need[ingredients[i]];
+        }
+
+        for (int i = 0; i < ingredients.length; i++) {
+            int id = ingredients[i];
+            long current;
+            do {
+                current = stock.get(id);
+                if (current < amounts[i]) {
+                    // Short: give back what this cart already took
+                    for (int j = 0; j < i; j++) {
+                        give(ingredients[j], amounts[j]);
+                    }
+                    return new Reservation(null, null, ingredientNames[id]);
+                }
+            } while (!stock.compareAndSet(id, current, current - amounts[i]));
+            if (current - amounts[i] < maxUnitNeed[id]) {
+                refresh(id);
+            }
+        }
+        return new Reservation(ingredients, amounts, null);
+    }
+
+    // Adds units of an item's recipe to the cart's need
+    private int addNeed(int item, long units, long[] need, int[] used, int usedCount) {
+        int[] ingredients = recipeIngredients[item];
+        for (int i = 0; i < ingredients.length; i++) {
+            int id = ingredients[i];
+            if (need[id] == 0) {
+                used[usedCount++] = id;
+            }
+            need[id] += units * recipeAmounts[item][i];
+        }
+        return usedCount;
+    }
+
+    private void give(int id, long amount) {
+        stock.addAndGet(id, amount);
+        if (unavailableItems.get() > 0) {
+            refresh(id);
+        }
+    }
+
+    // Rechecks the items that use an ingredient and publishes any changes
+    private void refresh(int ingredient) {
+        for (int item : dependents[ingredient]) {
+            // Recheck after each change: stock may have moved while publishing
+            while (true) {
+                int now = inStock(item) ? 1 : 0;
+                int before = available.get(item);
+                if (before == now) {
+                    break;
+                }
+                if (available.compareAndSet(item, before, now)) {
+                    unavailableItems.addAndGet(now == 1 ? -1 : 1);
+                    String name = itemName(item);
+                    for (DepletionListener listener : listeners) {
+                        listener.onAvailabilityChanged(name, now == 1);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean inStock(int item) {
+        int[] ingredients = recipeIngredients[item];
+        for (int i = 0; i < ingredients.length; i++) {
+            if (stock.get(ingredients[i]) < recipeAmounts[item][i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addUsage(int item, int ingredient, long amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Recipe amounts must be positive");
+        }
+        int[] ingredients = recipeIngredients[item];
+        int at = 0;
+        while (at < ingredients.length && ingredients[at] != ingredient) {
+            at++;
+        }
+        if (at == ingredients.length) {
+            recipeIngredients[item] = Arrays.copyOf(ingredients, at + 1);
+            recipeIngredients[item][at] = ingredient;
+            recipeAmounts[item] = Arrays.copyOf(recipeAmounts[item], at + 1);
+            dependents[ingredient] = Arrays.copyOf(dependents[ingredient], dependents[ingredient].length + 1);
+            dependents[ingredient][dependents[ingredient].length - 1] = item;
+        }
+        recipeAmounts[item][at] = amount;
+        maxUnitNeed[ingredient] = Math.max(maxUnitNeed[ingredient], amount);
+        refresh(ingredient);
+    }
+
+    private String itemName(int item) {
+        if (item < catalog.size()) {
+            Drink drink = catalog.drinkAt(item);
+            return drink.getName() + " (" + drink.getSize() + ")";
+        }
+        return addons.nameAt(item - catalog.size());
+    }
+
+    private int ingredientId(String name) {
+        Integer id = ingredientIds.get(name.toLowerCase());
+        if (id == null) {
+            throw new IllegalArgumentException("Unknown ingredient: " + name);
+        }
+        return id;
+    }
+
+    private int drinkId(Drink drink) {
+        Integer id = drinkIds.get(drink);
+        // Same drink from another menu instance (e.g. a store overlay)
+        return id != null ? id : catalog.idOf(drink.getName(), drink.getSize());
+    }
+
+    private int addonId(AddonCatalog lineCatalog, int lineId) {
+        return lineCatalog == addons ? lineId : addons.idOf(lineCatalog.nameAt(lineId));
+    }
+
+    private static int[] idArray(int id) {
+        return id < 0 ? new int[0] : new int[] {id};
+    }
+
+    private static List<String[]> readRows(String path, int columns) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String line = br.readLine(); // header
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] f = line.split(",", -1);
+                if (f.length < columns || f[0].isBlank()) {
+                    System.err.println("Skipping row in " + path + ": " + line);
+                    continue;
+                }
+                for (int i = 0; i < f.length; i++) {
+                    f[i] = f[i].trim();
+                }
+                rows.add(f);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Ingredients taken for one cart.
+     */
+    public final class Reservation {
+        private final int[] ingredients;
+        private final long[] amounts;
+        private final String shortage;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(int[] ingredients, long[] amounts, String shortage) {
+            this.ingredients = ingredients;
+            this.amounts = amounts;
+            this.shortage = shortage;
+        }
+
+        /** Returns true if every ingredient was reserved. */
+        public boolean isReserved() {
+            return shortage == null;
+        }
+
+        /** Returns the first ingredient that ran short, or null if reserved. */
+        public String getShortage() {
+            return shortage;
+        }
+
+        /**
+         * Gives the ingredients back, e.g. when the order is cancelled.
+         * Only the first call has an effect.
+         */
+        public void release() {
+            if (shortage != null || !released.compareAndSet(false, true)) {
+                return;
+            }
+            for (int i = 0; i < ingredients.length; i++) {
+                give(ingredients[i], amounts[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test for the checkout path: N threads send carts from a
+ * {@link WorkloadGenerator} through {@link StarbucksSalesTracker#checkout},
+ * at a target rate or as fast as possible, and report throughput, latency
+ * percentiles and allocation rate.
+ *
+ * Each thread has its own generator (seed + thread number) and its own
+ * tracker, as a {@link StoreFleet} worker owns its stores, so checkout runs
+ * single-writer as it does in production: promotions, statistics, demand
+ * forecast, anomaly detection and an off-heap {@link OrderLineStore}. The
+ * trackers' statistics are merged at the end. Each tracker runs on a
+ * {@link ManualClock} set to the generated order time, so orders are placed
+ * and priced at their time of day and the traffic curve exercises
+ * time-window promotions such as Happy Hour.
+ *
+ * When a target rate is set, each order has a scheduled start time and its
+ * latency is measured from that time, so a stall also counts against the
+ * orders queued behind it.
+ *
+ * Usage: {@code java LoadDriver [menu.csv] [threads] [orders] [orders/sec, 0 = max]}
+ */
+public class LoadDriver {
+    private static final double MAX_LATENCY_MICROS = 10_000.0;
+
+    private final List<Drink> menu;
+    private final MenuCatalog catalog;
+    private final AddonCatalog addons;
+    private final long seed;
+    private LocalDate day = LocalDate.now();
+    private int warmupOrders = 10_000;
+
+    /**
+     * @param menu the drinks to order from
+     * @param addons the add-ons on offer
+     * @param seed workload seed
+     */
+    public LoadDriver(List<Drink> menu, AddonCatalog addons, long seed) {
+        this.menu = new ArrayList<>(menu);
+        this.catalog = new MenuCatalog(this.menu);
+        this.addons = addons;
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the business day that generated orders are placed on.
+     * @param day the day
+     */
+    public void setDay(LocalDate day) {
+        this.day = day;
+    }
+
+    /**
+     * Sets the orders each thread runs before measuring, to warm up the JIT.
+     * @param warmupOrders orders per thread (0 for none)
+     */
+    public void setWarmupOrders(int warmupOrders) {
+        this.warmupOrders = warmupOrders;
+    }
+
+    /**
+     * Runs the load test.
+     * @param threads worker threads
+     * @param orders measured orders in total
+     * @param targetRate orders per second across all threads, or 0 for as fast as possible
+     * @return the measurements
+     */
+    public Report run(int threads, int orders, double targetRate) {
+        int workers = Math.max(1, threads);
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "load-driver");
+            t.setDaemon(true);
+            return t;
+        });
+        CountDownLatch ready = new CountDownLatch(workers);
+        CountDownLatch go = new CountDownLatch(1);
+        Report total = new Report();
+        try {
+            List<Future<Report>> parts = new ArrayList<>(workers);
+            for (int w = 0; w < workers; w++) {
+                int share = orders / workers + (w < orders % workers ? 1 : 0);
+                long workerSeed = seed + w;
+                long intervalNanos = targetRate > 0 ? (long) (1e9 * workers / targetRate) : 0L;
+                parts.add(pool.submit(() -> work(workerSeed, share, intervalNanos, ready, go)));
+            }
+            ready.await();
+            long start = System.nanoTime();
+            go.countDown();
+            for (Future<Report> part : parts) {
+                total.merge(part.get());
+            }
+            total.elapsedNanos = System.nanoTime() - start;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Load test interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Load test failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return total;
+    }
+
+    private Report work(long workerSeed, int orders, long intervalNanos,
+                        CountDownLatch ready, CountDownLatch go) throws InterruptedException {
+        WorkloadGenerator generator = new WorkloadGenerator(menu, addons, workerSeed);
+        ManualClock clock = new ManualClock(day.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+        StarbucksSalesTracker warmup = newTracker(clock);
+        for (int i = 0; i < warmupOrders; i++) {
+            checkout(generator, clock, warmup);
+        }
+        Report report = new Report();
+        StarbucksSalesTracker tracker = newTracker(clock);
+        try (OrderLineStore store = new OrderLineStore(catalog, addons, day)) {
+            tracker.useOrderLineStore(store);
+            ready.countDown();
+            go.await();
+
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < orders; i++) {
+                long begin;
+                if (intervalNanos > 0) {
+                    begin = start + i * intervalNanos;
+                    long wait = begin - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    begin = System.nanoTime();
+                }
+                checkout(generator, clock, tracker);
+                report.latencyMicros.record((System.nanoTime() - begin) / 1000.0);
+            }
+            long allocatedAfter = allocatedBytes();
+            report.allocatedBytes = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+            report.orders = orders;
+            report.storedOrders = store.getOrderCount();
+            tracker.useOrderLineStore(null);
+        }
+        report.statistics.merge(tracker.getStatistics());
+        return report;
+    }
+
+    // A store as a fleet worker would run it, on the worker's own clock
+    private StarbucksSalesTracker newTracker(ManualClock clock) {
+        StarbucksSalesTracker tracker = new StarbucksSalesTracker(clock);
+        tracker.useMenu(new MenuOverlay(catalog)); // shared catalog, so the trackers' statistics merge
+        tracker.useAddons(addons);
+        tracker.useAnomalyDetector(new SalesAnomalyDetector());
+        return tracker;
+    }
+
+    private void checkout(WorkloadGenerator generator, ManualClock clock, StarbucksSalesTracker tracker) {
+        LocalDateTime time = generator.nextTime(day);
+        clock.set(time.toInstant(ZoneOffset.UTC));
+        tracker.checkout(generator.nextCart());
+    }
+
+    // Bytes allocated by the current thread so far, or -1 if the JVM cannot tell
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Measurements of one load test run.
+     */
+    public static class Report {
+        private long orders;
+        private long storedOrders;
+        private long elapsedNanos;
+        private long allocatedBytes;
+        private final Histogram latencyMicros = new Histogram(MAX_LATENCY_MICROS, (int) MAX_LATENCY_MICROS);
+        private final SalesStatistics statistics = new SalesStatistics();
+
+        private void merge(Report other) {
+            orders += other.orders;
+            storedOrders += other.storedOrders;
+            allocatedBytes = allocatedBytes < 0 || other.allocatedBytes < 0 ? -1 : allocatedBytes + other.allocatedBytes;
+            latencyMicros.merge(other.latencyMicros);
+            statistics.merge(other.statistics);
+        }
+
+        public long getOrders() {
+            return orders;
+        }
+
+        /** Returns the measured orders that reached the trackers' order stores. */
+        public long getStoredOrders() {
+            return storedOrders;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        /** Returns completed orders per second. */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0.0 : orders * 1e9 / elapsedNanos;
+        }
+
+        /** Returns checkout latency in microseconds (1 µs buckets up to 10 ms). */
+        public Histogram getLatencyMicros() {
+            return latencyMicros;
+        }
+
+        /** Returns bytes allocated by the workers while measuring, or -1 if unknown. */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /** Returns bytes allocated per second, or -1 if unknown. */
+        public double getAllocationRate() {
+            return allocatedBytes < 0 || elapsedNanos == 0 ? -1.0 : allocatedBytes * 1e9 / elapsedNanos;
+        }
+
+        /** Returns bytes allocated per order, or -1 if unknown. */
+        public double getBytesPerOrder() {
+            return allocatedBytes < 0 || orders == 0 ? -1.0 : (double) allocatedBytes / orders;
+        }
+
+        /** Returns the trackers' statistics for all measured orders, merged. */
+        public SalesStatistics getStatistics() {
+            return statistics;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Orders: %d in %d ms (%.0f orders/sec)%n", orders, getElapsedMillis(), getThroughput()));
+            sb.append(String.format("Latency (us): p50 %.1f  p95 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+                    latencyMicros.getMedian(), latencyMicros.percentile(95), latencyMicros.percentile(99),
+                    latencyMicros.percentile(99.9), latencyMicros.getMax()));
+            if (allocatedBytes >= 0) {
+                sb.append(String.format("Allocation: %.1f MB/sec, %.0f bytes/order%n",
+                        getAllocationRate() / (1024 * 1024), getBytesPerOrder()));
+            } else {
+                sb.append("Allocation: not available on this JVM\n");
+            }
+            sb.append(String.format("Revenue: $%.2f, orders with promotions: %d%n",
+                    statistics.getTotalRevenue(), statistics.getOrdersWithPromotions()));
+            return sb.toString();
+        }
+    }
+
+    // ======= Main =======
+    public static void main(String[] args) throws IOException {
+        String path = args.length > 0 ? args[0] : "menu.csv";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int orders = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        double rate = args.length > 3 ? Double.parseDouble(args[3]) : 0.0;
+
+        StarbucksSalesTracker tracker = new StarbucksSalesTracker();
+        tracker.loadMenu(path);
+        AddonCatalog addons = new File("addons.csv").exists()
+                ? AddonCatalog.load("addons.csv") : AddonCatalog.standard();
+
+        LoadDriver driver = new LoadDriver(tracker.getMenu(), addons, 42L);
+        System.out.printf("Running %d orders on %d threads%s...%n", orders, threads,
+                rate > 0 ? String.format(" at %.0f orders/sec", rate) : "");
+        System.out.print(driver.run(threads, orders, rate));
+    }
+}
@@ -0,0 +1,55 @@
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * A clock that only moves when told to, for driving time-window promotions
+ * and order timestamps from tests and generated workloads. Not thread-safe
+ * to move; share it only with the thread that moves it.
+ */
+public class ManualClock extends Clock {
+    private final ZoneId zone;
+    private Instant instant;
+
+    public ManualClock(Instant instant, ZoneId zone) {
+        this.instant = instant;
+        this.zone = zone;
+    }
+
+    /**
+     * Sets the current time.
+     * @param instant the new time; may be earlier than the current one
+     */
+    public void set(Instant instant) {
+        this.instant = instant;
+    }
+
+    /**
+     * Moves the clock forward.
+     * @param amount how far to move it
+     */
+    public void advance(Duration amount) {
+        instant = instant.plus(amount);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new ManualClock(instant, zone);
+    }
+
+    @Override
+    public Instant instant() {
+        return instant;
+    }
+
+    @Override
+    public long millis() {
+        return instant.toEpochMilli();
+    }
+}
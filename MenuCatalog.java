@@ -0,0 +1,78 @@
+import java.util.*;
+
+/**
+ * Immutable base menu shared by every store.
+ * Each drink gets a dense id (its position in the catalog), which store
+ * overlays use to key their sparse price and availability overrides.
+ */
+public class MenuCatalog {
+    private final List<Drink> drinks;
+    private final Map<String, Integer> idByKey;          // key: "name|size" (lower-case)
+    private final Map<String, int[]> idsByName;          // key: lower-case name
+    private final Map<String, Double> cheapestPriceByName; // key: lower-case name
+    
+    public MenuCatalog(List<Drink> menu) {
+        this.drinks = Collections.unmodifiableList(new ArrayList<>(menu));
+        Map<String, Integer> byKey = new HashMap<>();
+        Map<String, List<Integer>> byName = new LinkedHashMap<>();
+        Map<String, Double> cheapest = new HashMap<>();
+        for (int id = 0; id < drinks.size(); id++) {
+            Drink drink = drinks.get(id);
+            String name = drink.getName().toLowerCase();
+            byKey.putIfAbsent(name + "|" + drink.getSize().toLowerCase(), id);
+            byName.computeIfAbsent(name, k -> new ArrayList<>()).add(id);
+            cheapest.merge(name, drink.getPrice(), Math::min);
+        }
+        this.idByKey = byKey;
+        this.idsByName = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : byName.entrySet()) {
+            int[] ids = new int[entry.getValue().size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = entry.getValue().get(i);
+            }
+            idsByName.put(entry.getKey(), ids);
+        }
+        this.cheapestPriceByName = Collections.unmodifiableMap(cheapest);
+    }
+    
+    public int size() {
+        return drinks.size();
+    }
+    
+    public Drink drinkAt(int id) {
+        return drinks.get(id);
+    }
+    
+    /**
+     * Looks up a drink id by name and size (case-insensitive).
+     * @param name the drink name
+     * @param size the drink size
+     * @return the id, or -1 if not on the menu
+     */
+    public int idOf(String name, String size) {
+        Integer id = idByKey.get(name.toLowerCase() + "|" + size.toLowerCase());
+        return id != null ? id : -1;
+    }
+    
+    /**
+     * Returns the ids of every size of a drink.
+     * @param lowerCaseName the lower-case drink name
+     * @return ids (empty if none); must not be modified
+     */
+    int[] idsNamed(String lowerCaseName) {
+        int[] ids = idsByName.get(lowerCaseName);
+        return ids != null ? ids : new int[0];
+    }
+    
+    public List<Drink> getDrinks() {
+        return drinks;
+    }
+    
+    /**
+     * Returns the cheapest base price per drink name.
+     * @return read-only map keyed by lower-case name
+     */
+    public Map<String, Double> getCheapestPriceByName() {
+        return cheapestPriceByName;
+    }
+}
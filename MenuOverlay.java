@@ -0,0 +1,219 @@
+import java.util.*;
+
+/**
+ * A store's view of the shared {@link MenuCatalog}: sparse price and
+ * availability overrides keyed by drink id, resolved overlay-then-base.
+ * Overrides are copy-on-write: every change builds a new immutable state and
+ * publishes it with a single volatile write, so readers never lock and the
+ * base catalog is never copied.
+ */
+public class MenuOverlay {
+    private final MenuCatalog base;
+    private volatile State state;
+    
+    // Immutable snapshot of the overrides, with the store menu as of them
+    private final class State {
+        final Map<Integer, Drink> repriced;            // id -> drink at the regional price
+        final int[] unavailable;                       // sorted ids hidden in this store
+        final Map<String, Double> cheapestOverrides;   // lower-case name -> cheapest (null if none left)
+        final List<Drink> menu = new MenuView(this);
+        
+        State(Map<Integer, Drink> repriced, int[] unavailable, Map<String, Double> cheapestOverrides) {
+            this.repriced = repriced;
+            this.unavailable = unavailable;
+            this.cheapestOverrides = cheapestOverrides;
+        }
+    }
+    
+    public MenuOverlay(MenuCatalog base) {
+        this.base = base;
+        this.state = new State(Collections.emptyMap(), new int[0], Collections.emptyMap());
+    }
+    
+    public MenuCatalog getBase() {
+        return base;
+    }
+    
+    /**
+     * Overrides the price of a drink in this store.
+     * @param id the drink id
+     * @param price the regional price
+     */
+    public synchronized void setPrice(int id, double price) {
+        Drink original = base.drinkAt(id);
+        Map<Integer, Drink> repriced = new HashMap<>(state.repriced);
+        repriced.put(id, DrinkFactory.createDrink(original.getName(), original.getSize(),
+                price, original.getCategoryName()));
+        publish(repriced, state.unavailable, original);
+    }
+    
+    /**
+     * Removes a price override, reverting to the base price.
+     * @param id the drink id
+     */
+    public synchronized void clearPrice(int id) {
+        if (!state.repriced.containsKey(id)) {
+            return;
+        }
+        Map<Integer, Drink> repriced = new HashMap<>(state.repriced);
+        repriced.remove(id);
+        publish(repriced, state.unavailable, base.drinkAt(id));
+    }
+    
+    /**
+     * Shows or hides a drink in this store.
+     * @param id the drink id
+     * @param available false to hide the drink
+     */
+    public synchronized void setAvailable(int id, boolean available) {
+        int[] current = state.unavailable;
+        int pos = Arrays.binarySearch(current, id);
+        if (available == (pos < 0)) {
+            return;
+        }
+        int[] next;
+        if (available) {
+            next = new int[current.length - 1];
+            System.arraycopy(current, 0, next, 0, pos);
+            System.arraycopy(current, pos + 1, next, pos, current.length - pos - 1);
+        } else {
+            int insert = -pos - 1;
+            next = new int[current.length + 1];
+            System.arraycopy(current, 0, next, 0, insert);
+            next[insert] = id;
+            System.arraycopy(current, insert, next, insert + 1, current.length - insert);
+        }
+        publish(state.repriced, next, base.drinkAt(id));
+    }
+    
+    // Recomputes the cheapest price for the changed drink's name and publishes
+    private void publish(Map<Integer, Drink> repriced, int[] unavailable, Drink changed) {
+        String name = changed.getName().toLowerCase();
+        double cheapest = Double.MAX_VALUE;
+        for (int id : base.idsNamed(name)) {
+            if (Arrays.binarySearch(unavailable, id) < 0) {
+                Drink drink = repriced.getOrDefault(id, base.drinkAt(id));
+                cheapest = Math.min(cheapest, drink.getPrice());
+            }
+        }
+        Map<String, Double> cheapestOverrides = new HashMap<>(state.cheapestOverrides);
+        Double baseCheapest = base.getCheapestPriceByName().get(name);
+        if (cheapest == Double.MAX_VALUE) {
+            cheapestOverrides.put(name, null);
+        } else if (baseCheapest != null && baseCheapest == cheapest) {
+            cheapestOverrides.remove(name);
+        } else {
+            cheapestOverrides.put(name, cheapest);
+        }
+        state = new State(Collections.unmodifiableMap(repriced), unavailable,
+                Collections.unmodifiableMap(cheapestOverrides));
+    }
+    
+    /**
+     * Resolves a drink in this store: regional price if overridden, else base.
+     * @param id the drink id
+     * @return the drink
+     */
+    public Drink drinkAt(int id) {
+        Drink repriced = state.repriced.get(id);
+        return repriced != null ? repriced : base.drinkAt(id);
+    }
+    
+    public double priceOf(int id) {
+        return drinkAt(id).getPrice();
+    }
+    
+    public boolean isAvailable(int id) {
+        return Arrays.binarySearch(state.unavailable, id) < 0;
+    }
+    
+    /**
+     * Returns a read-only list of the drinks available in this store, in
+     * catalog order, as of the current overrides. The list is a view of one
+     * immutable state, so it does not change while it is iterated; later
+     * overrides are seen through a new list. The same list is returned until
+     * the overrides change, so an identity check tells whether the menu
+     * changed. Nothing is copied.
+     * @return the store's menu
+     */
+    public List<Drink> asList() {
+        return state.menu;
+    }
+    
+    /**
+     * Returns a live, read-only map of the cheapest available price per drink
+     * name (lower-case), resolved overlay-then-base.
+     * @return cheapest price by name
+     */
+    public Map<String, Double> cheapestPriceByName() {
+        return new CheapestPriceView();
+    }
+    
+    private final class MenuView extends AbstractList<Drink> implements RandomAccess {
+        private final State view;
+        
+        MenuView(State view) {
+            this.view = view;
+        }
+        
+        @Override
+        public Drink get(int index) {
+            int[] hidden = view.unavailable;
+            if (index < 0 || index >= base.size() - hidden.length) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            // Find the id with exactly 'index' available ids before it
+            int lo = 0;
+            int hi = hidden.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (hidden[mid] - mid <= index) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            Drink repriced = view.repriced.get(index + lo);
+            return repriced != null ? repriced : base.drinkAt(index + lo);
+        }
+        
+        @Override
+        public int size() {
+            return base.size() - view.unavailable.length;
+        }
+    }
+    
+    private final class CheapestPriceView extends AbstractMap<String, Double> {
+        @Override
+        public Double get(Object name) {
+            State current = state;
+            if (current.cheapestOverrides.containsKey(name)) {
+                return current.cheapestOverrides.get(name);
+            }
+            return base.getCheapestPriceByName().get(name);
+        }
+        
+        @Override
+        public boolean containsKey(Object name) {
+            return get(name) != null;
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return base.size() == 0;
+        }
+        
+        @Override
+        public Set<Entry<String, Double>> entrySet() {
+            Map<String, Double> merged = new HashMap<>(base.getCheapestPriceByName());
+            for (Map.Entry<String, Double> entry : state.cheapestOverrides.entrySet()) {
+                if (entry.getValue() == null) {
+                    merged.remove(entry.getKey());
+                } else {
+                    merged.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return Collections.unmodifiableMap(merged).entrySet();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Precompiled binary image of the menu, generated from the CSV so that startup
+ * can memory-map it instead of re-parsing text.
+ *
+ * Layout (big-endian):
+ *   header:   magic, version, source length, source last-modified, body CRC32,
+ *             string count, drink count, category count
+ *   strings:  length-prefixed UTF-8 (names, sizes, categories; de-duplicated)
+ *   drinks:   name string id, size string id, category string id, price
+ *   category index: category string id, record count, record ids
+ *   name index:     record ids sorted by lower-case name
+ *
+ * The image is only used while the CSV's length and modification time match
+ * the ones recorded in the header and the body checksum is intact.
+ */
+public class MenuSnapshot {
+    private static final int MAGIC = 0x53424D4E; // "SBMN"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4;
+    private static final int DRINK_RECORD_BYTES = 4 + 4 + 4 + 8;
+
+    private final String[] strings;
+    private final ByteBuffer drinks;                     // drink records section
+    private final Map<String, int[]> recordsByCategory;  // key: lower-case category
+    private final int[] nameOrder;                       // record ids sorted by name
+
+    private MenuSnapshot(String[] strings, ByteBuffer drinks,
+                         Map<String, int[]> recordsByCategory, int[] nameOrder) {
+        this.strings = strings;
+        this.drinks = drinks;
+        this.recordsByCategory = recordsByCategory;
+        this.nameOrder = nameOrder;
+    }
+
+    /**
+     * Returns the snapshot path used for a CSV file.
+     * @param csvPath the menu CSV path
+     * @return the snapshot path
+     */
+    public static Path snapshotPathFor(String csvPath) {
+        return Paths.get(csvPath + ".snapshot");
+    }
+
+    /**
+     * Memory-maps a snapshot if it is still valid for the given CSV.
+     * @param snapshotPath the snapshot file
+     * @param csvPath the CSV it was compiled from
+     * @return the snapshot, or null if it is missing, stale or corrupt
+     */
+    public static MenuSnapshot openIfFresh(Path snapshotPath, Path csvPath) {
+        if (!Files.isRegularFile(snapshotPath) || !Files.isRegularFile(csvPath)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            long sourceLength = buf.getLong();
+            long sourceModified = buf.getLong();
+            if (sourceLength != Files.size(csvPath)
+                    || sourceModified != Files.getLastModifiedTime(csvPath).toMillis()) {
+                return null;
+            }
+            int bodyCrc = buf.getInt();
+            int stringCount = buf.getInt();
+            int drinkCount = buf.getInt();
+            int categoryCount = buf.getInt();
+
+            ByteBuffer body = buf.slice();
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != bodyCrc) {
+                return null;
+            }
+
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                byte[] bytes = new byte[body.getInt()];
+                body.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            ByteBuffer drinks = body.slice();
+            drinks.limit(drinkCount * DRINK_RECORD_BYTES);
+            body.position(body.position() + drinkCount * DRINK_RECORD_BYTES);
+
+            Map<String, int[]> recordsByCategory = new HashMap<>();
+            for (int c = 0; c < categoryCount; c++) {
+                String category = strings[body.getInt()];
+                int[] ids = new int[body.getInt()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = body.getInt();
+                }
+                recordsByCategory.put(category.toLowerCase(), ids);
+            }
+
+            int[] nameOrder = new int[drinkCount];
+            for (int i = 0; i < drinkCount; i++) {
+                nameOrder[i] = body.getInt();
+            }
+            return new MenuSnapshot(strings, drinks, recordsByCategory, nameOrder);
+        } catch (IOException | RuntimeException e) {
+            // Unreadable or truncated image: caller falls back to the CSV
+            return null;
+        }
+    }
+
+    /**
+     * Compiles the menu into a snapshot for the given CSV and writes it atomically.
+     * @param menu the menu parsed from the CSV
+     * @param csvPath the CSV the menu was parsed from
+     * @param snapshotPath where to write the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(List<Drink> menu, Path csvPath, Path snapshotPath) throws IOException {
+        // String table with de-duplication
+        Map<String, Integer> stringIds = new LinkedHashMap<>();
+        int[][] refs = new int[menu.size()][3];
+        for (int i = 0; i < menu.size(); i++) {
+            Drink drink = menu.get(i);
+            refs[i][0] = stringIds.computeIfAbsent(drink.getName(), k -> stringIds.size());
+            refs[i][1] = stringIds.computeIfAbsent(drink.getSize(), k -> stringIds.size());
+            refs[i][2] = stringIds.computeIfAbsent(drink.getCategoryName(), k -> stringIds.size());
+        }
+
+        Map<Integer, List<Integer>> byCategory = new LinkedHashMap<>();
+        for (int i = 0; i < menu.size(); i++) {
+            byCategory.computeIfAbsent(refs[i][2], k -> new ArrayList<>()).add(i);
+        }
+        Integer[] nameOrder = new Integer[menu.size()];
+        for (int i = 0; i < nameOrder.length; i++) {
+            nameOrder[i] = i;
+        }
+        Arrays.sort(nameOrder, Comparator.comparing(i -> menu.get(i).getName().toLowerCase()));
+
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bodyBytes)) {
+            for (String s : stringIds.keySet()) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            for (int i = 0; i < menu.size(); i++) {
+                out.writeInt(refs[i][0]);
+                out.writeInt(refs[i][1]);
+                out.writeInt(refs[i][2]);
+                out.writeDouble(menu.get(i).getPrice());
+            }
+            for (Map.Entry<Integer, List<Integer>> entry : byCategory.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (int id : entry.getValue()) {
+                    out.writeInt(id);
+                }
+            }
+            for (int id : nameOrder) {
+                out.writeInt(id);
+            }
+        }
+        byte[] body = bodyBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        Path tmp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.size(csvPath));
+            out.writeLong(Files.getLastModifiedTime(csvPath).toMillis());
+            out.writeInt((int) crc.getValue());
+            out.writeInt(stringIds.size());
+            out.writeInt(menu.size());
+            out.writeInt(byCategory.size());
+            out.write(body);
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return nameOrder.length;
+    }
+
+    /**
+     * Materializes the drink at the given record id.
+     * @param id the record id
+     * @return the drink, created through {@link DrinkFactory}
+     */
+    public Drink drinkAt(int id) {
+        int offset = id * DRINK_RECORD_BYTES;
+        String name = strings[drinks.getInt(offset)];
+        String size = strings[drinks.getInt(offset + 4)];
+        String category = strings[drinks.getInt(offset + 8)];
+        double price = drinks.getDouble(offset + 12);
+        return DrinkFactory.createDrink(name, size, price, category);
+    }
+
+    /**
+     * Materializes the whole menu in its original order.
+     * @return list of drinks
+     */
+    public List<Drink> toMenu() {
+        List<Drink> menu = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            menu.add(drinkAt(i));
+        }
+        return menu;
+    }
+
+    /**
+     * Returns record ids for a category, from the category index.
+     * @param category the category name (case-insensitive)
+     * @return record ids in menu order (empty if none)
+     */
+    public int[] recordsInCategory(String category) {
+        int[] ids = recordsByCategory.get(category.toLowerCase());
+        return ids != null ? ids.clone() : new int[0];
+    }
+
+    /**
+     * Returns record ids for a drink name, by binary search on the name index.
+     * @param name the drink name (case-insensitive)
+     * @return record ids of every size of that drink (empty if none)
+     */
+    public int[] recordsNamed(String name) {
+        String key = name.toLowerCase();
+        int lo = 0;
+        int hi = nameOrder.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (nameAt(nameOrder[mid]).compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = lo;
+        while (end < nameOrder.length && nameAt(nameOrder[end]).equals(key)) {
+            end++;
+        }
+        return Arrays.copyOfRange(nameOrder, lo, end);
+    }
+
+    private String nameAt(int id) {
+        return strings[drinks.getInt(id * DRINK_RECORD_BYTES)].toLowerCase();
+    }
+}
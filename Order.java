@@ -1,25 +1,57 @@
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Represents a completed order with all order details.
+ * Orders are immutable: the cart lines are copied once into a compact array
+ * at construction and exposed afterwards only through a read-only view.
+ * Every order has a unique, time-ordered id (see {@link OrderIdGenerator}).
  */
 public class Order {
-    private List<CartItem> items;
-    private double baseTotal;
-    private double addonsTotal;
-    private double discount;
-    private String promotionName;
-    private double subtotalBeforeTax;
-    private double tax;
-    private double finalTotal;
-    private LocalDateTime timestamp;
+    private static final CartItem[] NO_ITEMS = new CartItem[0];
+
+    private final long id;
+    private final CartItem[] items;
+    private final List<CartItem> itemsView;
+    private final double baseTotal;
+    private final double addonsTotal;
+    private final double discount;
+    private final String promotionName;
+    private final double subtotalBeforeTax;
+    private final double tax;
+    private final double finalTotal;
+    private final LocalDateTime timestamp;
     
     public Order(List<CartItem> items, double baseTotal, double addonsTotal, 
                  double discount, String promotionName, double subtotalBeforeTax, 
                  double tax, double finalTotal) {
-        this.items = items != null ? new ArrayList<>(items) : new ArrayList<>();
+        this(items, baseTotal, addonsTotal, discount, promotionName,
+                subtotalBeforeTax, tax, finalTotal, LocalDateTime.now());
+    }
+    
+    /**
+     * Creates an order with an explicit timestamp, e.g. when replaying
+     * orders from the journal.
+     */
+    public Order(List<CartItem> items, double baseTotal, double addonsTotal,
+                 double discount, String promotionName, double subtotalBeforeTax,
+                 double tax, double finalTotal, LocalDateTime timestamp) {
+        this(items, baseTotal, addonsTotal, discount, promotionName,
+                subtotalBeforeTax, tax, finalTotal, timestamp, OrderIdGenerator.local().next());
+    }
+    
+    /**
+     * Creates an order with an explicit timestamp and id, e.g. for an order
+     * uploaded by a register or replayed from the journal.
+     */
+    public Order(List<CartItem> items, double baseTotal, double addonsTotal,
+                 double discount, String promotionName, double subtotalBeforeTax,
+                 double tax, double finalTotal, LocalDateTime timestamp, long id) {
+        this.id = id;
+        this.items = items != null ? items.toArray(NO_ITEMS) : NO_ITEMS;
+        this.itemsView = Collections.unmodifiableList(Arrays.asList(this.items));
         this.baseTotal = baseTotal;
         this.addonsTotal = addonsTotal;
         this.discount = discount;
@@ -27,11 +59,40 @@ public class Order {
         this.subtotalBeforeTax = subtotalBeforeTax;
         this.tax = tax;
         this.finalTotal = finalTotal;
-        this.timestamp = LocalDateTime.now();
+        this.timestamp = timestamp;
+    }
+    
+    /**
+     * Returns the order id, unique across registers and ordered by time.
+     * @return the id
+     */
+    public long getId() {
+        return id;
     }
     
+    /**
+     * Returns a read-only view of the order lines (no copy is made).
+     * @return unmodifiable list of cart items
+     */
     public List<CartItem> getItems() {
-        return new ArrayList<>(items);
+        return itemsView;
+    }
+    
+    /**
+     * Returns the number of lines in this order.
+     * @return line count
+     */
+    public int getItemCount() {
+        return items.length;
+    }
+    
+    /**
+     * Returns the order line at the given index without allocating.
+     * @param index the line index
+     * @return the cart item
+     */
+    public CartItem getItem(int index) {
+        return items[index];
     }
     
     public double getBaseTotal() {
@@ -66,4 +127,3 @@ public class Order {
         return timestamp;
     }
 }
-
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Order history across days, read from the compacted daily files in an
+ * {@link OrderJournal} directory.
+ * A date index of the directory maps each day to its {@link DailyOrderFile}.
+ * Files are memory-mapped when first used and stay open. Totals for a date
+ * range come from the per-day summary blocks, and order queries decode only
+ * the blocks whose time range or drink bitmap matches, so nothing is loaded
+ * into a {@code List<Order>} beyond the result.
+ */
+public class OrderArchive {
+    private final Path directory;
+    private final OrderRecordCodec codec;
+    private final NavigableMap<LocalDate, Path> dayIndex = new TreeMap<>();
+    private final Map<LocalDate, DailyOrderFile> openDays = new HashMap<>();
+
+    public OrderArchive(Path directory, MenuCatalog catalog) throws IOException {
+        this(directory, catalog, AddonCatalog.standard());
+    }
+
+    /**
+     * @param directory the journal directory
+     * @param catalog the menu the daily files were written with
+     * @param addons the add-on catalog the daily files were written with
+     * @throws IOException if the directory cannot be listed
+     */
+    public OrderArchive(Path directory, MenuCatalog catalog, AddonCatalog addons) throws IOException {
+        this.directory = directory;
+        this.codec = new OrderRecordCodec(catalog, addons);
+        refresh();
+    }
+
+    /**
+     * Rescans the directory for daily files, e.g. after an end-of-day compaction.
+     * @throws IOException if the directory cannot be listed
+     */
+    public synchronized void refresh() throws IOException {
+        dayIndex.clear();
+        openDays.clear(); // recompacted days are remapped on next use
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "orders-*.day")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    dayIndex.put(LocalDate.parse(name.substring("orders-".length(), name.length() - ".day".length())), path);
+                } catch (RuntimeException e) {
+                    // not one of ours
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the days held in the archive.
+     * @return days, oldest first
+     */
+    public synchronized NavigableSet<LocalDate> getDays() {
+        return new TreeSet<>(dayIndex.keySet());
+    }
+
+    /**
+     * Returns revenue (final totals, tax included) for a date range.
+     * @param from first day (inclusive)
+     * @param to last day (inclusive)
+     * @return revenue
+     * @throws IOException if a daily file is unreadable
+     */
+    public double getRevenue(LocalDate from, LocalDate to) throws IOException {
+        double revenue = 0.0;
+        for (DailyOrderFile day : days(from, to)) {
+            revenue += day.getRevenue();
+        }
+        return revenue;
+    }
+
+    /**
+     * Returns line sales before order-level discounts per category, for a date range.
+     * @param from first day (inclusive)
+     * @param to last day (inclusive)
+     * @return category -> amount
+     * @throws IOException if a daily file is unreadable
+     */
+    public Map<String, Double> getGrossSalesByCategory(LocalDate from, LocalDate to) throws IOException {
+        Map<String, Double> result = new TreeMap<>();
+        for (DailyOrderFile day : days(from, to)) {
+            for (Map.Entry<String, Double> entry : day.getGrossSalesByCategory().entrySet()) {
+                result.merge(entry.getKey(), entry.getValue(), Double::sum);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the units sold of a drink (all sizes) for a date range.
+     * @param drinkName the drink name (case-insensitive)
+     * @param from first day (inclusive)
+     * @param to last day (inclusive)
+     * @return units sold
+     * @throws IOException if a daily file is unreadable
+     */
+    public int getUnitsSold(String drinkName, LocalDate from, LocalDate to) throws IOException {
+        int[] ids = codec.getCatalog().idsNamed(drinkName.toLowerCase());
+        int units = 0;
+        for (DailyOrderFile day : days(from, to)) {
+            for (int id : ids) {
+                units += day.getUnitsSold(id);
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Returns the orders placed in [from, to).
+     * @param from inclusive start
+     * @param to exclusive end
+     * @return orders, oldest first
+     * @throws IOException if a daily file is unreadable
+     */
+    public List<Order> getOrders(LocalDateTime from, LocalDateTime to) throws IOException {
+        List<Order> orders = new ArrayList<>();
+        for (DailyOrderFile day : days(from.toLocalDate(), to.toLocalDate())) {
+            orders.addAll(day.read(from, to));
+        }
+        return orders;
+    }
+
+    /**
+     * Returns the orders containing a drink (any size) for a date range.
+     * @param drinkName the drink name (case-insensitive)
+     * @param from first day (inclusive)
+     * @param to last day (inclusive)
+     * @return orders, oldest first
+     * @throws IOException if a daily file is unreadable
+     */
+    public List<Order> getOrdersContaining(String drinkName, LocalDate from, LocalDate to) throws IOException {
+        int[] ids = codec.getCatalog().idsNamed(drinkName.toLowerCase());
+        List<Order> orders = new ArrayList<>();
+        if (ids.length == 0) {
+            return orders;
+        }
+        for (DailyOrderFile day : days(from, to)) {
+            orders.addAll(day.readContaining(ids));
+        }
+        return orders;
+    }
+
+    // Opens (or reuses) the daily files in [from, to]
+    private synchronized List<DailyOrderFile> days(LocalDate from, LocalDate to) throws IOException {
+        List<DailyOrderFile> result = new ArrayList<>();
+        if (from.isAfter(to)) {
+            return result;
+        }
+        for (Map.Entry<LocalDate, Path> entry : dayIndex.subMap(from, true, to, true).entrySet()) {
+            DailyOrderFile day = openDays.get(entry.getKey());
+            if (day == null) {
+                day = DailyOrderFile.open(entry.getValue(), codec);
+                openDays.put(entry.getKey(), day);
+            }
+            result.add(day);
+        }
+        return result;
+    }
+}
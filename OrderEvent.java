@@ -0,0 +1,29 @@
+/**
+ * A slot in the {@link OrderEventBus} ring buffer.
+ * Events are preallocated and reused, so publishing does not allocate;
+ * handlers must not keep a reference to the event after returning.
+ */
+public class OrderEvent {
+    public enum Type {
+        /** An order was checked out. */
+        ORDER_COMPLETED,
+        /** The customer asked for a receipt for an already completed order. */
+        RECEIPT_REQUESTED
+    }
+    
+    private Type type;
+    private Order order;
+    
+    void set(Type type, Order order) {
+        this.type = type;
+        this.order = order;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public Order getOrder() {
+        return order;
+    }
+}
@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer, multi-consumer ring buffer for order events.
+ * Checkout publishes into a preallocated slot and returns immediately; every
+ * subscriber has its own cursor and thread, and consumes all events available
+ * since its last pass as one batch. The producer only waits when the ring is
+ * full, i.e. when the slowest subscriber is a whole ring behind.
+ */
+public class OrderEventBus implements AutoCloseable {
+    
+    /**
+     * How an idle consumer (or a producer facing a full ring) waits.
+     */
+    public enum WaitStrategy {
+        /** Lowest latency; burns a core per consumer. */
+        BUSY_SPIN,
+        /** Spins briefly, then yields the CPU. */
+        YIELDING,
+        /** Spins, yields, then parks for short intervals; lowest CPU use. */
+        SLEEPING;
+        
+        void idle(int attempt) {
+            switch (this) {
+                case BUSY_SPIN -> Thread.onSpinWait();
+                case YIELDING -> {
+                    if (attempt < 100) {
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                case SLEEPING -> {
+                    if (attempt < 100) {
+                        Thread.onSpinWait();
+                    } else if (attempt < 200) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(100_000L);
+                    }
+                }
+            }
+        }
+    }
+    
+    private static final int DEFAULT_MAX_BATCH = 256;
+    
+    private final OrderEvent[] ring;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final int maxBatch;
+    private final AtomicLong published = new AtomicLong(-1);
+    private final List<Consumer> consumers = new ArrayList<>();
+    private long nextSequence = 0;     // producer-only
+    private long cachedGate = -1;      // producer-only: slowest cursor seen last time
+    private volatile boolean running;
+    
+    public OrderEventBus(int ringSize, WaitStrategy waitStrategy) {
+        this(ringSize, waitStrategy, DEFAULT_MAX_BATCH);
+    }
+    
+    /**
+     * @param ringSize number of slots, rounded up to a power of two
+     * @param waitStrategy how idle threads wait
+     * @param maxBatch maximum events a consumer handles before advancing its cursor
+     */
+    public OrderEventBus(int ringSize, WaitStrategy waitStrategy, int maxBatch) {
+        int size = Integer.highestOneBit(Math.max(2, ringSize) - 1) << 1;
+        this.ring = new OrderEvent[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new OrderEvent();
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy != null ? waitStrategy : WaitStrategy.SLEEPING;
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+    
+    /**
+     * Adds a subscriber. Must be called before {@link #start()}.
+     * @param name thread name suffix
+     * @param handler the handler
+     */
+    public synchronized void subscribe(String name, OrderEventHandler handler) {
+        if (running) {
+            throw new IllegalStateException("Subscribe before starting the bus");
+        }
+        consumers.add(new Consumer(name, handler));
+    }
+    
+    /**
+     * Starts one daemon thread per subscriber.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Consumer consumer : consumers) {
+            Thread t = new Thread(consumer, "order-bus-" + consumer.name);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+    
+    /**
+     * Publishes an event. Only one thread may publish.
+     * @param type the event type
+     * @param order the order
+     * @return the event's sequence number
+     */
+    public long publish(OrderEvent.Type type, Order order) {
+        long sequence = nextSequence++;
+        long wrapPoint = sequence - ring.length;
+        if (wrapPoint > cachedGate) {
+            int attempt = 0;
+            while (wrapPoint > (cachedGate = minimumCursor())) {
+                waitStrategy.idle(attempt++);
+            }
+        }
+        ring[(int) (sequence & mask)].set(type, order);
+        published.set(sequence); // volatile write makes the slot visible to consumers
+        return sequence;
+    }
+    
+    /**
+     * Waits until every subscriber has processed everything published so far.
+     */
+    public void drain() {
+        long target = published.get();
+        int attempt = 0;
+        while (running && minimumCursor() < target) {
+            waitStrategy.idle(attempt++);
+        }
+    }
+    
+    /**
+     * Returns how many published events the slowest subscriber has not yet handled.
+     * @return the backlog
+     */
+    public long getBacklog() {
+        return published.get() - minimumCursor();
+    }
+    
+    /**
+     * Drains outstanding events and stops the consumer threads.
+     */
+    @Override
+    public void close() {
+        drain();
+        running = false;
+    }
+    
+    private long minimumCursor() {
+        long min = published.get();
+        for (Consumer consumer : consumers) {
+            min = Math.min(min, consumer.cursor.get());
+        }
+        return min;
+    }
+    
+    private final class Consumer implements Runnable {
+        final String name;
+        final OrderEventHandler handler;
+        final AtomicLong cursor = new AtomicLong(-1);
+        
+        Consumer(String name, OrderEventHandler handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+        
+        @Override
+        public void run() {
+            int attempt = 0;
+            while (running) {
+                long next = cursor.get() + 1;
+                long available = published.get();
+                if (available < next) {
+                    waitStrategy.idle(attempt++);
+                    continue;
+                }
+                attempt = 0;
+                long end = Math.min(available, next + maxBatch - 1);
+                for (long seq = next; seq <= end; seq++) {
+                    try {
+                        handler.onEvent(ring[(int) (seq & mask)], seq, seq == end);
+                    } catch (RuntimeException e) {
+                        System.err.println("Order event handler '" + name + "' failed: " + e.getMessage());
+                    }
+                }
+                cursor.set(end); // releases the slots back to the producer
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Subscriber to the {@link OrderEventBus}.
+ * Each handler runs on its own consumer thread and sees every event in order.
+ */
+public interface OrderEventHandler {
+    /**
+     * Handles one event.
+     * @param event the event (valid only during this call)
+     * @param sequence the event's position in the stream
+     * @param endOfBatch true if this is the last event currently available,
+     *                   a good point to flush buffered work
+     */
+    void onEvent(OrderEvent event, long sequence, boolean endOfBatch);
+}
@@ -0,0 +1,108 @@
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered, globally unique 63-bit order ids, generated without
+ * coordination between registers:
+ * <pre>
+ *   41 bits   ms since 2020-01-01T00:00Z (good until 2089)
+ *   10 bits   node: the register (0-1023)
+ *   12 bits   sequence within the millisecond
+ * </pre>
+ * Each register needs only its own node number. Ids from one generator are
+ * strictly increasing, even if more than 4096 are issued in a millisecond
+ * (the sequence borrows from the next millisecond) or the clock steps back
+ * (ids continue from the last one). Ids from different registers sort by
+ * time to the millisecond, so an id also says when and where an order was
+ * taken.
+ *
+ * Thread-safe and lock-free.
+ */
+public class OrderIdGenerator {
+    static final long EPOCH_MILLIS = 1_577_836_800_000L; // 2020-01-01T00:00Z
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int TIME_SHIFT = NODE_BITS + SEQUENCE_BITS;
+    static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    static final long NODE_AND_SEQUENCE_MASK = (1L << TIME_SHIFT) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final OrderIdGenerator LOCAL = new OrderIdGenerator(new SecureRandom().nextInt(MAX_NODE + 1));
+
+    private final int node;
+    private final Clock clock;
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * @param node this register's number, 0-1023; unique among the registers feeding one store of orders
+     */
+    public OrderIdGenerator(int node) {
+        this(node, Clock.systemUTC());
+    }
+
+    public OrderIdGenerator(int node, Clock clock) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Node must be 0-" + MAX_NODE + ": " + node);
+        }
+        this.node = node;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the generator used for orders created without an explicit id.
+     * Its node is chosen at random when the JVM starts; registers that upload
+     * to a shared store should use their own numbered generator instead.
+     */
+    public static OrderIdGenerator local() {
+        return LOCAL;
+    }
+
+    public int getNode() {
+        return node;
+    }
+
+    /**
+     * Issues the next id.
+     * @return an id greater than every id this generator issued before
+     */
+    public long next() {
+        long first = compose(clock.millis(), (long) node << SEQUENCE_BITS);
+        while (true) {
+            long previous = last.get();
+            long id;
+            if (first > previous) {
+                id = first;
+            } else if ((previous & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                id = previous + 1;
+            } else {
+                // Sequence exhausted (or clock behind): continue in the next millisecond
+                id = compose(millisOf(previous) + 1, (long) node << SEQUENCE_BITS);
+            }
+            if (last.compareAndSet(previous, id)) {
+                return id;
+            }
+        }
+    }
+
+    /** Returns the epoch millisecond an id was issued in. */
+    public static long millisOf(long id) {
+        return (id >>> TIME_SHIFT) + EPOCH_MILLIS;
+    }
+
+    /** Returns the instant an id was issued in, to the millisecond. */
+    public static Instant instantOf(long id) {
+        return Instant.ofEpochMilli(millisOf(id));
+    }
+
+    /** Returns the node (register) that issued an id. */
+    public static int nodeOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE);
+    }
+
+    // Inverse of millisOf plus the low node and sequence bits
+    static long compose(long epochMillis, long nodeAndSequence) {
+        return ((epochMillis - EPOCH_MILLIS) << TIME_SHIFT) | (nodeAndSequence & NODE_AND_SEQUENCE_MASK);
+    }
+}
@@ -0,0 +1,288 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Compact on-disk journal of completed orders.
+ *
+ * Orders are appended to segment files ("orders-yyyy-MM-dd.NNNN.seg"), one
+ * length-prefixed record per order:
+ * <pre>
+ *   timestamp      ms since the previous record (zig-zag varint)
+ *   order id       ms from the timestamp to the id's time (zig-zag varint),
+ *                  then the id's node and sequence bits (varint)
+ *   line count     varint, then per line: drink id, quantity, add-on count
+ *                  and (add-on id, count) pairs (varints)
+ *   promotion      varint reference into the segment's string table; a name
+ *                  seen for the first time is written inline after it
+ *   amounts        base, add-ons, discount and tax in cents (zig-zag varints)
+ * </pre>
+ * Subtotal and final total are derived from the stored amounts on replay, so
+ * a typical order takes 20-30 bytes.
+ *
+ * {@link #compact(LocalDate)} merges a day's segments into one indexed
+ * {@link DailyOrderFile} ("orders-yyyy-MM-dd.day"), which {@link OrderArchive}
+ * queries across days.
+ *
+ * Drink ids are {@link MenuCatalog} ids and add-on ids are
+ * {@link AddonCatalog} ids. Every file records a fingerprint of
+ * the catalog and is refused when replayed against a different menu.
+ * Timestamps are kept to the millisecond and amounts to the cent.
+ */
+public class OrderJournal implements OrderSink, OrderEventHandler, AutoCloseable {
+    static final int SEGMENT_MAGIC = 0x53424A53; // "SBJS"
+    static final int VERSION = 3;
+    private static final int SEGMENT_HEADER_BYTES = 4 + 4 + 4 + 8;
+    private static final int DEFAULT_SEGMENT_ORDERS = 50_000;
+
+    private final Path directory;
+    private final OrderRecordCodec codec;
+    private final int segmentOrders;
+    private final OrderRecordCodec.Bytes scratch = new OrderRecordCodec.Bytes();
+    private Segment current; // segment being appended to, or null
+
+    public OrderJournal(Path directory, MenuCatalog catalog) throws IOException {
+        this(directory, catalog, AddonCatalog.standard(), DEFAULT_SEGMENT_ORDERS);
+    }
+
+    public OrderJournal(Path directory, MenuCatalog catalog, int segmentOrders) throws IOException {
+        this(directory, catalog, AddonCatalog.standard(), segmentOrders);
+    }
+
+    /**
+     * @param directory where segment and daily files are kept
+     * @param catalog the menu that drink ids refer to
+     * @param addons the add-on catalog that add-on ids refer to
+     * @param segmentOrders orders per segment before a new one is started
+     * @throws IOException if the directory cannot be created
+     */
+    public OrderJournal(Path directory, MenuCatalog catalog, AddonCatalog addons, int segmentOrders)
+            throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.codec = new OrderRecordCodec(catalog, addons);
+        this.segmentOrders = Math.max(1, segmentOrders);
+    }
+
+    /**
+     * Appends an order to the current segment of its day (buffered; see {@link #flush()}).
+     * @param order the completed order
+     * @throws IOException if the order cannot be written
+     */
+    public synchronized void append(Order order) throws IOException {
+        LocalDate day = order.getTimestamp().toLocalDate();
+        if (current == null || !current.day.equals(day) || current.orders >= segmentOrders) {
+            closeSegment();
+            current = openSegment(day, OrderRecordCodec.toMillis(order.getTimestamp()));
+        }
+        scratch.reset();
+        current.lastMillis = codec.encode(order, current.lastMillis, current.strings, scratch);
+        int length = scratch.size();
+        while ((length & ~0x7F) != 0) {
+            current.out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        current.out.write(length);
+        current.out.write(scratch.buf, 0, scratch.size());
+        current.orders++;
+    }
+
+    @Override
+    public synchronized void write(List<Order> batch) throws IOException {
+        for (Order order : batch) {
+            append(order);
+        }
+        flush();
+    }
+
+    /**
+     * Writes buffered records of the current segment to disk.
+     * @throws IOException if the segment cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        if (current != null) {
+            current.out.flush();
+        }
+    }
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        try {
+            if (event.getType() == OrderEvent.Type.ORDER_COMPLETED) {
+                append(event.getOrder());
+            }
+            if (endOfBatch) {
+                flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Error journaling order: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replays every journaled order of a day: the compacted daily file first,
+     * then any segments written since. Segment orders whose id is already in
+     * the daily file are skipped, so segments left behind by a compaction
+     * interrupted before it deleted them are not counted twice.
+     * @param day the business day
+     * @return the orders, in journal order
+     * @throws IOException if a file is unreadable or was written for another menu
+     */
+    public synchronized List<Order> readDay(LocalDate day) throws IOException {
+        flush();
+        List<Order> orders = new ArrayList<>();
+        Set<Long> compacted = Collections.emptySet();
+        Path daily = dailyPath(day);
+        if (Files.isRegularFile(daily)) {
+            orders.addAll(DailyOrderFile.open(daily, codec).readAll());
+            compacted = new HashSet<>();
+            for (Order order : orders) {
+                compacted.add(order.getId());
+            }
+        }
+        for (Path segment : segmentsFor(day)) {
+            readSegment(segment, orders, compacted);
+        }
+        return orders;
+    }
+
+    /**
+     * End-of-day compaction: merges the day's segments (and any earlier daily
+     * file) into one indexed daily file, written atomically, then deletes the
+     * segments. If it stops in between, the leftover segments are skipped on
+     * replay and deleted by the next compaction.
+     * @param day the business day
+     * @return the daily file, or null if nothing was journaled that day
+     * @throws IOException if the files cannot be read or written
+     */
+    public synchronized Path compact(LocalDate day) throws IOException {
+        if (current != null && current.day.equals(day)) {
+            closeSegment();
+        }
+        List<Path> segments = segmentsFor(day);
+        List<Order> orders = readDay(day);
+        if (orders.isEmpty()) {
+            return null;
+        }
+        orders.sort(Comparator.comparing(Order::getTimestamp)); // stable
+
+        Path daily = dailyPath(day);
+        Path tmp = daily.resolveSibling(daily.getFileName() + ".tmp");
+        DailyOrderFile.write(orders, tmp, codec);
+        Files.move(tmp, daily, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Path segment : segments) {
+            Files.deleteIfExists(segment);
+        }
+        return daily;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Path dailyPath(LocalDate day) {
+        return directory.resolve("orders-" + day + ".day");
+    }
+
+    /**
+     * Returns the day's segment files, oldest first.
+     * @param day the business day
+     * @return segment paths
+     * @throws IOException if the directory cannot be listed
+     */
+    public List<Path> segmentsFor(LocalDate day) throws IOException {
+        String prefix = "orders-" + day + ".";
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*.seg")) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort(Comparator.comparingInt(OrderJournal::segmentNumber));
+        return segments;
+    }
+
+    // "orders-yyyy-MM-dd.NNNN.seg" -> NNNN
+    private static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(name.indexOf('.') + 1, name.length() - ".seg".length()));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeSegment();
+    }
+
+    // ---- segments ----
+
+    private static final class Segment {
+        final LocalDate day;
+        final OutputStream out;
+        final Map<String, Integer> strings = new HashMap<>();
+        long lastMillis;
+        int orders;
+
+        Segment(LocalDate day, OutputStream out, long baseMillis) {
+            this.day = day;
+            this.out = out;
+            this.lastMillis = baseMillis;
+        }
+    }
+
+    private Segment openSegment(LocalDate day, long baseMillis) throws IOException {
+        List<Path> existing = segmentsFor(day);
+        int number = existing.isEmpty() ? 1 : segmentNumber(existing.get(existing.size() - 1)) + 1;
+        Path path = directory.resolve(String.format("orders-%s.%04d.seg", day, number));
+        OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 1 << 16);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        header.putInt(SEGMENT_MAGIC).putInt(VERSION).putInt(codec.getFingerprint()).putLong(baseMillis);
+        out.write(header.array());
+        return new Segment(day, out, baseMillis);
+    }
+
+    private void closeSegment() throws IOException {
+        if (current != null) {
+            current.out.close();
+            current = null;
+        }
+    }
+
+    private void readSegment(Path path, List<Order> orders, Set<Long> skipIds) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < SEGMENT_HEADER_BYTES) {
+            return; // created but never written
+        }
+        ByteBuffer header = ByteBuffer.wrap(bytes, 0, SEGMENT_HEADER_BYTES);
+        if (header.getInt() != SEGMENT_MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a journal segment: " + path);
+        }
+        if (header.getInt() != codec.getFingerprint()) {
+            throw new IOException("Journal was written for a different menu: " + path);
+        }
+        long millis = header.getLong();
+
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        OrderRecordCodec.Reader in = new OrderRecordCodec.Reader(buf, SEGMENT_HEADER_BYTES, bytes.length);
+        List<String> strings = new ArrayList<>();
+        while (in.remaining() > 0) {
+            int length;
+            try {
+                length = in.readVarint();
+            } catch (EOFException e) {
+                break; // torn length prefix at the tail
+            }
+            if (length > in.remaining()) {
+                break; // torn record at the tail: the rest of it was never written
+            }
+            OrderRecordCodec.Reader record = new OrderRecordCodec.Reader(buf, in.pos, in.pos + length);
+            Order order = codec.decode(record, millis, strings);
+            millis = OrderRecordCodec.toMillis(order.getTimestamp());
+            if (!skipIds.contains(order.getId())) {
+                orders.add(order);
+            }
+            in.pos += length;
+        }
+    }
+}
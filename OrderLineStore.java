@@ -0,0 +1,522 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Completed orders for one business day, kept off the Java heap.
+ * A busy day's orders are stored as fixed-size records in direct memory
+ * instead of as {@link Order}/{@link CartItem} object graphs, so the heap
+ * (and GC pause time) no longer grows with order volume.
+ *
+ * Layout (native byte order, fixed-size records in 1 MiB direct chunks):
+ *   order:    timestamp ms, first line, line count, base, add-ons, discount
+ *             and tax in cents, promotion ({@code -1} for none), order id
+ *   line:     order index, drink id, quantity, base and add-on cents, first
+ *             modifier, modifier count
+ *   modifier: {@code (addonId << 8) | count}, as in {@link CartItem}
+ * Drink ids are {@link MenuCatalog} ids and add-on ids are {@link AddonCatalog}
+ * ids. Only the (few) promotion names stay on the heap.
+ *
+ * Each business day is an arena: {@link #startDay} drops the previous day's
+ * records and reuses their memory, and {@link #close} releases it.
+ * Appends are serialized. Cursors and aggregations may run on other threads
+ * while orders are appended and see the orders appended before they started,
+ * but not across {@link #startDay} or {@link #close}.
+ */
+public class OrderLineStore implements OrderSink, AutoCloseable {
+    static final int CHUNK_BYTES = 1 << 20;
+    static final int ORDER_BYTES = 8 + 4 * 7 + 8;
+    static final int LINE_BYTES = 4 * 7;
+    static final int MODIFIER_BYTES = 4;
+
+    private final MenuCatalog catalog;
+    private final AddonCatalog addons;
+    private final Map<Drink, Integer> drinkIds = new IdentityHashMap<>();
+    private final Region orders = new Region(ORDER_BYTES);
+    private final Region lines = new Region(LINE_BYTES);
+    private final Region modifiers = new Region(MODIFIER_BYTES);
+    private final List<String> promotions = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> promotionIds = new HashMap<>();
+    private LocalDate day;
+    private boolean closed;
+
+    /**
+     * @param catalog the menu that drink ids refer to
+     * @param addons the add-on catalog that add-on ids refer to
+     * @param day the business day being recorded
+     */
+    public OrderLineStore(MenuCatalog catalog, AddonCatalog addons, LocalDate day) {
+        this.catalog = catalog;
+        this.addons = addons;
+        this.day = day;
+        for (int id = 0; id < catalog.size(); id++) {
+            drinkIds.put(catalog.drinkAt(id), id);
+        }
+    }
+
+    public OrderLineStore(MenuCatalog catalog, LocalDate day) {
+        this(catalog, AddonCatalog.standard(), day);
+    }
+
+    public MenuCatalog getCatalog() {
+        return catalog;
+    }
+
+    public synchronized LocalDate getDay() {
+        return day;
+    }
+
+    /**
+     * Starts a new business day: the previous day's orders are dropped and
+     * their memory is reused for the new day's records.
+     * @param newDay the day being recorded from now on
+     */
+    public synchronized void startDay(LocalDate newDay) {
+        checkOpen();
+        orders.clear();
+        lines.clear();
+        modifiers.clear();
+        promotions.clear();
+        promotionIds.clear();
+        this.day = newDay;
+    }
+
+    /**
+     * Appends a completed order.
+     * @param order the order
+     * @throws IllegalArgumentException if a drink or add-on is not in the store's catalogs
+     */
+    public synchronized void append(Order order) {
+        checkOpen();
+        int orderIndex = orders.count;
+        int firstLine = lines.count;
+        int nextModifier = modifiers.count;
+        for (int i = 0; i < order.getItemCount(); i++) {
+            CartItem item = order.getItem(i);
+            int drinkId = drinkId(item.getDrink());
+            int firstModifier = nextModifier;
+            for (int m = 0; m < item.getModifierCount(); m++) {
+                int id = addonId(item.getAddonCatalog(), item.getModifierId(m));
+                int at = modifiers.reserve(nextModifier++);
+                modifiers.chunk(at).putInt(modifiers.offset(at), (id << 8) | item.getModifierShots(m));
+            }
+            int at = lines.reserve(firstLine + i);
+            ByteBuffer chunk = lines.chunk(at);
+            int p = lines.offset(at);
+            chunk.putInt(p, orderIndex);
+            chunk.putInt(p + 4, drinkId);
+            chunk.putInt(p + 8, item.getQuantity());
+            chunk.putInt(p + 12, cents(item.basePrice()));
+            chunk.putInt(p + 16, cents(item.addonsCost()));
+            chunk.putInt(p + 20, firstModifier);
+            chunk.putInt(p + 24, item.getModifierCount());
+        }
+        int at = orders.reserve(orderIndex);
+        ByteBuffer chunk = orders.chunk(at);
+        int p = orders.offset(at);
+        chunk.putLong(p, OrderRecordCodec.toMillis(order.getTimestamp()));
+        chunk.putInt(p + 8, firstLine);
+        chunk.putInt(p + 12, order.getItemCount());
+        chunk.putInt(p + 16, cents(order.getBaseTotal()));
+        chunk.putInt(p + 20, cents(order.getAddonsTotal()));
+        chunk.putInt(p + 24, cents(order.getDiscount()));
+        chunk.putInt(p + 28, cents(order.getTax()));
+        chunk.putInt(p + 32, promotionId(order.getPromotionName()));
+        chunk.putLong(p + 36, order.getId());
+        // Lines first, so a reader that sees the order also sees its lines
+        modifiers.publish(nextModifier);
+        lines.publish(firstLine + order.getItemCount());
+        orders.publish(orderIndex + 1);
+    }
+
+    @Override
+    public void write(List<Order> batch) {
+        for (Order order : batch) {
+            append(order);
+        }
+    }
+
+    public int getOrderCount() {
+        return orders.count;
+    }
+
+    public int getLineCount() {
+        return lines.count;
+    }
+
+    /**
+     * Returns the direct memory held by this store, including chunks kept
+     * for reuse from earlier days.
+     * @return bytes
+     */
+    public long getOffHeapBytes() {
+        return (long) (orders.chunks.length + lines.chunks.length + modifiers.chunks.length) * CHUNK_BYTES;
+    }
+
+    /**
+     * Returns a cursor over the orders appended so far.
+     * @return a cursor positioned before the first order
+     */
+    public OrderCursor orders() {
+        return new OrderCursor(orders.count);
+    }
+
+    /**
+     * Returns a cursor over the order lines appended so far.
+     * @return a cursor positioned before the first line
+     */
+    public LineCursor lines() {
+        return new LineCursor(lines.count);
+    }
+
+    /**
+     * Returns revenue (final totals, tax included) of the day so far.
+     * @return revenue
+     */
+    public double getRevenue() {
+        long cents = 0;
+        OrderCursor cursor = orders();
+        while (cursor.next()) {
+            cents += cursor.getFinalCents();
+        }
+        return cents / 100.0;
+    }
+
+    /**
+     * Returns the units sold per drink so far.
+     * @return units indexed by catalog drink id
+     */
+    public int[] getUnitsSold() {
+        int[] units = new int[catalog.size()];
+        LineCursor cursor = lines();
+        while (cursor.next()) {
+            units[cursor.getDrinkId()] += cursor.getQuantity();
+        }
+        return units;
+    }
+
+    /**
+     * Returns line sales before order-level discounts per category so far.
+     * @return category -> amount
+     */
+    public Map<String, Double> getGrossSalesByCategory() {
+        long[] centsByDrink = new long[catalog.size()];
+        LineCursor cursor = lines();
+        while (cursor.next()) {
+            centsByDrink[cursor.getDrinkId()] += cursor.getBaseCents() + cursor.getAddonCents();
+        }
+        Map<String, Double> result = new TreeMap<>();
+        for (int id = 0; id < centsByDrink.length; id++) {
+            if (centsByDrink[id] != 0) {
+                result.merge(catalog.drinkAt(id).getCategoryName(), centsByDrink[id] / 100.0, Double::sum);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds one order on the heap.
+     * @param index 0 to {@link #getOrderCount()} - 1
+     * @return the order
+     */
+    public Order getOrder(int index) {
+        if (index < 0 || index >= orders.count) {
+            throw new IndexOutOfBoundsException("Order " + index + " of " + orders.count);
+        }
+        ByteBuffer chunk = orders.chunk(index);
+        int p = orders.offset(index);
+        int firstLine = chunk.getInt(p + 8);
+        int lineCount = chunk.getInt(p + 12);
+        List<CartItem> items = new ArrayList<>(lineCount);
+        for (int line = firstLine; line < firstLine + lineCount; line++) {
+            ByteBuffer lineChunk = lines.chunk(line);
+            int q = lines.offset(line);
+            int[] counts = new int[addons.size()];
+            int firstModifier = lineChunk.getInt(q + 20);
+            for (int m = firstModifier; m < firstModifier + lineChunk.getInt(q + 24); m++) {
+                int packed = modifiers.chunk(m).getInt(modifiers.offset(m));
+                counts[packed >>> 8] = packed & 0xFF;
+            }
+            items.add(new CartItem(catalog.drinkAt(lineChunk.getInt(q + 4)), lineChunk.getInt(q + 8), addons, counts));
+        }
+        long base = chunk.getInt(p + 16);
+        long addonCents = chunk.getInt(p + 20);
+        long discount = chunk.getInt(p + 24);
+        long tax = chunk.getInt(p + 28);
+        int promotion = chunk.getInt(p + 32);
+        long subtotal = base + addonCents - discount;
+        return new Order(items, base / 100.0, addonCents / 100.0, discount / 100.0,
+                promotion < 0 ? null : promotions.get(promotion),
+                subtotal / 100.0, tax / 100.0, (subtotal + tax) / 100.0,
+                OrderRecordCodec.fromMillis(chunk.getLong(p)), chunk.getLong(p + 36));
+    }
+
+    /**
+     * Returns a read-only view of the stored orders. Each {@code get}
+     * rebuilds the order on the heap; nothing is cached.
+     * @return the orders, oldest first
+     */
+    public List<Order> asOrderList() {
+        return new AbstractList<Order>() {
+            @Override
+            public Order get(int index) {
+                return getOrder(index);
+            }
+
+            @Override
+            public int size() {
+                return orders.count;
+            }
+        };
+    }
+
+    /**
+     * Releases the store's direct memory. Java 17 frees direct buffers when
+     * they are collected, so the memory goes back to the OS on a later GC.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        orders.release();
+        lines.release();
+        modifiers.release();
+        promotions.clear();
+        promotionIds.clear();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Order line store is closed");
+        }
+    }
+
+    private int drinkId(Drink drink) {
+        Integer id = drinkIds.get(drink);
+        if (id != null) {
+            return id;
+        }
+        // Same drink from another menu instance (e.g. a store overlay)
+        int byName = catalog.idOf(drink.getName(), drink.getSize());
+        if (byName < 0) {
+            throw new IllegalArgumentException("Drink not on the store's menu: " + drink.getName());
+        }
+        return byName;
+    }
+
+    private int addonId(AddonCatalog lineCatalog, int lineId) {
+        if (lineCatalog == addons) {
+            return lineId;
+        }
+        int id = addons.idOf(lineCatalog.nameAt(lineId));
+        if (id < 0) {
+            throw new IllegalArgumentException("Add-on not in the store's catalog: " + lineCatalog.nameAt(lineId));
+        }
+        return id;
+    }
+
+    private int promotionId(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer id = promotionIds.get(name);
+        if (id == null) {
+            id = promotions.size();
+            promotions.add(name);
+            promotionIds.put(name, id);
+        }
+        return id;
+    }
+
+    private static int cents(double amount) {
+        return Math.toIntExact(OrderRecordCodec.cents(amount));
+    }
+
+    // Fixed-size records in direct chunks; chunks are kept across days
+    private static final class Region {
+        final int recordBytes;
+        final int perChunk;
+        volatile ByteBuffer[] chunks = new ByteBuffer[0];
+        volatile int count; // published records
+
+        Region(int recordBytes) {
+            this.recordBytes = recordBytes;
+            this.perChunk = CHUNK_BYTES / recordBytes;
+        }
+
+        // Makes room for record index (not yet visible to readers)
+        int reserve(int index) {
+            int chunk = index / perChunk;
+            if (chunk >= chunks.length) {
+                ByteBuffer[] grown = Arrays.copyOf(chunks, chunk + 1);
+                for (int c = chunks.length; c <= chunk; c++) {
+                    grown[c] = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder());
+                }
+                chunks = grown;
+            }
+            return index;
+        }
+
+        void publish(int newCount) {
+            count = newCount;
+        }
+
+        ByteBuffer chunk(int index) {
+            return chunks[index / perChunk];
+        }
+
+        int offset(int index) {
+            return (index % perChunk) * recordBytes;
+        }
+
+        void clear() {
+            count = 0;
+        }
+
+        void release() {
+            count = 0;
+            chunks = new ByteBuffer[0];
+        }
+    }
+
+    /**
+     * Flyweight over the stored orders: {@link #next()} moves to the next
+     * order and the getters read it in place, without creating objects.
+     */
+    public final class OrderCursor {
+        private final int limit;
+        private int index = -1;
+        private ByteBuffer chunk;
+        private int p;
+
+        private OrderCursor(int limit) {
+            this.limit = limit;
+        }
+
+        public boolean next() {
+            if (index + 1 >= limit) {
+                return false;
+            }
+            index++;
+            chunk = orders.chunk(index);
+            p = orders.offset(index);
+            return true;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getMillis() {
+            return chunk.getLong(p);
+        }
+
+        public LocalDateTime getTimestamp() {
+            return OrderRecordCodec.fromMillis(getMillis());
+        }
+
+        public int getFirstLine() {
+            return chunk.getInt(p + 8);
+        }
+
+        public int getLineCount() {
+            return chunk.getInt(p + 12);
+        }
+
+        public long getBaseCents() {
+            return chunk.getInt(p + 16);
+        }
+
+        public long getAddonsCents() {
+            return chunk.getInt(p + 20);
+        }
+
+        public long getDiscountCents() {
+            return chunk.getInt(p + 24);
+        }
+
+        public long getTaxCents() {
+            return chunk.getInt(p + 28);
+        }
+
+        public long getFinalCents() {
+            return getBaseCents() + getAddonsCents() - getDiscountCents() + getTaxCents();
+        }
+
+        /** Returns the promotion applied, or null for none. */
+        public String getPromotionName() {
+            int promotion = chunk.getInt(p + 32);
+            return promotion < 0 ? null : promotions.get(promotion);
+        }
+
+        public long getId() {
+            return chunk.getLong(p + 36);
+        }
+    }
+
+    /**
+     * Flyweight over the stored order lines, in order of appending.
+     */
+    public final class LineCursor {
+        private final int limit;
+        private int index = -1;
+        private ByteBuffer chunk;
+        private int p;
+
+        private LineCursor(int limit) {
+            this.limit = limit;
+        }
+
+        public boolean next() {
+            if (index + 1 >= limit) {
+                return false;
+            }
+            index++;
+            chunk = lines.chunk(index);
+            p = lines.offset(index);
+            return true;
+        }
+
+        public int getOrderIndex() {
+            return chunk.getInt(p);
+        }
+
+        public int getDrinkId() {
+            return chunk.getInt(p + 4);
+        }
+
+        public Drink getDrink() {
+            return catalog.drinkAt(getDrinkId());
+        }
+
+        public int getQuantity() {
+            return chunk.getInt(p + 8);
+        }
+
+        public long getBaseCents() {
+            return chunk.getInt(p + 12);
+        }
+
+        public long getAddonCents() {
+            return chunk.getInt(p + 16);
+        }
+
+        public int getModifierCount() {
+            return chunk.getInt(p + 24);
+        }
+
+        /** Returns the add-on id of the i-th modifier on this line. */
+        public int getModifierId(int i) {
+            int m = chunk.getInt(p + 20) + i;
+            return modifiers.chunk(m).getInt(modifiers.offset(m)) >>> 8;
+        }
+
+        /** Returns the per-drink count of the i-th modifier on this line. */
+        public int getModifierShots(int i) {
+            int m = chunk.getInt(p + 20) + i;
+            return modifiers.chunk(m).getInt(modifiers.offset(m)) & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk order ingestion with backpressure from end to end, built on
+ * {@code java.util.concurrent.Flow}:
+ * <pre>
+ *   raw lines -> parse (menu lookup) -> price (promotions, tax)
+ *             -> record (SalesStatistics) -> persist (OrderSink, batched)
+ * </pre>
+ * Every stage has a bounded buffer, so when the sink is slow the stages in
+ * front of it fill up and {@link #submit(String)} blocks. Nothing grows
+ * without bound. The record stage always runs on one thread, because
+ * {@link SalesStatistics} has a single writer.
+ *
+ * Raw order line format: items separated by ';', each
+ * {@code name,size,quantity[,vanillaShots[,espressoShots]][,addon:count...]}
+ * where add-ons are named as in the pipeline's {@link AddonCatalog}, e.g.
+ * {@code Latte,Grande,2,oat milk:1,cold foam:2}; optionally
+ * preceded by the register's order id as {@code #id;} (the order is then
+ * timestamped with the id's time rather than on arrival). With a
+ * {@link DuplicateOrderFilter}, a line whose id was already ingested (a
+ * retried upload) is dropped before pricing, so it is counted once. A line
+ * whose id is outside the filter's window (e.g. from a register that was
+ * offline for longer) cannot be checked; it is ingested and counted in the
+ * {@code uncheckedLines} metric rather than lost.
+ */
+public class OrderPipeline implements AutoCloseable {
+    
+    /**
+     * Parallelism and batching for one stage.
+     */
+    public static class StageSettings {
+        final int parallelism;
+        final int batchSize;
+        final int bufferSize;
+        
+        public StageSettings(int parallelism, int batchSize, int bufferSize) {
+            this.parallelism = Math.max(1, parallelism);
+            this.batchSize = Math.max(1, batchSize);
+            this.bufferSize = Math.max(1, bufferSize);
+        }
+    }
+    
+    private final SubmissionPublisher<String> source;
+    private final PipelineStage<String, ParsedLine> parseStage;
+    private final PipelineStage<ParsedLine, Order> priceStage;
+    private final PipelineStage<Order, Order> recordStage;
+    private final PersistSubscriber persistStage;
+    private final AtomicLong rejectedLines = new AtomicLong();
+    private final AtomicLong duplicateLines = new AtomicLong();
+    private final AtomicLong uncheckedLines = new AtomicLong();
+    private volatile AddonCatalog addons = AddonCatalog.standard();
+    
+    public OrderPipeline(DrinkSearchIndex menu, OrderPricer pricer, SalesStatistics statistics,
+                         OrderSink sink, StageSettings settings) {
+        this(menu, pricer, statistics, sink, settings, settings, settings, settings, null);
+    }
+    
+    public OrderPipeline(DrinkSearchIndex menu, OrderPricer pricer, SalesStatistics statistics,
+                         OrderSink sink, StageSettings settings, DuplicateOrderFilter duplicates) {
+        this(menu, pricer, statistics, sink, settings, settings, settings, settings, duplicates);
+    }
+    
+    public OrderPipeline(DrinkSearchIndex menu, OrderPricer pricer, SalesStatistics statistics,
+                         OrderSink sink, StageSettings parse, StageSettings price,
+                         StageSettings record, StageSettings persist) {
+        this(menu, pricer, statistics, sink, parse, price, record, persist, null);
+    }
+    
+    /**
+     * @param duplicates ids already ingested; lines with a known id are dropped (null to ingest every line)
+     */
+    public OrderPipeline(DrinkSearchIndex menu, OrderPricer pricer, SalesStatistics statistics,
+                         OrderSink sink, StageSettings parse, StageSettings price,
+                         StageSettings record, StageSettings persist, DuplicateOrderFilter duplicates) {
+        source = new SubmissionPublisher<>(
+                Executors.newSingleThreadExecutor(PipelineStage.daemon("pipeline-source")), parse.bufferSize);
+        parseStage = new PipelineStage<>("parse", line -> parseLine(line, menu, duplicates),
+                parse.parallelism, parse.batchSize, price.bufferSize);
+        priceStage = new PipelineStage<>("price", parsed -> parsed.id < 0
+                        ? pricer.price(parsed.items)
+                        : pricer.price(parsed.items, placedAt(parsed.id), parsed.id),
+                price.parallelism, price.batchSize, record.bufferSize);
+        // Single writer: SalesStatistics is not thread-safe
+        recordStage = new PipelineStage<>("record", order -> {
+            statistics.recordOrder(order);
+            return order;
+        }, 1, record.batchSize, persist.bufferSize);
+        persistStage = new PersistSubscriber(sink, persist.batchSize);
+        
+        source.subscribe(parseStage);
+        parseStage.subscribe(priceStage);
+        priceStage.subscribe(recordStage);
+        recordStage.subscribe(persistStage);
+    }
+    
+    /**
+     * Sets the add-ons that line add-on names refer to; call before submitting lines.
+     * @param addons the catalog (the standard add-ons by default)
+     */
+    public void useAddons(AddonCatalog addons) {
+        this.addons = addons;
+    }
+    
+    /**
+     * Submits a raw order line, blocking while the pipeline is full.
+     * @param line the raw order line
+     */
+    public void submit(String line) {
+        source.submit(line);
+    }
+    
+    /**
+     * Signals end of input and waits until every order has been persisted.
+     */
+    @Override
+    public void close() {
+        source.close();
+        try {
+            persistStage.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ((ExecutorService) source.getExecutor()).shutdown();
+        parseStage.shutdown();
+        priceStage.shutdown();
+        recordStage.shutdown();
+    }
+    
+    /**
+     * Returns per-stage queue depths and counters.
+     * @return metric name -> value, in pipeline order
+     */
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("source.queueDepth", (long) source.estimateMaximumLag());
+        for (PipelineStage<?, ?> stage : Arrays.asList(parseStage, priceStage, recordStage)) {
+            metrics.put(stage.getName() + ".queueDepth", (long) stage.getQueueDepth());
+            metrics.put(stage.getName() + ".inFlight", (long) stage.getInFlight());
+            metrics.put(stage.getName() + ".processed", stage.getProcessedCount());
+            metrics.put(stage.getName() + ".errors", stage.getErrorCount());
+        }
+        metrics.put("persist.pending", (long) persistStage.pending());
+        metrics.put("persist.written", persistStage.written.get());
+        metrics.put("persist.errors", persistStage.errors.get());
+        metrics.put("rejectedLines", rejectedLines.get());
+        metrics.put("duplicateLines", duplicateLines.get());
+        metrics.put("uncheckedLines", uncheckedLines.get());
+        return metrics;
+    }
+    
+    // Parses one raw order line against the menu; returns null (dropped) if invalid or already ingested
+    private ParsedLine parseLine(String line, DrinkSearchIndex menu, DuplicateOrderFilter duplicates) {
+        List<CartItem> items = new ArrayList<>();
+        long id = -1;
+        if (line != null) {
+            for (String part : line.split(";")) {
+                if (part.isBlank()) {
+                    continue;
+                }
+                if (part.startsWith("#") && items.isEmpty() && id < 0) {
+                    try {
+                        id = Long.parseLong(part.substring(1).trim());
+                    } catch (NumberFormatException nfe) {
+                        id = -1;
+                    }
+                    if (id < 0) {
+                        rejectedLines.incrementAndGet();
+                        return null;
+                    }
+                    continue;
+                }
+                String[] f = part.split(",", -1);
+                Drink drink = f.length >= 3 ? menu.find(f[0].trim(), f[1].trim()) : null;
+                if (drink == null) {
+                    rejectedLines.incrementAndGet();
+                    return null;
+                }
+                try {
+                    int quantity = Integer.parseInt(f[2].trim());
+                    AddonCatalog catalog = addons;
+                    items.add(new CartItem(drink, quantity, catalog, parseAddons(f, catalog)));
+                } catch (IllegalArgumentException e) { // bad number, unknown or too many add-ons
+                    rejectedLines.incrementAndGet();
+                    return null;
+                }
+            }
+        }
+        if (items.isEmpty()) {
+            rejectedLines.incrementAndGet();
+            return null;
+        }
+        // Only a valid line claims its id, so a corrected retry of a rejected line still gets in
+        if (id >= 0 && duplicates != null) {
+            DuplicateOrderFilter.Result seen = duplicates.add(id);
+            if (seen == DuplicateOrderFilter.Result.DUPLICATE) {
+                duplicateLines.incrementAndGet();
+                return null;
+            }
+            if (seen == DuplicateOrderFilter.Result.UNCHECKABLE) {
+                uncheckedLines.incrementAndGet();
+            }
+        }
+        return new ParsedLine(id, items);
+    }
+    
+    // Add-on fields after the quantity: the legacy vanilla and espresso columns, then name:count pairs
+    private static int[] parseAddons(String[] f, AddonCatalog catalog) {
+        int[] counts = new int[catalog.size()];
+        for (int i = 3; i < f.length; i++) {
+            String field = f[i].trim();
+            int colon = field.lastIndexOf(':');
+            int id;
+            int count;
+            if (colon >= 0) {
+                id = catalog.idOf(field.substring(0, colon).trim());
+                count = Integer.parseInt(field.substring(colon + 1).trim());
+            } else if (i <= 4) {
+                id = i == 3 ? catalog.vanillaId() : catalog.extraShotId();
+                count = Integer.parseInt(field);
+                if (count <= 0) {
+                    continue; // as the legacy CartItem constructor: none
+                }
+            } else {
+                throw new IllegalArgumentException("Add-on without a name: " + field);
+            }
+            if (id < 0 || count <= 0) {
+                throw new IllegalArgumentException("Unknown add-on or bad count: " + field);
+            }
+            counts[id] += count; // above 255 is refused by CartItem
+        }
+        return counts;
+    }
+    
+    // An uploaded order was placed when the register issued its id
+    private static LocalDateTime placedAt(long id) {
+        return LocalDateTime.ofInstant(OrderIdGenerator.instantOf(id), ZoneId.systemDefault());
+    }
+    
+    // A parsed cart and its register-issued id (-1 if the line had none)
+    private static final class ParsedLine {
+        final long id;
+        final List<CartItem> items;
+        
+        ParsedLine(long id, List<CartItem> items) {
+            this.id = id;
+            this.items = items;
+        }
+    }
+    
+    // Final stage: buffers orders and hands them to the sink in batches
+    private static final class PersistSubscriber implements Flow.Subscriber<Order> {
+        private final OrderSink sink;
+        private final int batchSize;
+        private final List<Order> batch;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private volatile int pending;
+        private Flow.Subscription subscription;
+        
+        PersistSubscriber(OrderSink sink, int batchSize) {
+            this.sink = sink;
+            this.batchSize = batchSize;
+            this.batch = new ArrayList<>(batchSize);
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(batchSize);
+        }
+        
+        @Override
+        public void onNext(Order order) {
+            batch.add(order);
+            pending = batch.size();
+            if (batch.size() >= batchSize) {
+                flush();
+                subscription.request(batchSize); // ask for more only once written
+            }
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            flush();
+            done.countDown();
+        }
+        
+        @Override
+        public void onComplete() {
+            flush();
+            done.countDown();
+        }
+        
+        private void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                if (sink != null) {
+                    sink.write(Collections.unmodifiableList(new ArrayList<>(batch)));
+                }
+                written.addAndGet(batch.size());
+            } catch (IOException e) {
+                errors.addAndGet(batch.size());
+                System.err.println("Error persisting orders: " + e.getMessage());
+            }
+            batch.clear();
+            pending = 0;
+        }
+        
+        int pending() {
+            return pending;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Prices a cart: sums drinks and add-ons, applies promotions and adds tax.
+ * Shared by interactive checkout and bulk ingestion so both price identically.
+ */
+public class OrderPricer {
+    public static final double DEFAULT_TAX_RATE = 0.0825; // 8.25% tax rate
+    
+    private final PromotionManager promotionManager;
+    private final double taxRate;
+    private final OrderIdGenerator ids;
+    
+    public OrderPricer(PromotionManager promotionManager) {
+        this(promotionManager, DEFAULT_TAX_RATE);
+    }
+    
+    public OrderPricer(PromotionManager promotionManager, double taxRate) {
+        this(promotionManager, taxRate, OrderIdGenerator.local());
+    }
+    
+    /**
+     * @param promotionManager the promotions to apply, or null for none
+     * @param taxRate e.g. 0.0825
+     * @param ids issues the ids of priced orders (e.g. this register's generator)
+     */
+    public OrderPricer(PromotionManager promotionManager, double taxRate, OrderIdGenerator ids) {
+        this.promotionManager = promotionManager;
+        this.taxRate = taxRate;
+        this.ids = ids;
+    }
+    
+    /**
+     * Prices the given cart lines into a completed order.
+     * @param items the cart lines
+     * @return the order (not yet recorded anywhere)
+     */
+    public Order price(List<CartItem> items) {
+        return price(items, LocalDateTime.now());
+    }
+    
+    /**
+     * Prices the given cart lines into a completed order placed at the given time,
+     * e.g. for replayed or generated orders.
+     * @param items the cart lines
+     * @param timestamp when the order was placed
+     * @return the order (not yet recorded anywhere)
+     */
+    public Order price(List<CartItem> items, LocalDateTime timestamp) {
+        return price(items, timestamp, ids.next());
+    }
+    
+    /**
+     * Prices the given cart lines into an order that already has an id,
+     * e.g. one uploaded by a register.
+     * @param items the cart lines
+     * @param timestamp when the order was placed
+     * @param id the order id
+     * @return the order (not yet recorded anywhere)
+     */
+    public Order price(List<CartItem> items, LocalDateTime timestamp, long id) {
+        // Compute totals
+        double baseTotal = 0.0;   // drinks only (for promos)
+        double addonsTotal = 0.0; // add-ons only
+
+        for (CartItem ci : items) {
+            baseTotal += ci.basePrice();
+            addonsTotal += ci.addonsCost();
+        }
+
+        // Use PromotionManager to select best promotion (or stack of promotions)
+        PromotionStack applied = promotionManager != null
+                ? promotionManager.applyPromotions(items, baseTotal, addonsTotal)
+                : new PromotionStack();
+        double appliedDisc = applied.getTotalDiscount();
+        String promoLabel = applied.getLabel();
+
+        double subtotal = baseTotal + addonsTotal;
+        double finalTotalBeforeTax = subtotal - appliedDisc;
+        double tax = finalTotalBeforeTax * taxRate;
+        double finalTotal = finalTotalBeforeTax + tax;
+
+        // Create Order object (the order snapshots the cart once)
+        return new Order(items, baseTotal, addonsTotal,
+                appliedDisc, promoLabel, finalTotalBeforeTax, tax, finalTotal, timestamp, id);
+    }
+    
+    public double getTaxRate() {
+        return taxRate;
+    }
+}
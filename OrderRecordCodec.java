@@ -0,0 +1,273 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Varint encoding of one order, shared by {@link OrderJournal} segments and
+ * {@link DailyOrderFile}s. See {@link OrderJournal} for the record layout.
+ */
+class OrderRecordCodec {
+    private final MenuCatalog catalog;
+    private final AddonCatalog addons;
+    private final Map<Drink, Integer> drinkIds = new IdentityHashMap<>();
+    private final int fingerprint;
+
+    OrderRecordCodec(MenuCatalog catalog, AddonCatalog addons) {
+        this.catalog = catalog;
+        this.addons = addons;
+        CRC32 crc = new CRC32();
+        for (int id = 0; id < catalog.size(); id++) {
+            Drink drink = catalog.drinkAt(id);
+            drinkIds.put(drink, id);
+            String key = drink.getName().toLowerCase() + "|" + drink.getSize().toLowerCase() + "\n";
+            crc.update(key.getBytes(StandardCharsets.UTF_8));
+        }
+        for (int id = 0; id < addons.size(); id++) {
+            crc.update(("+" + addons.nameAt(id).toLowerCase() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        this.fingerprint = (int) crc.getValue();
+    }
+
+    MenuCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Returns a checksum of the catalog's drink names and sizes and the add-on
+     * names, recorded in every file so that ids are never decoded against a
+     * different menu.
+     */
+    int getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Encodes one order after prevMillis.
+     * @param strings promotion name table; unseen names are added and written inline
+     * @return the order's timestamp in ms
+     */
+    long encode(Order order, long prevMillis, Map<String, Integer> strings, Bytes out) throws IOException {
+        long millis = toMillis(order.getTimestamp());
+        out.writeZigZag(millis - prevMillis);
+        // The id's time is within ms of the order's (less the zone offset), so store the difference
+        out.writeZigZag(OrderIdGenerator.millisOf(order.getId()) - millis);
+        out.writeVarint(order.getId() & OrderIdGenerator.NODE_AND_SEQUENCE_MASK);
+        out.writeVarint(order.getItemCount());
+        for (int i = 0; i < order.getItemCount(); i++) {
+            CartItem item = order.getItem(i);
+            out.writeVarint(drinkId(item.getDrink()));
+            out.writeVarint(item.getQuantity());
+            out.writeVarint(item.getModifierCount());
+            for (int m = 0; m < item.getModifierCount(); m++) {
+                out.writeVarint(addonId(item.getAddonCatalog(), item.getModifierId(m)));
+                out.writeVarint(item.getModifierShots(m));
+            }
+        }
+        String promotion = order.getPromotionName();
+        if (promotion == null) {
+            out.writeVarint(0);
+        } else {
+            Integer ref = strings.get(promotion);
+            if (ref != null) {
+                out.writeVarint(ref);
+            } else {
+                strings.put(promotion, strings.size() + 1);
+                out.writeVarint(strings.size());
+                out.writeString(promotion);
+            }
+        }
+        out.writeZigZag(cents(order.getBaseTotal()));
+        out.writeZigZag(cents(order.getAddonsTotal()));
+        out.writeZigZag(cents(order.getDiscount()));
+        out.writeZigZag(cents(order.getTax()));
+        return millis;
+    }
+
+    /**
+     * Decodes one order after prevMillis.
+     * @param strings promotion name table; inline names are appended to it
+     */
+    Order decode(Reader in, long prevMillis, List<String> strings) throws IOException {
+        long millis = prevMillis + in.readZigZag();
+        long idMillis = millis + in.readZigZag();
+        long orderId = OrderIdGenerator.compose(idMillis, in.readVarLong());
+        int lineCount = in.readVarint();
+        List<CartItem> items = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            int id = in.readVarint();
+            if (id >= catalog.size()) {
+                throw new IOException("Unknown drink id in journal: " + id);
+            }
+            int quantity = in.readVarint();
+            int[] counts = new int[addons.size()];
+            int modifiers = in.readVarint();
+            for (int m = 0; m < modifiers; m++) {
+                int addonId = in.readVarint();
+                if (addonId >= counts.length) {
+                    throw new IOException("Unknown add-on id in journal: " + addonId);
+                }
+                counts[addonId] = in.readVarint();
+            }
+            items.add(new CartItem(catalog.drinkAt(id), quantity, addons, counts));
+        }
+        int ref = in.readVarint();
+        String promotion;
+        if (ref == 0) {
+            promotion = null;
+        } else if (ref <= strings.size()) {
+            promotion = strings.get(ref - 1);
+        } else if (ref == strings.size() + 1) {
+            promotion = in.readString();
+            strings.add(promotion);
+        } else {
+            throw new IOException("Bad promotion reference in journal: " + ref);
+        }
+        long base = in.readZigZag();
+        long addonCents = in.readZigZag();
+        long discount = in.readZigZag();
+        long tax = in.readZigZag();
+        long subtotal = base + addonCents - discount;
+        return new Order(items, base / 100.0, addonCents / 100.0, discount / 100.0, promotion,
+                subtotal / 100.0, tax / 100.0, (subtotal + tax) / 100.0, fromMillis(millis), orderId);
+    }
+
+    int drinkId(Drink drink) throws IOException {
+        Integer id = drinkIds.get(drink);
+        if (id != null) {
+            return id;
+        }
+        // Same drink from another menu instance (e.g. a store overlay)
+        int byName = catalog.idOf(drink.getName(), drink.getSize());
+        if (byName < 0) {
+            throw new IOException("Drink not on the journal's menu: " + drink.getName());
+        }
+        return byName;
+    }
+
+    private int addonId(AddonCatalog lineCatalog, int lineId) throws IOException {
+        if (lineCatalog == addons) {
+            return lineId;
+        }
+        int id = addons.idOf(lineCatalog.nameAt(lineId));
+        if (id < 0) {
+            throw new IOException("Add-on not in the journal's catalog: " + lineCatalog.nameAt(lineId));
+        }
+        return id;
+    }
+
+    static long cents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    // Wall-clock time as a number; no zone conversion, so no DST gaps
+    static long toMillis(LocalDateTime timestamp) {
+        return timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    // Growable byte buffer with varint writers
+    static final class Bytes {
+        byte[] buf = new byte[256];
+        int count;
+
+        void reset() {
+            count = 0;
+        }
+
+        int size() {
+            return count;
+        }
+
+        void ensure(int extra) {
+            if (count + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+            }
+        }
+
+        void write(byte[] bytes, int length) {
+            ensure(length);
+            System.arraycopy(bytes, 0, buf, count, length);
+            count += length;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[count++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[count++] = (byte) value;
+        }
+
+        void writeZigZag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes, bytes.length);
+        }
+    }
+
+    // Bounded reader over a heap or memory-mapped buffer (absolute reads)
+    static final class Reader {
+        final ByteBuffer bytes;
+        final int limit;
+        int pos;
+
+        Reader(ByteBuffer bytes, int pos, int limit) {
+            this.bytes = bytes;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        int remaining() {
+            return limit - pos;
+        }
+
+        long readVarLong() throws EOFException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= limit) {
+                    throw new EOFException("Truncated journal record");
+                }
+                byte b = bytes.get(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new EOFException("Malformed varint in journal");
+        }
+
+        int readVarint() throws EOFException {
+            return (int) readVarLong();
+        }
+
+        long readZigZag() throws EOFException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() throws EOFException {
+            int length = readVarint();
+            if (length < 0 || length > remaining()) {
+                throw new EOFException("Truncated journal string");
+            }
+            byte[] utf8 = new byte[length];
+            bytes.get(pos, utf8);
+            pos += length;
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+}
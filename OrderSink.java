@@ -0,0 +1,14 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination for persisted orders at the end of the {@link OrderPipeline}.
+ */
+public interface OrderSink {
+    /**
+     * Persists a batch of orders.
+     * @param batch the orders, in arrival order
+     * @throws IOException if the batch cannot be written
+     */
+    void write(List<Order> batch) throws IOException;
+}
@@ -0,0 +1,140 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * One stage of the {@link OrderPipeline}: a {@code Flow.Processor} that applies
+ * a function to each item on up to {@code parallelism} threads and publishes
+ * the results downstream.
+ * Backpressure is end to end: the stage requests upstream items
+ * {@code batchSize} at a time, and only after finishing the previous ones.
+ * Publishing blocks while the downstream buffer is full. A slow sink therefore
+ * throttles every stage before it, and finally the producer.
+ */
+public class PipelineStage<I, O> extends SubmissionPublisher<O> implements Flow.Processor<I, O> {
+    private final String name;
+    private final Function<I, O> function;
+    private final int parallelism;
+    private final int batchSize;
+    private final ExecutorService workers;   // null when parallelism is 1
+    private final Semaphore permits;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong completedSinceRequest = new AtomicLong();
+    private Flow.Subscription subscription;
+    
+    /**
+     * @param name stage name (for metrics and thread names)
+     * @param function the transformation; returning null drops the item
+     * @param parallelism worker threads applying the function
+     * @param batchSize items requested from upstream at a time
+     * @param bufferSize items buffered for the downstream subscriber
+     */
+    public PipelineStage(String name, Function<I, O> function, int parallelism, int batchSize, int bufferSize) {
+        super(Executors.newSingleThreadExecutor(daemon("pipeline-" + name + "-out")), Math.max(1, bufferSize));
+        this.name = name;
+        this.function = function;
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+        this.workers = this.parallelism > 1
+                ? Executors.newFixedThreadPool(this.parallelism, daemon("pipeline-" + name))
+                : null;
+        this.permits = new Semaphore(this.parallelism);
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(batchSize);
+    }
+    
+    @Override
+    public void onNext(I item) {
+        if (workers == null) {
+            apply(item);
+            return;
+        }
+        permits.acquireUninterruptibly(); // at most 'parallelism' items in flight
+        workers.execute(() -> {
+            try {
+                apply(item);
+            } finally {
+                permits.release();
+            }
+        });
+    }
+    
+    private void apply(I item) {
+        try {
+            O result = function.apply(item);
+            if (result != null) {
+                submit(result); // blocks while the downstream buffer is full
+            }
+            processed.incrementAndGet();
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+        }
+        if (completedSinceRequest.incrementAndGet() % batchSize == 0) {
+            subscription.request(batchSize);
+        }
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        awaitInFlight();
+        closeExceptionally(throwable);
+    }
+    
+    @Override
+    public void onComplete() {
+        awaitInFlight();
+        close();
+    }
+    
+    private void awaitInFlight() {
+        permits.acquireUninterruptibly(parallelism);
+        permits.release(parallelism);
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+    
+    // Called by the pipeline once the last item has reached the sink; shutting
+    // the executor down earlier would reject the delivery task that a late
+    // downstream request() schedules.
+    void shutdown() {
+        ((ExecutorService) getExecutor()).shutdown();
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Returns the number of results waiting for the downstream stage.
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return estimateMaximumLag();
+    }
+    
+    public int getInFlight() {
+        return parallelism - permits.availablePermits();
+    }
+    
+    public long getProcessedCount() {
+        return processed.get();
+    }
+    
+    public long getErrorCount() {
+        return errors.get();
+    }
+    
+    static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
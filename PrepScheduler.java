@@ -0,0 +1,558 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes completed orders to prep stations and runs them on barista threads.
+ *
+ * Each order is split into one task per drink, sent to a station by the
+ * drink's category: coffee and seasonal drinks go to the espresso bar, teas
+ * and refreshers to the cold bar, Frappuccinos to the blender. Each station
+ * has a priority queue and its own baristas. A barista whose station has
+ * nothing to do steals from the station with the longest queue, unless
+ * stealing is turned off. A barista with nothing to make or steal sleeps
+ * until the next order is submitted.
+ *
+ * Queues are ordered by an aged priority: a task's key is its enqueue time
+ * minus {@code priority * agingMillis}. A priority-2 ticket therefore jumps
+ * ahead of normal tickets queued up to two aging periods earlier, but never
+ * past older ones, so an urgent rush cannot hold back a waiting drink for
+ * more than a bounded time.
+ *
+ * Metrics: queue depth per station, the wait of each drink, and ticket time
+ * (from submit until the order's last drink is done). Times are in seconds.
+ * They are divided by the time scale, which is 1 unless the scheduler runs a
+ * sped-up {@link #simulate simulation}.
+ */
+public class PrepScheduler implements AutoCloseable {
+    private static final double MAX_SECONDS = 1800.0; // histogram range: 30 minutes
+
+    /**
+     * Prep station of a drink category.
+     */
+    public enum Station {
+        ESPRESSO_BAR, COLD_BAR, BLENDED;
+
+        /**
+         * Returns the station that makes drinks of a category.
+         * @param category a {@link Drink#getCategoryName()}
+         * @return the station (espresso bar for unknown categories)
+         */
+        public static Station forCategory(String category) {
+            return switch (category.toLowerCase()) {
+                case "tea", "refresher" -> COLD_BAR;
+                case "frappuccino" -> BLENDED;
+                default -> ESPRESSO_BAR;
+            };
+        }
+    }
+
+    /**
+     * The work of preparing one drink, e.g. showing it on a station display
+     * until the barista marks it done.
+     */
+    public interface PrepWork {
+        void prepare(PrepTask task) throws InterruptedException;
+    }
+
+    private final Map<Station, PriorityBlockingQueue<PrepTask>> queues = new EnumMap<>(Station.class);
+    private final Map<Station, Integer> baristas;
+    private final PrepWork work;
+    private final long agingNanos;
+    private final double timeScale;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong stolen = new AtomicLong();
+    private final AtomicLong completedDrinks = new AtomicLong();
+    private final Object workSubmitted = new Object();      // idle baristas wait here
+    private final AtomicInteger idleBaristas = new AtomicInteger();
+    private final Histogram ticketSeconds = new Histogram(MAX_SECONDS, 18_000);
+    private final Histogram waitSeconds = new Histogram(MAX_SECONDS, 18_000);
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean stealing = true;
+    private volatile boolean running;
+
+    /**
+     * Creates a scheduler with two espresso baristas, one cold bar barista,
+     * one blender barista and a one-minute aging period.
+     * @param work how a drink is prepared
+     */
+    public PrepScheduler(PrepWork work) {
+        this(Map.of(Station.ESPRESSO_BAR, 2, Station.COLD_BAR, 1, Station.BLENDED, 1), work, 60_000, 1.0);
+    }
+
+    /**
+     * @param baristas baristas per station (missing stations get none and rely on stealing)
+     * @param work how a drink is prepared
+     * @param agingMillis how far one priority level moves a ticket ahead
+     * @param timeScale real time per reported time (1.0 in production)
+     */
+    public PrepScheduler(Map<Station, Integer> baristas, PrepWork work, long agingMillis, double timeScale) {
+        this.baristas = new EnumMap<>(Station.class);
+        for (Station station : Station.values()) {
+            queues.put(station, new PriorityBlockingQueue<>());
+            this.baristas.put(station, Math.max(0, baristas.getOrDefault(station, 0)));
+        }
+        this.work = work;
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * Turns work stealing between stations on or off.
+     * @param stealing true to let idle baristas help other stations
+     */
+    public void setStealing(boolean stealing) {
+        this.stealing = stealing;
+        wakeIdleBaristas(); // other stations' queues may now be theirs to take
+    }
+
+    /**
+     * Starts the barista threads.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Station station : Station.values()) {
+            for (int b = 0; b < baristas.get(station); b++) {
+                Thread t = new Thread(() -> runBarista(station),
+                        "barista-" + station.name().toLowerCase() + "-" + (b + 1));
+                t.setDaemon(true);
+                workers.add(t);
+                t.start();
+            }
+        }
+    }
+
+    /**
+     * Queues an order's drinks at normal priority.
+     * @param order the completed order
+     * @return the ticket
+     */
+    public Ticket submit(Order order) {
+        return submit(order, 0);
+    }
+
+    /**
+     * Queues an order's drinks.
+     * @param order the completed order
+     * @param priority 0 for normal; each level moves the ticket one aging period ahead
+     * @return the ticket
+     */
+    public Ticket submit(Order order, int priority) {
+        int drinks = 0;
+        for (int i = 0; i < order.getItemCount(); i++) {
+            drinks += order.getItem(i).getQuantity();
+        }
+        Ticket ticket = new Ticket(order, drinks);
+        if (drinks == 0) {
+            ticket.done.countDown();
+            return ticket;
+        }
+        outstanding.addAndGet(drinks);
+        long key = ticket.submittedNanos - priority * agingNanos;
+        for (int i = 0; i < order.getItemCount(); i++) {
+            CartItem item = order.getItem(i);
+            Station station = Station.forCategory(item.getDrink().getCategoryName());
+            for (int unit = 0; unit < item.getQuantity(); unit++) {
+                queues.get(station).add(new PrepTask(ticket, item, station, key, sequence.getAndIncrement()));
+            }
+        }
+        wakeIdleBaristas();
+        return ticket;
+    }
+
+    public int getQueueDepth(Station station) {
+        return queues.get(station).size();
+    }
+
+    /** Returns drinks queued or being made. */
+    public int getOutstandingDrinks() {
+        return outstanding.get();
+    }
+
+    public long getCompletedDrinks() {
+        return completedDrinks.get();
+    }
+
+    /** Returns how many drinks were made by a barista of another station. */
+    public long getStolenTasks() {
+        return stolen.get();
+    }
+
+    /**
+     * Returns ticket times so far: submit until the last drink is done.
+     * @return a copy of the histogram, in seconds
+     */
+    public Histogram getTicketSeconds() {
+        return snapshot(ticketSeconds);
+    }
+
+    /**
+     * Returns how long drinks waited in a queue before a barista took them.
+     * @return a copy of the histogram, in seconds
+     */
+    public Histogram getWaitSeconds() {
+        return snapshot(waitSeconds);
+    }
+
+    /**
+     * Waits until every submitted drink is done.
+     * @param timeoutMillis how long to wait at most
+     * @return true if all drinks are done
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (outstanding) {
+            while (outstanding.get() > 0) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    return false;
+                }
+                outstanding.wait(left);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the barista threads. Queued drinks stay queued.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        for (Thread t : workers) {
+            t.interrupt();
+        }
+        workers.clear();
+    }
+
+    private void runBarista(Station home) {
+        PriorityBlockingQueue<PrepTask> own = queues.get(home);
+        try {
+            while (running) {
+                PrepTask task = own.poll();
+                if (task == null && stealing) {
+                    task = steal(home);
+                }
+                if (task == null) {
+                    awaitWork(home);
+                    continue;
+                }
+                long started = System.nanoTime();
+                try {
+                    work.prepare(task);
+                } catch (InterruptedException e) {
+                    queues.get(task.station).add(task); // closed mid-drink: leave it queued
+                    throw e;
+                } catch (RuntimeException e) {
+                    System.err.println("Prep failed for " + task.getDrink().getName() + ": " + e.getMessage());
+                }
+                // Recorded once the drink is made, so a drink requeued by close() is counted once
+                synchronized (waitSeconds) {
+                    waitSeconds.record(seconds(started - task.ticket.submittedNanos));
+                }
+                finish(task);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    // Sleeps until a submit might have brought work for this barista. The idle
+    // count is raised before the queues are checked, so a submit either is
+    // seen by the check or sees the count and wakes the barista.
+    private void awaitWork(Station home) throws InterruptedException {
+        synchronized (workSubmitted) {
+            idleBaristas.incrementAndGet();
+            try {
+                while (running && !hasWork(home)) {
+                    workSubmitted.wait();
+                }
+            } finally {
+                idleBaristas.decrementAndGet();
+            }
+        }
+    }
+
+    private boolean hasWork(Station home) {
+        if (!queues.get(home).isEmpty()) {
+            return true;
+        }
+        if (stealing) {
+            for (PriorityBlockingQueue<PrepTask> queue : queues.values()) {
+                if (!queue.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void wakeIdleBaristas() {
+        if (idleBaristas.get() > 0) {
+            synchronized (workSubmitted) {
+                workSubmitted.notifyAll();
+            }
+        }
+    }
+
+    // Takes the next task from the longest queue of another station
+    private PrepTask steal(Station home) {
+        PriorityBlockingQueue<PrepTask> victim = null;
+        int deepest = 0;
+        for (Station station : Station.values()) {
+            int depth = queues.get(station).size();
+            if (station != home && depth > deepest) {
+                deepest = depth;
+                victim = queues.get(station);
+            }
+        }
+        PrepTask task = victim != null ? victim.poll() : null;
+        if (task != null) {
+            stolen.incrementAndGet();
+        }
+        return task;
+    }
+
+    private void finish(PrepTask task) {
+        completedDrinks.incrementAndGet();
+        Ticket ticket = task.ticket;
+        if (ticket.remaining.decrementAndGet() == 0) {
+            ticket.completedNanos = System.nanoTime();
+            synchronized (ticketSeconds) {
+                ticketSeconds.record(seconds(ticket.completedNanos - ticket.submittedNanos));
+            }
+            ticket.done.countDown();
+        }
+        if (outstanding.decrementAndGet() == 0) {
+            synchronized (outstanding) {
+                outstanding.notifyAll();
+            }
+        }
+    }
+
+    private double seconds(long nanos) {
+        return nanos / 1e9 / timeScale;
+    }
+
+    private static Histogram snapshot(Histogram histogram) {
+        synchronized (histogram) {
+            return histogram.copy();
+        }
+    }
+
+    /**
+     * Runs a sped-up shift: orders from a {@link WorkloadGenerator} arrive at
+     * a steady rate and each drink takes its station's prep time (espresso
+     * 40 s, cold 30 s, blended 75 s).
+     * @param scheduler a scheduler created with the same time scale, not yet started
+     * @param menu drinks to order from
+     * @param orders number of orders
+     * @param ordersPerHour arrival rate in simulated time
+     * @param seed workload seed
+     * @return throughput and ticket times in simulated time; not complete if
+     *         drinks were still outstanding after ten minutes of waiting
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static SimulationReport simulate(PrepScheduler scheduler, List<Drink> menu, int orders,
+                                            double ordersPerHour, long seed) throws InterruptedException {
+        WorkloadGenerator generator = new WorkloadGenerator(menu, AddonCatalog.standard(), seed);
+        OrderPricer pricer = new OrderPricer(null);
+        LocalDate day = LocalDate.now();
+        long intervalNanos = (long) (3600e9 / ordersPerHour * scheduler.timeScale);
+        Map<Station, Integer> maxDepth = new EnumMap<>(Station.class);
+        scheduler.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            long wait = start + i * intervalNanos - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            scheduler.submit(pricer.price(generator.nextCart(), generator.nextTime(day)));
+            for (Station station : Station.values()) {
+                maxDepth.merge(station, scheduler.getQueueDepth(station), Math::max);
+            }
+        }
+        boolean finished = scheduler.awaitIdle(TimeUnit.MINUTES.toMillis(10));
+        long elapsed = System.nanoTime() - start;
+        scheduler.close();
+        return new SimulationReport(orders, scheduler.getCompletedDrinks(), finished ? 0 : scheduler.getOutstandingDrinks(),
+                scheduler.seconds(elapsed), scheduler.getTicketSeconds(), scheduler.getWaitSeconds(),
+                scheduler.getStolenTasks(), maxDepth);
+    }
+
+    /**
+     * Returns a {@link PrepWork} that takes each station's simulated prep time.
+     * @param timeScale real time per simulated time
+     * @return the work
+     */
+    public static PrepWork simulatedWork(double timeScale) {
+        return task -> {
+            double seconds = switch (task.getStation()) {
+                case ESPRESSO_BAR -> 40;
+                case COLD_BAR -> 30;
+                case BLENDED -> 75;
+            };
+            TimeUnit.NANOSECONDS.sleep((long) (seconds * 1e9 * timeScale));
+        };
+    }
+
+    /**
+     * One drink to make.
+     */
+    public static final class PrepTask implements Comparable<PrepTask> {
+        private final Ticket ticket;
+        private final CartItem item;
+        private final Station station;
+        private final long key;
+        private final long sequence;
+
+        private PrepTask(Ticket ticket, CartItem item, Station station, long key, long sequence) {
+            this.ticket = ticket;
+            this.item = item;
+            this.station = station;
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        public Ticket getTicket() {
+            return ticket;
+        }
+
+        public Drink getDrink() {
+            return item.getDrink();
+        }
+
+        /** Returns the add-ons to put on the drink, e.g. "2x vanilla". */
+        public String getAddonsLabel() {
+            return item.addonsLabel();
+        }
+
+        public Station getStation() {
+            return station;
+        }
+
+        @Override
+        public int compareTo(PrepTask other) {
+            int byKey = Long.compare(key, other.key);
+            return byKey != 0 ? byKey : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * An order in preparation.
+     */
+    public static final class Ticket {
+        private final Order order;
+        private final AtomicInteger remaining;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long submittedNanos = System.nanoTime();
+        private volatile long completedNanos;
+
+        private Ticket(Order order, int drinks) {
+            this.order = order;
+            this.remaining = new AtomicInteger(drinks);
+        }
+
+        public Order getOrder() {
+            return order;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Waits for the order's last drink.
+         * @param timeoutMillis how long to wait at most
+         * @return true if the order is ready
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public boolean await(long timeoutMillis) throws InterruptedException {
+            return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Outcome of a {@link #simulate simulation}, in simulated time.
+     */
+    public static final class SimulationReport {
+        private final int orders;
+        private final long drinks;
+        private final int unfinishedDrinks;
+        private final double seconds;
+        private final Histogram ticketSeconds;
+        private final Histogram waitSeconds;
+        private final long stolen;
+        private final Map<Station, Integer> maxQueueDepth;
+
+        private SimulationReport(int orders, long drinks, int unfinishedDrinks, double seconds, Histogram ticketSeconds,
+                                 Histogram waitSeconds, long stolen, Map<Station, Integer> maxQueueDepth) {
+            this.orders = orders;
+            this.drinks = drinks;
+            this.unfinishedDrinks = unfinishedDrinks;
+            this.seconds = seconds;
+            this.ticketSeconds = ticketSeconds;
+            this.waitSeconds = waitSeconds;
+            this.stolen = stolen;
+            this.maxQueueDepth = Collections.unmodifiableMap(maxQueueDepth);
+        }
+
+        public int getOrders() {
+            return orders;
+        }
+
+        public long getDrinks() {
+            return drinks;
+        }
+
+        /** Tells whether every drink was made before the simulation stopped waiting. */
+        public boolean isComplete() {
+            return unfinishedDrinks == 0;
+        }
+
+        /** Returns drinks still queued or being made when the simulation timed out. */
+        public int getUnfinishedDrinks() {
+            return unfinishedDrinks;
+        }
+
+        /** Returns drinks made per simulated hour. */
+        public double getDrinksPerHour() {
+            return seconds == 0 ? 0.0 : drinks * 3600.0 / seconds;
+        }
+
+        public Histogram getTicketSeconds() {
+            return ticketSeconds;
+        }
+
+        public Histogram getWaitSeconds() {
+            return waitSeconds;
+        }
+
+        public long getStolenTasks() {
+            return stolen;
+        }
+
+        public Map<Station, Integer> getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        @Override
+        public String toString() {
+            String status = isComplete() ? "" : String.format("INCOMPLETE: timed out with %d drinks unfinished%n",
+                    unfinishedDrinks);
+            return status + String.format("%d orders, %d drinks in %.0f min (%.0f drinks/hour)%n"
+                            + "Ticket time (s): p50 %.0f  p95 %.0f  max %.0f; wait p95 %.0f%n"
+                            + "Stolen drinks: %d, max queue depth: %s%n",
+                    orders, drinks, seconds / 60, getDrinksPerHour(),
+                    ticketSeconds.getMedian(), ticketSeconds.percentile(95), ticketSeconds.getMax(),
+                    waitSeconds.percentile(95), stolen, maxQueueDepth);
+        }
+    }
+}
@@ -26,5 +26,17 @@ public interface Promotion {
      * @return true if promotion is applicable, false otherwise
      */
     boolean isApplicable(List<CartItem> items);
+    
+    /**
+     * Returns an upper bound on the discount this promotion can give because
+     * of a single cart line. For any set of lines, the discount must not exceed
+     * the sum of their bounds; {@link PromotionStackingSolver} relies on this
+     * to prune. The default bound is the full line subtotal.
+     * @param item the cart line
+     * @return the upper bound (0 if the line can never be discounted)
+     */
+    default double maxLineDiscount(CartItem item) {
+        return item.lineSubtotalBeforeDiscounts();
+    }
 }
 
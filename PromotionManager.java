@@ -1,15 +1,22 @@
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Manages promotions and selects the best applicable promotion.
  * Part 6.1 Requirement - Strategy Pattern implementation.
+ * Only the currently live promotions are evaluated; the live set is
+ * published by a {@link PromotionScheduler} as time windows open and close.
  */
 public class PromotionManager {
     private List<Promotion> promotions;
+    private volatile List<Promotion> activePromotions;
+    private boolean stackingEnabled;
     
     public PromotionManager(List<Promotion> promotions) {
         this.promotions = promotions != null ? new ArrayList<>(promotions) : new ArrayList<>();
+        // Until a scheduler is attached, use the set that is live right now
+        this.activePromotions = PromotionScheduler.activeAt(this.promotions, LocalTime.now());
     }
     
     /**
@@ -24,7 +31,7 @@ public class PromotionManager {
         Promotion bestPromotion = null;
         double bestDiscount = 0.0;
         
-        for (Promotion promotion : promotions) {
+        for (Promotion promotion : activePromotions) {
             if (promotion.isApplicable(items)) {
                 double discount = promotion.calculateDiscount(items, baseTotal, addonsTotal);
                 if (discount > bestDiscount) {
@@ -37,6 +44,60 @@ public class PromotionManager {
         return bestPromotion;
     }
     
+    /**
+     * Applies promotions to a cart: the single best promotion, or the best
+     * stack of promotions when stacking is enabled.
+     * @param items the cart items
+     * @param baseTotal the total base price of drinks
+     * @param addonsTotal the total cost of add-ons
+     * @return the applied promotions (empty if none applies)
+     */
+    public PromotionStack applyPromotions(List<CartItem> items, double baseTotal, double addonsTotal) {
+        if (stackingEnabled) {
+            return selectBestStack(items);
+        }
+        PromotionStack stack = new PromotionStack();
+        Promotion best = selectBestPromotion(items, baseTotal, addonsTotal);
+        if (best != null) {
+            stack.add(best, items, best.calculateDiscount(items, baseTotal, addonsTotal));
+        }
+        return stack;
+    }
+    
+    /**
+     * Selects the combination of live promotions, each applied to its own
+     * disjoint set of cart lines, that gives the highest total discount.
+     * @param items the cart items
+     * @return the best promotion stack (empty if no promotion applies)
+     */
+    public PromotionStack selectBestStack(List<CartItem> items) {
+        return new PromotionStackingSolver().solve(items, activePromotions);
+    }
+    
+    /**
+     * Replaces the set of live promotions. Called by {@link PromotionScheduler}.
+     * @param activePromotions immutable list of promotions that are live now
+     */
+    public void setActivePromotions(List<Promotion> activePromotions) {
+        this.activePromotions = activePromotions;
+    }
+    
+    public boolean isStackingEnabled() {
+        return stackingEnabled;
+    }
+    
+    public void setStackingEnabled(boolean stackingEnabled) {
+        this.stackingEnabled = stackingEnabled;
+    }
+    
+    /**
+     * Gets the promotions that are currently live.
+     * @return immutable list of live promotions
+     */
+    public List<Promotion> getActivePromotions() {
+        return activePromotions;
+    }
+    
     /**
      * Gets all promotions.
      * @return list of promotions
@@ -45,4 +106,3 @@ public class PromotionManager {
         return new ArrayList<>(promotions);
     }
 }
-
@@ -0,0 +1,226 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Activates and deactivates time-bound promotions at their window boundaries.
+ * Each time a boundary passes, an immutable set of live promotions is
+ * published to the {@link PromotionManager}, so checkout never evaluates a
+ * window itself. Boundaries are published by a daemon thread ({@link #start()})
+ * or by whoever calls {@link #publishIfDue()}, e.g. every checkout.
+ */
+public class PromotionScheduler {
+    private final Clock clock;
+    private PromotionManager promotionManager;
+    // The window the published set is valid for: [lastBoundaryMillis, nextBoundaryMillis)
+    private volatile long lastBoundaryMillis = Long.MIN_VALUE;
+    private volatile long nextBoundaryMillis = Long.MAX_VALUE;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> pending;
+    
+    public PromotionScheduler(Clock clock) {
+        this.clock = clock != null ? clock : Clock.systemDefaultZone();
+    }
+    
+    public Clock getClock() {
+        return clock;
+    }
+    
+    /**
+     * Attaches a promotion manager and immediately publishes its active set.
+     * @param promotionManager the manager to keep up to date
+     */
+    public synchronized void setPromotionManager(PromotionManager promotionManager) {
+        this.promotionManager = promotionManager;
+        publish();
+    }
+    
+    /**
+     * Publishes a new active set if a window boundary has passed, or the
+     * clock was set back before the current window. Cheap enough to call on
+     * every checkout: while the set is current it only reads the clock.
+     * @return true if a new set was published
+     */
+    public boolean publishIfDue() {
+        long now = clock.millis();
+        if (now < nextBoundaryMillis && now >= lastBoundaryMillis) {
+            return false;
+        }
+        synchronized (this) {
+            now = clock.millis();
+            if (promotionManager == null || (now < nextBoundaryMillis && now >= lastBoundaryMillis)) {
+                return false;
+            }
+            publish();
+            return true;
+        }
+    }
+    
+    /**
+     * Starts a daemon thread that publishes at each window boundary.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "promotion-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduleNext();
+    }
+    
+    /**
+     * Stops the background thread, if running.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            pending = null;
+        }
+    }
+    
+    private synchronized void onBoundary() {
+        if (!publishIfDue()) {
+            scheduleNext(); // woke early; wait for the remaining time
+        }
+    }
+    
+    // Replaces any pending wake-up with one at the next boundary
+    private void scheduleNext() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        if (executor == null || nextBoundaryMillis == Long.MAX_VALUE) {
+            return;
+        }
+        long delay = Math.max(1, nextBoundaryMillis - clock.millis());
+        pending = executor.schedule(this::onBoundary, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    private void publish() {
+        if (promotionManager == null) {
+            return;
+        }
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        promotionManager.setActivePromotions(
+                activeAt(promotionManager.getPromotions(), now.toLocalTime()));
+        lastBoundaryMillis = lastBoundary(promotionManager.getPromotions(), now);
+        nextBoundaryMillis = nextBoundary(promotionManager.getPromotions(), now);
+        scheduleNext();
+    }
+    
+    /**
+     * Returns the promotions live at the given time of day.
+     * Promotions without a time window are always live.
+     * @param promotions all configured promotions
+     * @param time the time of day
+     * @return immutable list of live promotions
+     */
+    public static List<Promotion> activeAt(List<Promotion> promotions, LocalTime time) {
+        List<Promotion> active = new ArrayList<>();
+        for (Promotion promotion : promotions) {
+            if (!(promotion instanceof TimeWindowPromotion)
+                    || ((TimeWindowPromotion) promotion).isActiveAt(time)) {
+                active.add(promotion);
+            }
+        }
+        return Collections.unmodifiableList(active);
+    }
+    
+    /**
+     * Returns a lookup of the manager to price with at a given time of day,
+     * for replaying or generating orders at many times without a scheduler.
+     * One manager is built per combination of open time windows, on first
+     * use; managers are read-only afterwards, so the lookup can be shared
+     * between threads.
+     * @param promotions all configured promotions
+     * @param stacking whether the managers stack promotions on disjoint lines
+     * @return the manager for a time of day
+     * @throws IllegalArgumentException if more than 64 promotions have a time window
+     */
+    public static Function<LocalTime, PromotionManager> managersByWindow(List<Promotion> promotions, boolean stacking) {
+        List<Promotion> all = new ArrayList<>(promotions);
+        List<TimeWindowPromotion> windows = new ArrayList<>();
+        for (Promotion promotion : all) {
+            if (promotion instanceof TimeWindowPromotion) {
+                windows.add((TimeWindowPromotion) promotion);
+            }
+        }
+        if (windows.size() > 64) {
+            throw new IllegalArgumentException("At most 64 time-window promotions are supported");
+        }
+        Map<Long, PromotionManager> managersByWindowMask = new ConcurrentHashMap<>();
+        return time -> {
+            long mask = 0L;
+            for (int w = 0; w < windows.size(); w++) {
+                if (windows.get(w).isActiveAt(time)) {
+                    mask |= 1L << w;
+                }
+            }
+            return managersByWindowMask.computeIfAbsent(mask, m -> {
+                PromotionManager manager = new PromotionManager(all);
+                manager.setActivePromotions(activeAt(all, time));
+                manager.setStackingEnabled(stacking);
+                return manager;
+            });
+        };
+    }
+    
+    private static long nextBoundary(List<Promotion> promotions, ZonedDateTime now) {
+        long next = Long.MAX_VALUE;
+        for (Promotion promotion : promotions) {
+            if (promotion instanceof TimeWindowPromotion) {
+                TimeWindowPromotion windowed = (TimeWindowPromotion) promotion;
+                next = Math.min(next, nextOccurrence(windowed.getWindowStart(), now));
+                next = Math.min(next, nextOccurrence(windowed.getWindowEnd(), now));
+            }
+        }
+        return next;
+    }
+    
+    private static long lastBoundary(List<Promotion> promotions, ZonedDateTime now) {
+        long last = Long.MIN_VALUE;
+        for (Promotion promotion : promotions) {
+            if (promotion instanceof TimeWindowPromotion) {
+                TimeWindowPromotion windowed = (TimeWindowPromotion) promotion;
+                last = Math.max(last, lastOccurrence(windowed.getWindowStart(), now));
+                last = Math.max(last, lastOccurrence(windowed.getWindowEnd(), now));
+            }
+        }
+        return last;
+    }
+    
+    private static long lastOccurrence(LocalTime time, ZonedDateTime now) {
+        LocalDate date = now.toLocalDate();
+        ZonedDateTime candidate = LocalDateTime.of(date, time).atZone(now.getZone());
+        if (candidate.isAfter(now)) {
+            candidate = LocalDateTime.of(date.minusDays(1), time).atZone(now.getZone());
+        }
+        return candidate.toInstant().toEpochMilli();
+    }
+    
+    private static long nextOccurrence(LocalTime time, ZonedDateTime now) {
+        LocalDate date = now.toLocalDate();
+        ZonedDateTime candidate = LocalDateTime.of(date, time).atZone(now.getZone());
+        if (!candidate.isAfter(now)) {
+            candidate = LocalDateTime.of(date.plusDays(1), time).atZone(now.getZone());
+        }
+        return candidate.toInstant().toEpochMilli();
+    }
+}
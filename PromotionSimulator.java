@@ -0,0 +1,242 @@
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * What-if analysis for promotion campaigns: replays the line items of
+ * historical orders against an alternative list of promotions and compares
+ * the result with the discount each order actually received.
+ *
+ * Each order is evaluated with the promotions that were live at its time of
+ * day, so {@link TimeWindowPromotion}s behave as they would have. Orders are
+ * split into chunks and evaluated on all cores. Each worker keeps its own
+ * totals and the totals are merged at the end.
+ *
+ * Per-category revenue deltas are pre-tax. A simulated promotion's discount
+ * is spread over the lines it applied to, in proportion to their subtotals.
+ * Orders do not record which lines their actual promotion covered, so the
+ * actual discount is spread over all of the order's lines. Orders whose
+ * simulated promotion and discount match the actual ones count as
+ * unaffected and add nothing to the deltas.
+ */
+public class PromotionSimulator {
+    private static final int CHUNK_ORDERS = 4096;
+
+    private final Function<LocalTime, PromotionManager> managerAt;
+
+    /**
+     * @param promotions the alternative promotions to evaluate
+     * @param stacking whether promotions may stack on disjoint lines
+     */
+    public PromotionSimulator(List<Promotion> promotions, boolean stacking) {
+        this.managerAt = PromotionScheduler.managersByWindow(promotions, stacking);
+    }
+
+    /**
+     * Simulates the promotions on all available cores.
+     * @param orders historical orders
+     * @return the comparison report
+     */
+    public Report simulate(List<Order> orders) {
+        return simulate(orders, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Simulates the promotions.
+     * @param orders historical orders (random access is assumed)
+     * @param threads worker threads
+     * @return the comparison report
+     */
+    public Report simulate(List<Order> orders, int threads) {
+        long start = System.nanoTime();
+        int chunks = (orders.size() + CHUNK_ORDERS - 1) / CHUNK_ORDERS;
+        Report total = new Report();
+        if (chunks <= 1 || threads <= 1) {
+            evaluate(orders, 0, orders.size(), total);
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, chunks), r -> {
+                Thread t = new Thread(r, "promotion-simulator");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<Report>> parts = new ArrayList<>(chunks);
+                for (int c = 0; c < chunks; c++) {
+                    int from = c * CHUNK_ORDERS;
+                    int to = Math.min(orders.size(), from + CHUNK_ORDERS);
+                    parts.add(pool.submit(() -> {
+                        Report part = new Report();
+                        evaluate(orders, from, to, part);
+                        return part;
+                    }));
+                }
+                for (Future<Report> part : parts) {
+                    total.merge(part.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Simulation interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Simulation failed", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        total.elapsedNanos = System.nanoTime() - start;
+        return total;
+    }
+
+    private void evaluate(List<Order> orders, int from, int to, Report report) {
+        for (int i = from; i < to; i++) {
+            Order order = orders.get(i);
+            List<CartItem> items = order.getItems();
+            double baseTotal = 0.0;
+            double addonsTotal = 0.0;
+            for (int j = 0; j < order.getItemCount(); j++) {
+                CartItem item = order.getItem(j);
+                baseTotal += item.basePrice();
+                addonsTotal += item.addonsCost();
+            }
+            PromotionStack stack = managerAt.apply(order.getTimestamp().toLocalTime())
+                    .applyPromotions(items, baseTotal, addonsTotal);
+
+            double simulated = stack.getTotalDiscount();
+            double actual = order.getDiscount();
+            report.orders++;
+            report.actualDiscount += actual;
+            report.simulatedDiscount += simulated;
+            if (!stack.isEmpty()) {
+                report.ordersWithPromotion++;
+                for (Promotion promotion : stack.getPromotions()) {
+                    report.hits.merge(promotion.getPromotionName(), 1, Integer::sum);
+                }
+            }
+            boolean sameDiscount = Math.abs(simulated - actual) < 0.005;
+            if (sameDiscount && stack.getLabel().equals(labelOf(order))) {
+                continue;
+            }
+            report.affectedOrders++;
+            // Actual discount comes back as revenue, simulated discount is given away
+            spread(actual, items, report);
+            for (Promotion promotion : stack.getPromotions()) {
+                spread(-stack.getDiscount(promotion), stack.getLines(promotion), report);
+            }
+        }
+    }
+
+    private static String labelOf(Order order) {
+        return order.getPromotionName() != null ? order.getPromotionName() : "None";
+    }
+
+    // Adds amount to category revenue deltas, in proportion to line subtotals
+    private static void spread(double amount, List<CartItem> lines, Report report) {
+        if (amount == 0.0 || lines.isEmpty()) {
+            return;
+        }
+        double subtotal = 0.0;
+        for (CartItem line : lines) {
+            subtotal += line.lineSubtotalBeforeDiscounts();
+        }
+        for (CartItem line : lines) {
+            double share = subtotal > 0.0
+                    ? line.lineSubtotalBeforeDiscounts() / subtotal
+                    : 1.0 / lines.size();
+            report.categoryDelta(line.getDrink().getCategoryName())[0] += amount * share;
+        }
+    }
+
+    /**
+     * Outcome of a simulation, compared with what the orders actually got.
+     */
+    public static class Report {
+        private long orders;
+        private long affectedOrders;
+        private long ordersWithPromotion;
+        private double actualDiscount;
+        private double simulatedDiscount;
+        private final Map<String, double[]> categoryDeltas = new TreeMap<>();
+        private final Map<String, Integer> hits = new TreeMap<>();
+        private long elapsedNanos;
+
+        private double[] categoryDelta(String category) {
+            return categoryDeltas.computeIfAbsent(category, k -> new double[1]);
+        }
+
+        private void merge(Report other) {
+            orders += other.orders;
+            affectedOrders += other.affectedOrders;
+            ordersWithPromotion += other.ordersWithPromotion;
+            actualDiscount += other.actualDiscount;
+            simulatedDiscount += other.simulatedDiscount;
+            other.categoryDeltas.forEach((k, v) -> categoryDelta(k)[0] += v[0]);
+            other.hits.forEach((k, v) -> hits.merge(k, v, Integer::sum));
+        }
+
+        public long getOrders() {
+            return orders;
+        }
+
+        /**
+         * Returns the number of orders whose promotion or discount would change.
+         */
+        public long getAffectedOrders() {
+            return affectedOrders;
+        }
+
+        public long getOrdersWithPromotion() {
+            return ordersWithPromotion;
+        }
+
+        public double getActualDiscount() {
+            return actualDiscount;
+        }
+
+        public double getSimulatedDiscount() {
+            return simulatedDiscount;
+        }
+
+        /**
+         * Returns the extra discount cost of the simulated promotions
+         * (negative if they would give away less).
+         */
+        public double getDiscountCostDelta() {
+            return simulatedDiscount - actualDiscount;
+        }
+
+        /**
+         * Returns the pre-tax revenue change per category.
+         * @return category -> delta (negative means less revenue)
+         */
+        public Map<String, Double> getCategoryRevenueDeltas() {
+            Map<String, Double> result = new TreeMap<>();
+            categoryDeltas.forEach((k, v) -> result.put(k, v[0]));
+            return result;
+        }
+
+        /**
+         * Returns how many orders each simulated promotion applied to.
+         * @return promotion name -> orders
+         */
+        public Map<String, Integer> getPromotionHits() {
+            return new TreeMap<>(hits);
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Orders simulated: %d (%d ms)%n", orders, getElapsedMillis()));
+            sb.append(String.format("Orders affected: %d, with a promotion: %d%n", affectedOrders, ordersWithPromotion));
+            sb.append(String.format("Discount: actual $%.2f, simulated $%.2f (%+.2f)%n",
+                    actualDiscount, simulatedDiscount, getDiscountCostDelta()));
+            for (Map.Entry<String, Double> entry : getCategoryRevenueDeltas().entrySet()) {
+                sb.append(String.format("  - %s: %+.2f revenue%n", entry.getKey(), entry.getValue()));
+            }
+            return sb.toString();
+        }
+    }
+}
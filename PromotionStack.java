@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of applying one or more promotions to a cart.
+ * Each promotion is applied to its own disjoint set of cart lines.
+ */
+public class PromotionStack {
+    private final Map<Promotion, List<CartItem>> lines = new LinkedHashMap<>();
+    private final Map<Promotion, Double> discounts = new LinkedHashMap<>();
+    private double totalDiscount;
+    
+    /**
+     * Adds a promotion applied to the given lines.
+     * @param promotion the promotion
+     * @param items the cart lines it applies to
+     * @param discount the discount it gives on those lines
+     */
+    public void add(Promotion promotion, List<CartItem> items, double discount) {
+        lines.put(promotion, Collections.unmodifiableList(new ArrayList<>(items)));
+        discounts.put(promotion, discount);
+        totalDiscount += discount;
+    }
+    
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+    
+    public double getTotalDiscount() {
+        return totalDiscount;
+    }
+    
+    public List<Promotion> getPromotions() {
+        return new ArrayList<>(lines.keySet());
+    }
+    
+    public List<CartItem> getLines(Promotion promotion) {
+        return lines.getOrDefault(promotion, Collections.emptyList());
+    }
+    
+    public double getDiscount(Promotion promotion) {
+        return discounts.getOrDefault(promotion, 0.0);
+    }
+    
+    /**
+     * Returns a display label such as "Bulk Order 10% + Happy Hour", or "None".
+     * @return the label
+     */
+    public String getLabel() {
+        if (lines.isEmpty()) {
+            return "None";
+        }
+        List<String> names = new ArrayList<>();
+        for (Promotion promotion : lines.keySet()) {
+            names.add(promotion.getPromotionName());
+        }
+        return String.join(" + ", names);
+    }
+}
@@ -0,0 +1,253 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns cart lines to promotions so that the total discount is maximized,
+ * with each line used by at most one promotion.
+ * Lines of the same drink are kept together and assigned as one unit.
+ * The best single-promotion assignment is first improved by moving units
+ * between promotions one at a time. Branch-and-bound then searches the rest:
+ * each promotion gives an additive upper bound per line
+ * ({@link Promotion#maxLineDiscount}), and branches whose bound cannot beat the
+ * best assignment found so far are pruned. Node and evaluation budgets keep
+ * the solver within a fixed time even for very large carts; when a budget is
+ * exhausted the best assignment found so far is returned.
+ */
+public class PromotionStackingSolver {
+    private static final int DEFAULT_NODE_BUDGET = 20000;
+    private static final int DEFAULT_EVALUATION_BUDGET = 256;
+    private static final double EPSILON = 1e-9;
+    
+    private final int nodeBudget;
+    private final int evaluationBudget;
+    
+    // Per-solve state
+    private List<Promotion> promotions;
+    private List<List<CartItem>> units;  // cart lines grouped by drink name
+    private int[][] candidates;          // candidate promotion indexes per unit, best bound first
+    private double[][] bounds;           // bounds[unit][candidate]
+    private double[] suffixBound;        // sum of best bounds from unit i onward
+    private int[] assignment;            // promotion index per unit
+    private int[] bestAssignment;
+    private double bestDiscount;
+    private int nodes;
+    private int evaluations;
+    private List<List<CartItem>> groups; // reused per evaluation
+    
+    public PromotionStackingSolver() {
+        this(DEFAULT_NODE_BUDGET, DEFAULT_EVALUATION_BUDGET);
+    }
+    
+    public PromotionStackingSolver(int nodeBudget, int evaluationBudget) {
+        this.nodeBudget = Math.max(1, nodeBudget);
+        this.evaluationBudget = Math.max(1, evaluationBudget);
+    }
+    
+    /**
+     * Finds the best stack of promotions for the given cart.
+     * @param items the cart items
+     * @param promotions the promotions that may be combined
+     * @return the best stack found (empty if nothing applies)
+     */
+    public PromotionStack solve(List<CartItem> items, List<Promotion> promotions) {
+        PromotionStack stack = new PromotionStack();
+        if (items == null || items.isEmpty() || promotions == null || promotions.isEmpty()) {
+            return stack;
+        }
+        prepare(items, promotions);
+        
+        // Seed with each promotion taking every unit it can, so the result is
+        // never worse than picking the single best promotion
+        for (int p = 0; p < promotions.size(); p++) {
+            for (int i = 0; i < units.size(); i++) {
+                assignment[i] = candidates[i][0];
+                for (int c : candidates[i]) {
+                    if (c == p) {
+                        assignment[i] = p;
+                    }
+                }
+            }
+            offer();
+        }
+        improve();
+        
+        search(0, 0.0);
+        if (bestDiscount <= EPSILON) {
+            return stack;
+        }
+        
+        System.arraycopy(bestAssignment, 0, assignment, 0, assignment.length);
+        fillGroups();
+        for (int p = 0; p < promotions.size(); p++) {
+            List<CartItem> group = groups.get(p);
+            double discount = exactDiscount(promotions.get(p), group);
+            if (discount > EPSILON) {
+                stack.add(promotions.get(p), group, discount);
+            }
+        }
+        return stack;
+    }
+    
+    private void prepare(List<CartItem> items, List<Promotion> promotions) {
+        this.promotions = promotions;
+        
+        // Group lines by drink name
+        Map<String, List<CartItem>> byName = new LinkedHashMap<>();
+        for (CartItem item : items) {
+            byName.computeIfAbsent(item.getDrink().getName().toLowerCase(),
+                    k -> new ArrayList<>()).add(item);
+        }
+        
+        // Bound each unit per promotion; keep only units some promotion could discount
+        List<List<CartItem>> eligible = new ArrayList<>();
+        List<double[]> unitBounds = new ArrayList<>();
+        for (List<CartItem> unit : byName.values()) {
+            double[] perPromotion = new double[promotions.size()];
+            double max = 0.0;
+            for (int p = 0; p < promotions.size(); p++) {
+                for (CartItem item : unit) {
+                    perPromotion[p] += promotions.get(p).maxLineDiscount(item);
+                }
+                max = Math.max(max, perPromotion[p]);
+            }
+            if (max > EPSILON) {
+                eligible.add(unit);
+                unitBounds.add(perPromotion);
+            }
+        }
+        
+        // Largest bound first, so good assignments are found early
+        Integer[] order = new Integer[eligible.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(max(unitBounds.get(b)), max(unitBounds.get(a))));
+        
+        units = new ArrayList<>();
+        candidates = new int[order.length][];
+        bounds = new double[order.length][];
+        for (int i = 0; i < order.length; i++) {
+            units.add(eligible.get(order[i]));
+            double[] perPromotion = unitBounds.get(order[i]);
+            List<Integer> cand = new ArrayList<>();
+            for (int p = 0; p < perPromotion.length; p++) {
+                if (perPromotion[p] > EPSILON) {
+                    cand.add(p);
+                }
+            }
+            cand.sort((a, b) -> Double.compare(perPromotion[b], perPromotion[a]));
+            candidates[i] = new int[cand.size()];
+            bounds[i] = new double[cand.size()];
+            for (int c = 0; c < cand.size(); c++) {
+                candidates[i][c] = cand.get(c);
+                bounds[i][c] = perPromotion[cand.get(c)];
+            }
+        }
+        suffixBound = new double[units.size() + 1];
+        for (int i = units.size() - 1; i >= 0; i--) {
+            suffixBound[i] = suffixBound[i + 1] + bounds[i][0];
+        }
+        assignment = new int[units.size()];
+        bestAssignment = new int[units.size()];
+        for (int i = 0; i < units.size(); i++) {
+            bestAssignment[i] = candidates[i][0];
+        }
+        groups = new ArrayList<>();
+        for (int p = 0; p < promotions.size(); p++) {
+            groups.add(new ArrayList<>());
+        }
+        bestDiscount = 0.0;
+        nodes = 0;
+        evaluations = 0;
+    }
+    
+    // Hill-climbs from the best assignment by reassigning one unit at a time
+    private void improve() {
+        System.arraycopy(bestAssignment, 0, assignment, 0, assignment.length);
+        boolean improved = true;
+        while (improved && evaluations < evaluationBudget) {
+            improved = false;
+            for (int i = 0; i < units.size() && evaluations < evaluationBudget; i++) {
+                int current = assignment[i];
+                for (int c : candidates[i]) {
+                    if (c == current) {
+                        continue;
+                    }
+                    assignment[i] = c;
+                    if (offer()) {
+                        current = c;
+                        improved = true;
+                    }
+                }
+                assignment[i] = current;
+            }
+        }
+    }
+    
+    private void search(int i, double assignedBound) {
+        if (nodes++ >= nodeBudget || evaluations >= evaluationBudget) {
+            return;
+        }
+        if (assignedBound + suffixBound[i] <= bestDiscount + EPSILON) {
+            return; // cannot beat the incumbent
+        }
+        if (i == units.size()) {
+            offer();
+            return;
+        }
+        // Promotions are monotone, so every unit goes to some promotion
+        for (int c = 0; c < candidates[i].length; c++) {
+            assignment[i] = candidates[i][c];
+            search(i + 1, assignedBound + bounds[i][c]);
+        }
+    }
+    
+    // Evaluates the current assignment exactly and keeps it if it is the best so far
+    private boolean offer() {
+        evaluations++;
+        fillGroups();
+        double total = 0.0;
+        for (int p = 0; p < promotions.size(); p++) {
+            total += exactDiscount(promotions.get(p), groups.get(p));
+        }
+        if (total > bestDiscount + EPSILON) {
+            bestDiscount = total;
+            System.arraycopy(assignment, 0, bestAssignment, 0, assignment.length);
+            return true;
+        }
+        return false;
+    }
+    
+    private void fillGroups() {
+        for (List<CartItem> group : groups) {
+            group.clear();
+        }
+        for (int i = 0; i < units.size(); i++) {
+            groups.get(assignment[i]).addAll(units.get(i));
+        }
+    }
+    
+    private static double max(double[] values) {
+        double max = 0.0;
+        for (double v : values) {
+            max = Math.max(max, v);
+        }
+        return max;
+    }
+    
+    private static double exactDiscount(Promotion promotion, List<CartItem> group) {
+        if (group.isEmpty() || !promotion.isApplicable(group)) {
+            return 0.0;
+        }
+        double baseTotal = 0.0;
+        double addonsTotal = 0.0;
+        for (CartItem item : group) {
+            baseTotal += item.basePrice();
+            addonsTotal += item.addonsCost();
+        }
+        return promotion.calculateDiscount(group, baseTotal, addonsTotal);
+    }
+}
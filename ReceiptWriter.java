@@ -0,0 +1,59 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes text receipts for completed orders to timestamped files.
+ * Can run inline or as an {@link OrderEventBus} subscriber, in which case
+ * receipts are written off the checkout thread.
+ */
+public class ReceiptWriter implements OrderEventHandler {
+
+    /**
+     * Writes a receipt for the order to "receipt_yyyy-MM-dd_HH-mm.txt".
+     * @param order the completed order
+     */
+    public void save(Order order) {
+        // Create timestamped filename
+        LocalDateTime now = LocalDateTime.now();
+        DateTimeFormatter fileFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm");
+        String fileName = "receipt_" + now.format(fileFormatter) + ".txt";
+
+        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
+        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("==== Starbucks Receipt ====\n");
+        sb.append("Date: ").append(now.format(dateFormatter))
+                .append("  Time: ").append(now.format(timeFormatter)).append("\n\n");
+
+        for (CartItem ci : order.getItems()) {
+            sb.append(String.format("%-28s  base $%5.2f  add-ons [%s] $%4.2f%n",
+                    ci.getDisplayString(), ci.basePrice(), ci.addonsLabel(), ci.addonsCost()));
+        }
+
+        sb.append(String.format("\nDrinks total:     $%.2f%n", order.getBaseTotal()));
+        sb.append(String.format("Add-ons total:    $%.2f%n", order.getAddonsTotal()));
+        sb.append(String.format("Promotion:  %s  (-$%.2f)%n", order.getPromotionName(), order.getDiscount()));
+        sb.append(String.format("Subtotal:         $%.2f%n", order.getSubtotalBeforeTax()));
+        sb.append(String.format("Tax (8.25%%):      $%.2f%n", order.getTax()));
+        sb.append(String.format("TOTAL DUE:        $%.2f%n", order.getFinalTotal()));
+        sb.append("===========================\n");
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+            writer.write(sb.toString());
+            System.out.println("Receipt saved to " + fileName);
+        } catch (IOException e) {
+            System.err.println("Error writing receipt: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        if (event.getType() == OrderEvent.Type.RECEIPT_REQUESTED) {
+            save(event.getOrder());
+        }
+    }
+}
@@ -0,0 +1,406 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Online anomaly detection over the stream of completed orders, so that a
+ * misconfigured promotion or a broken register shows up within minutes
+ * rather than in the end-of-day summary.
+ *
+ * Orders are summed per minute (by order timestamp). When a minute closes,
+ * each series below gets one sample:
+ * <ul>
+ *   <li>revenue per minute (quiet minutes count as $0)</li>
+ *   <li>discount ratio: discounts over the pre-discount subtotal</li>
+ *   <li>per promotion, its hit rate: the share of orders it applied to</li>
+ *   <li>per category, its share of the units sold</li>
+ * </ul>
+ * Every series keeps an exponentially weighted moving mean and variance.
+ * A sample more than {@code zThreshold} standard deviations from the mean
+ * (once the series has {@code warmupMinutes} samples), or a discount ratio
+ * above {@code maxDiscountRatio}, puts the series in alert. Listeners hear
+ * once when a series enters alert and once when it clears. The baseline
+ * keeps learning during an alert, so a lasting, legitimate shift (the
+ * morning rush) clears by itself. Discount ratios over the cap are never
+ * learned, so that alert lasts until discounts are back to normal.
+ *
+ * Recording an order costs O(lines) and closing a minute O(series), with
+ * at most {@value #MAX_KEYS} promotions and categories each; neither
+ * allocates (alerts do). Gaps of more than {@value #MAX_QUIET_MINUTES}
+ * minutes are taken as the store being closed and are not counted as $0
+ * minutes. A late order counts towards the open minute.
+ *
+ * Not thread-safe; feed it from one thread, e.g. as an
+ * {@link OrderEventBus} subscriber.
+ */
+public class SalesAnomalyDetector implements OrderEventHandler {
+    static final int MAX_KEYS = 32;
+    static final int MAX_QUIET_MINUTES = 10;
+    private static final int REVENUE = 0;
+    private static final int DISCOUNT = 1;
+    private static final int FIRST_PROMOTION = 2;
+    private static final int FIRST_CATEGORY = FIRST_PROMOTION + MAX_KEYS;
+    private static final int SERIES = FIRST_CATEGORY + MAX_KEYS;
+
+    /** The series an anomaly was found in. */
+    public enum Metric {
+        REVENUE_PER_MINUTE(1.0),
+        DISCOUNT_RATIO(0.02),
+        PROMOTION_HIT_RATE(0.02),
+        CATEGORY_SHARE(0.02);
+
+        // Smallest standard deviation used, so a flat baseline does not alert on noise
+        final double minStdDev;
+
+        Metric(double minStdDev) {
+            this.minStdDev = minStdDev;
+        }
+    }
+
+    /**
+     * Receives alerts. Runs on the thread that records orders, so it must not block.
+     */
+    public interface AnomalyListener {
+        /**
+         * @param anomaly the series that entered alert, or cleared ({@link Anomaly#isCleared()})
+         */
+        void onAnomaly(Anomaly anomaly);
+    }
+
+    private final double alpha;
+    private final double zThreshold;
+    private final int warmupMinutes;
+    private final double maxDiscountRatio;
+    private final List<AnomalyListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Series baselines, indexed as REVENUE, DISCOUNT, FIRST_PROMOTION + slot, FIRST_CATEGORY + slot
+    private final double[] mean = new double[SERIES];
+    private final double[] variance = new double[SERIES];
+    private final int[] samples = new int[SERIES];
+    private final Anomaly[] active = new Anomaly[SERIES];
+
+    private final Map<String, Integer> promotionSlots = new HashMap<>();
+    private final Map<String, Integer> categorySlots = new HashMap<>();
+    private final String[] promotionNames = new String[MAX_KEYS];
+    private final String[] categoryNames = new String[MAX_KEYS];
+
+    // The open minute
+    private long currentMinute = Long.MIN_VALUE;
+    private double minuteRevenue;
+    private double minuteDiscount;
+    private double minuteGross;
+    private int minuteOrders;
+    private int minuteUnits;
+    private final int[] promotionHits = new int[MAX_KEYS];
+    private final int[] categoryUnits = new int[MAX_KEYS];
+
+    /**
+     * Creates a detector with smoothing 0.05 (about a 20-minute memory), a
+     * 4-sigma threshold, 30 warm-up minutes and a 25% discount cap.
+     */
+    public SalesAnomalyDetector() {
+        this(0.05, 4.0, 30, 0.25);
+    }
+
+    /**
+     * @param alpha EWMA smoothing (0-1; higher forgets faster)
+     * @param zThreshold standard deviations from the mean that count as anomalous
+     * @param warmupMinutes samples a series needs before it can alert on deviation
+     * @param maxDiscountRatio discount ratio that alerts regardless of history
+     */
+    public SalesAnomalyDetector(double alpha, double zThreshold, int warmupMinutes, double maxDiscountRatio) {
+        if (alpha <= 0 || alpha > 1 || zThreshold <= 0) {
+            throw new IllegalArgumentException("Smoothing must be in (0, 1] and the threshold positive");
+        }
+        this.alpha = alpha;
+        this.zThreshold = zThreshold;
+        this.warmupMinutes = warmupMinutes;
+        this.maxDiscountRatio = maxDiscountRatio;
+    }
+
+    public void addListener(AnomalyListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Adds an order to its minute, closing earlier minutes first.
+     * @param order the completed order
+     */
+    public void recordOrder(Order order) {
+        LocalDateTime timestamp = order.getTimestamp();
+        long minute = epochMinute(timestamp);
+        if (minute > currentMinute) {
+            closeUntil(minute);
+        }
+        minuteRevenue += order.getFinalTotal();
+        minuteDiscount += order.getDiscount();
+        minuteGross += order.getBaseTotal() + order.getAddonsTotal();
+        minuteOrders++;
+        String promotion = order.getPromotionName();
+        if (promotion != null && order.getDiscount() > 0.0) {
+            int slot = slot(promotion, promotionSlots, promotionNames);
+            if (slot >= 0) {
+                promotionHits[slot]++;
+            }
+        }
+        for (int i = 0; i < order.getItemCount(); i++) {
+            CartItem item = order.getItem(i);
+            int slot = slot(item.getDrink().getCategoryName(), categorySlots, categoryNames);
+            if (slot >= 0) {
+                categoryUnits[slot] += item.getQuantity();
+            }
+            minuteUnits += item.getQuantity();
+        }
+    }
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        if (event.getType() == OrderEvent.Type.ORDER_COMPLETED) {
+            recordOrder(event.getOrder());
+        }
+    }
+
+    /**
+     * Closes every minute before the given time, e.g. from a timer when no
+     * orders are coming in.
+     * @param now the current time
+     */
+    public void advanceTo(LocalDateTime now) {
+        long minute = epochMinute(now);
+        if (minute > currentMinute) {
+            closeUntil(minute);
+        }
+    }
+
+    /**
+     * Returns the series currently in alert.
+     * @return the alerts that opened them
+     */
+    public List<Anomaly> getActiveAnomalies() {
+        List<Anomaly> result = new ArrayList<>();
+        for (Anomaly anomaly : active) {
+            if (anomaly != null) {
+                result.add(anomaly);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a series' moving mean.
+     * @param metric the series kind
+     * @param key the promotion or category name; ignored for revenue and discount ratio
+     * @return the mean, or NaN if the series has no samples
+     */
+    public double getMean(Metric metric, String key) {
+        int series = series(metric, key);
+        return series < 0 || samples[series] == 0 ? Double.NaN : mean[series];
+    }
+
+    /**
+     * Returns a series' moving standard deviation.
+     * @param metric the series kind
+     * @param key the promotion or category name; ignored for revenue and discount ratio
+     * @return the standard deviation, or NaN if the series has no samples
+     */
+    public double getStdDev(Metric metric, String key) {
+        int series = series(metric, key);
+        return series < 0 || samples[series] == 0 ? Double.NaN : Math.sqrt(variance[series]);
+    }
+
+    private int series(Metric metric, String key) {
+        return switch (metric) {
+            case REVENUE_PER_MINUTE -> REVENUE;
+            case DISCOUNT_RATIO -> DISCOUNT;
+            case PROMOTION_HIT_RATE -> {
+                Integer slot = promotionSlots.get(key);
+                yield slot == null ? -1 : FIRST_PROMOTION + slot;
+            }
+            case CATEGORY_SHARE -> {
+                Integer slot = categorySlots.get(key);
+                yield slot == null ? -1 : FIRST_CATEGORY + slot;
+            }
+        };
+    }
+
+    // Closes the open minute and, after a short lull, the empty minutes up to `minute`
+    private void closeUntil(long minute) {
+        if (currentMinute != Long.MIN_VALUE) {
+            closeMinute(currentMinute);
+            if (minute - currentMinute - 1 <= MAX_QUIET_MINUTES) {
+                for (long quiet = currentMinute + 1; quiet < minute; quiet++) {
+                    closeMinute(quiet);
+                }
+            }
+        }
+        currentMinute = minute;
+    }
+
+    private void closeMinute(long minute) {
+        observe(REVENUE, minuteRevenue, minute);
+        if (minuteGross > 0.0) {
+            observe(DISCOUNT, minuteDiscount / minuteGross, minute);
+        }
+        if (minuteOrders > 0) {
+            for (int slot = 0; slot < promotionSlots.size(); slot++) {
+                observe(FIRST_PROMOTION + slot, (double) promotionHits[slot] / minuteOrders, minute);
+            }
+        }
+        if (minuteUnits > 0) {
+            for (int slot = 0; slot < categorySlots.size(); slot++) {
+                observe(FIRST_CATEGORY + slot, (double) categoryUnits[slot] / minuteUnits, minute);
+            }
+        }
+        minuteRevenue = 0.0;
+        minuteDiscount = 0.0;
+        minuteGross = 0.0;
+        minuteOrders = 0;
+        minuteUnits = 0;
+        Arrays.fill(promotionHits, 0);
+        Arrays.fill(categoryUnits, 0);
+    }
+
+    // Checks one sample against its series' baseline, then folds it in
+    private void observe(int series, double value, long minute) {
+        Metric metric = metricOf(series);
+        double stdDev = Math.max(Math.sqrt(variance[series]), metric.minStdDev);
+        double z = samples[series] == 0 ? 0.0 : (value - mean[series]) / stdDev;
+        boolean overCap = series == DISCOUNT && value > maxDiscountRatio;
+        boolean breach = overCap || (samples[series] >= warmupMinutes && Math.abs(z) > zThreshold);
+        if (breach != (active[series] != null)) {
+            Anomaly anomaly = new Anomaly(metric, keyOf(series), fromEpochMinute(minute),
+                    value, mean[series], stdDev, z, !breach);
+            active[series] = breach ? anomaly : null;
+            for (AnomalyListener listener : listeners) {
+                listener.onAnomaly(anomaly);
+            }
+        }
+        if (overCap) {
+            return;
+        }
+        if (samples[series] == 0) {
+            mean[series] = value;
+            variance[series] = 0.0;
+        } else {
+            double diff = value - mean[series];
+            double increment = alpha * diff;
+            mean[series] += increment;
+            variance[series] = (1 - alpha) * (variance[series] + diff * increment);
+        }
+        samples[series]++;
+    }
+
+    private static Metric metricOf(int series) {
+        if (series == REVENUE) {
+            return Metric.REVENUE_PER_MINUTE;
+        }
+        if (series == DISCOUNT) {
+            return Metric.DISCOUNT_RATIO;
+        }
+        return series < FIRST_CATEGORY ? Metric.PROMOTION_HIT_RATE : Metric.CATEGORY_SHARE;
+    }
+
+    private String keyOf(int series) {
+        if (series < FIRST_PROMOTION) {
+            return null;
+        }
+        return series < FIRST_CATEGORY ? promotionNames[series - FIRST_PROMOTION] : categoryNames[series - FIRST_CATEGORY];
+    }
+
+    // A name's slot, assigned on first sight; -1 once all slots are taken
+    private static int slot(String name, Map<String, Integer> slots, String[] names) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        if (slots.size() == MAX_KEYS) {
+            return -1;
+        }
+        int assigned = slots.size();
+        slots.put(name, assigned);
+        names[assigned] = name;
+        return assigned;
+    }
+
+    // Minutes since the epoch, without creating an Instant
+    private static long epochMinute(LocalDateTime timestamp) {
+        return timestamp.toLocalDate().toEpochDay() * 1440 + timestamp.getHour() * 60 + timestamp.getMinute();
+    }
+
+    private static LocalDateTime fromEpochMinute(long minute) {
+        return LocalDate.ofEpochDay(Math.floorDiv(minute, 1440)).atStartOfDay().plusMinutes(Math.floorMod(minute, 1440));
+    }
+
+    /**
+     * One alert: a series entering or leaving alert at the close of a minute.
+     */
+    public static final class Anomaly {
+        private final Metric metric;
+        private final String key;
+        private final LocalDateTime minute;
+        private final double value;
+        private final double expected;
+        private final double stdDev;
+        private final double zScore;
+        private final boolean cleared;
+
+        Anomaly(Metric metric, String key, LocalDateTime minute, double value,
+                double expected, double stdDev, double zScore, boolean cleared) {
+            this.metric = metric;
+            this.key = key;
+            this.minute = minute;
+            this.value = value;
+            this.expected = expected;
+            this.stdDev = stdDev;
+            this.zScore = zScore;
+            this.cleared = cleared;
+        }
+
+        public Metric getMetric() {
+            return metric;
+        }
+
+        /** Returns the promotion or category name, or null for revenue and discount ratio. */
+        public String getKey() {
+            return key;
+        }
+
+        /** Returns the start of the minute the sample was taken over. */
+        public LocalDateTime getMinute() {
+            return minute;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        /** Returns the series' moving mean before this sample. */
+        public double getExpected() {
+            return expected;
+        }
+
+        public double getStdDev() {
+            return stdDev;
+        }
+
+        public double getZScore() {
+            return zScore;
+        }
+
+        /** Returns true if the series went back to normal. */
+        public boolean isCleared() {
+            return cleared;
+        }
+
+        @Override
+        public String toString() {
+            String series = key == null ? metric.toString() : metric + " " + key;
+            if (cleared) {
+                return String.format("%s %s back to normal (%.2f)", minute.toLocalTime(), series, value);
+            }
+            return String.format("%s %s at %.2f, expected %.2f +/- %.2f (z %.1f)",
+                    minute.toLocalTime(), series, value, expected, stdDev, zScore);
+        }
+    }
+}
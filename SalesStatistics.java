@@ -2,11 +2,25 @@ import java.util.*;
 
 /**
  * Tracks and maintains sales statistics for the day.
+ * Can be updated inline via {@link #recordOrder} or as an
+ * {@link OrderEventBus} subscriber.
+ *
+ * The live getters must be called on the recording thread. Other threads
+ * read a {@link Snapshot}: the recording thread publishes an immutable,
+ * internally consistent copy of the aggregates with
+ * {@link #publishSnapshot()} (as a bus subscriber, at the end of every
+ * batch), and {@link #getSnapshot()} is a single volatile read. Readers
+ * never lock, and the recording thread never waits for them.
  */
-public class SalesStatistics {
+public class SalesStatistics implements OrderEventHandler {
     private Map<String, Integer> drinkCountByNameAndSize; // key: "Name (Size)"
-    private Map<String, Integer> addonCount; // key: "vanilla syrup", "extra shot"
-    private Map<String, Double> addonRevenue; // key: add-on name
+    private Map<String, Integer> drinkCountByName; // key: drink name (all sizes)
+    private List<String> addonNames; // add-on names seen, by statistics id
+    private int[] addonCount;        // shots sold, by statistics id
+    private double[] addonRevenue;   // add-on revenue, by statistics id
+    private Map<AddonCatalog, int[]> addonIdMaps; // catalog id -> statistics id
+    private AddonCatalog lastCatalog;
+    private int[] lastIdMap;
     private Map<String, Integer> categoryItemCount; // key: category name
     private Map<String, Double> categoryRevenue; // key: category name
     private double totalDiscountGiven;
@@ -14,11 +28,22 @@ public class SalesStatistics {
     private Set<String> uniqueDrinkTypesSold; // category names
     private int totalDrinksSold;
     private double totalRevenue;
+    private CoPurchaseStatistics coPurchases; // drinks bought together
+    private Histogram orderValue;      // final total per order ($)
+    private Histogram basketSize;      // drinks per order
+    private Histogram addonsPerOrder;  // add-on shots per order
+    private Histogram discountPercent; // discount as % of the pre-discount subtotal
+    private SoldDrinkBitmaps soldDrinks; // hourly sold-drink bitmaps; null unless tracked
+    private long version;                // bumped by every update, recording thread only
+    private volatile Snapshot published;
     
     public SalesStatistics() {
         drinkCountByNameAndSize = new HashMap<>();
-        addonCount = new HashMap<>();
-        addonRevenue = new HashMap<>();
+        drinkCountByName = new HashMap<>();
+        addonNames = new ArrayList<>();
+        addonCount = new int[8];
+        addonRevenue = new double[8];
+        addonIdMaps = new IdentityHashMap<>();
         categoryItemCount = new HashMap<>();
         categoryRevenue = new HashMap<>();
         uniqueDrinkTypesSold = new HashSet<>();
@@ -26,6 +51,12 @@ public class SalesStatistics {
         ordersWithPromotions = 0;
         totalDrinksSold = 0;
         totalRevenue = 0.0;
+        coPurchases = new CoPurchaseStatistics();
+        orderValue = new Histogram(200.0, 800);   // $0.25 buckets
+        basketSize = new Histogram(100.0, 100);
+        addonsPerOrder = new Histogram(100.0, 100);
+        discountPercent = new Histogram(100.0, 200); // 0.5% buckets
+        published = new Snapshot(this);
     }
     
     /**
@@ -45,7 +76,10 @@ public class SalesStatistics {
         }
         
         // Process each item in the order
-        for (CartItem item : order.getItems()) {
+        int drinksInOrder = 0;
+        int addonsInOrder = 0;
+        for (int i = 0; i < order.getItemCount(); i++) {
+            CartItem item = order.getItem(i);
             Drink drink = item.getDrink();
             int quantity = item.getQuantity();
             
@@ -53,6 +87,7 @@ public class SalesStatistics {
             String drinkKey = drink.getName() + " (" + drink.getSize() + ")";
             drinkCountByNameAndSize.put(drinkKey, 
                 drinkCountByNameAndSize.getOrDefault(drinkKey, 0) + quantity);
+            drinkCountByName.merge(drink.getName(), quantity, Integer::sum);
             
             // Update category statistics
             String category = drink.getCategoryName();
@@ -63,26 +98,126 @@ public class SalesStatistics {
                 categoryRevenue.getOrDefault(category, 0.0) + (item.basePrice() * quantity));
             
             // Update add-on statistics
-            if (item.getVanillaShots() > 0) {
-                int vanillaCount = item.getVanillaShots() * quantity;
-                addonCount.put("vanilla syrup", 
-                    addonCount.getOrDefault("vanilla syrup", 0) + vanillaCount);
-                addonRevenue.put("vanilla syrup", 
-                    addonRevenue.getOrDefault("vanilla syrup", 0.0) + 
-                    (vanillaCount * 0.60)); // $0.60 per shot
-            }
-            if (item.getEspressoShots() > 0) {
-                int espressoCount = item.getEspressoShots() * quantity;
-                addonCount.put("extra shot", 
-                    addonCount.getOrDefault("extra shot", 0) + espressoCount);
-                addonRevenue.put("extra shot", 
-                    addonRevenue.getOrDefault("extra shot", 0.0) + 
-                    (espressoCount * 0.50)); // $0.50 per shot
+            if (item.getModifierCount() > 0) {
+                AddonCatalog catalog = item.getAddonCatalog();
+                int[] idMap = catalog == lastCatalog ? lastIdMap : addonIdMap(catalog);
+                for (int m = 0; m < item.getModifierCount(); m++) {
+                    int catalogId = item.getModifierId(m);
+                    int id = idMap[catalogId];
+                    int shots = item.getModifierShots(m) * quantity;
+                    addonCount[id] += shots;
+                    addonRevenue[id] += shots * catalog.priceAt(catalogId);
+                    addonsInOrder += shots;
+                }
             }
             
             // Update total drinks sold
             totalDrinksSold += quantity;
+            drinksInOrder += quantity;
+        }
+        
+        // Update distributions
+        orderValue.record(order.getFinalTotal());
+        basketSize.record(drinksInOrder);
+        addonsPerOrder.record(addonsInOrder);
+        double beforeDiscount = order.getBaseTotal() + order.getAddonsTotal();
+        discountPercent.record(beforeDiscount > 0.0 ? order.getDiscount() / beforeDiscount * 100.0 : 0.0);
+        
+        coPurchases.recordOrder(order);
+        if (soldDrinks != null) {
+            soldDrinks.recordOrder(order);
+        }
+        version++;
+    }
+    
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        if (event.getType() == OrderEvent.Type.ORDER_COMPLETED) {
+            recordOrder(event.getOrder());
+        }
+        // Once per batch, so the copy is amortized over a busy burst
+        if (endOfBatch) {
+            publishSnapshot();
+        }
+    }
+    
+    /**
+     * Publishes the current aggregates as an immutable snapshot, unless
+     * nothing changed since the last one. Call on the recording thread.
+     * @return the published snapshot
+     */
+    public Snapshot publishSnapshot() {
+        Snapshot current = published;
+        if (current.version != version) {
+            current = new Snapshot(this);
+            published = current;
+        }
+        return current;
+    }
+    
+    /**
+     * Returns the last published snapshot. Safe from any thread; the same
+     * instance is returned until the recording thread publishes again.
+     * @return the snapshot (empty before the first publish)
+     */
+    public Snapshot getSnapshot() {
+        return published;
+    }
+    
+    /**
+     * Adds another set of statistics into this one, e.g. to combine stores.
+     * The other statistics must not be modified while merging.
+     * @param other the statistics to add
+     */
+    public void merge(SalesStatistics other) {
+        if (other == null) {
+            return;
+        }
+        other.drinkCountByNameAndSize.forEach((k, v) -> drinkCountByNameAndSize.merge(k, v, Integer::sum));
+        other.drinkCountByName.forEach((k, v) -> drinkCountByName.merge(k, v, Integer::sum));
+        for (int i = 0; i < other.addonNames.size(); i++) {
+            int id = addonId(other.addonNames.get(i));
+            addonCount[id] += other.addonCount[i];
+            addonRevenue[id] += other.addonRevenue[i];
         }
+        other.categoryItemCount.forEach((k, v) -> categoryItemCount.merge(k, v, Integer::sum));
+        other.categoryRevenue.forEach((k, v) -> categoryRevenue.merge(k, v, Double::sum));
+        uniqueDrinkTypesSold.addAll(other.uniqueDrinkTypesSold);
+        totalDiscountGiven += other.totalDiscountGiven;
+        ordersWithPromotions += other.ordersWithPromotions;
+        totalDrinksSold += other.totalDrinksSold;
+        totalRevenue += other.totalRevenue;
+        coPurchases.merge(other.coPurchases);
+        orderValue.merge(other.orderValue);
+        basketSize.merge(other.basketSize);
+        addonsPerOrder.merge(other.addonsPerOrder);
+        discountPercent.merge(other.discountPercent);
+        if (other.soldDrinks != null) {
+            if (soldDrinks == null) {
+                soldDrinks = new SoldDrinkBitmaps(other.soldDrinks.getCatalog());
+            }
+            soldDrinks.merge(other.soldDrinks);
+        }
+        version++;
+    }
+    
+    /**
+     * Starts keeping hourly bitmaps of the drinks sold, over the given
+     * catalog's drink ids. Bitmaps already kept are carried over to the new
+     * catalog by drink name and size, so this is also called when the menu changes.
+     * @param catalog the menu that drink ids refer to
+     */
+    public void trackSoldDrinks(MenuCatalog catalog) {
+        soldDrinks = soldDrinks == null ? new SoldDrinkBitmaps(catalog) : soldDrinks.remap(catalog);
+        version++; // snapshots carry the bitmaps' ids
+    }
+    
+    /**
+     * Returns the hourly sold-drink bitmaps (live, like {@link #getCoPurchases()}).
+     * @return the bitmaps, or null unless {@link #trackSoldDrinks} was called
+     */
+    public SoldDrinkBitmaps getSoldDrinks() {
+        return soldDrinks;
     }
     
     /**
@@ -117,12 +252,21 @@ public class SalesStatistics {
         return drinkCountByNameAndSize.getOrDefault(mostPopular, 0);
     }
     
+    /**
+     * Returns how many drinks with the given name were sold, across all sizes.
+     * @param name the drink name
+     * @return the count, or 0 if none sold
+     */
+    public int getDrinkNameCount(String name) {
+        return drinkCountByName.getOrDefault(name, 0);
+    }
+    
     /**
      * Returns the top 3 add-ons by count.
      * @return list of add-on names (up to 3)
      */
     public List<String> getTop3Addons() {
-        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(addonCount.entrySet());
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(getAddonCount().entrySet());
         sorted.sort((a, b) -> b.getValue().compareTo(a.getValue()));
         
         List<String> top3 = new ArrayList<>();
@@ -138,8 +282,8 @@ public class SalesStatistics {
      */
     public double getTotalAddonRevenue() {
         double total = 0.0;
-        for (Double revenue : addonRevenue.values()) {
-            total += revenue;
+        for (int id = 0; id < addonNames.size(); id++) {
+            total += addonRevenue[id];
         }
         return total;
     }
@@ -151,18 +295,61 @@ public class SalesStatistics {
      */
     public Set<String> getUnsoldDrinks(List<Drink> menu) {
         Set<String> unsold = new LinkedHashSet<>();
-        Set<String> sold = new HashSet<>(drinkCountByNameAndSize.keySet());
-        
         for (Drink drink : menu) {
-            String key = drink.getName() + " (" + drink.getSize() + ")";
-            if (!sold.contains(key)) {
-                unsold.add(key);
+            // With bitmaps, a menu drink is one bit test; keys are built only for the unsold
+            boolean sold = soldDrinks != null
+                    ? soldDrinks.hasEverSold(soldDrinks.idOf(drink))
+                    : drinkCountByNameAndSize.containsKey(drink.getName() + " (" + drink.getSize() + ")");
+            if (!sold) {
+                unsold.add(drink.getName() + " (" + drink.getSize() + ")");
             }
         }
-        
         return unsold;
     }
     
+    /**
+     * Returns the market-basket statistics (live; read them on the thread
+     * that records orders).
+     * @return co-purchase statistics
+     */
+    public CoPurchaseStatistics getCoPurchases() {
+        return coPurchases;
+    }
+    
+    /**
+     * Returns the distribution of order final totals (live, like
+     * {@link #getCoPurchases()}).
+     * @return order value histogram in dollars
+     */
+    public Histogram getOrderValueHistogram() {
+        return orderValue;
+    }
+    
+    /**
+     * Returns the distribution of drinks per order.
+     * @return basket size histogram
+     */
+    public Histogram getBasketSizeHistogram() {
+        return basketSize;
+    }
+    
+    /**
+     * Returns the distribution of add-on shots per order.
+     * @return add-ons histogram
+     */
+    public Histogram getAddonsPerOrderHistogram() {
+        return addonsPerOrder;
+    }
+    
+    /**
+     * Returns the distribution of discounts as a percentage of the order
+     * subtotal before discounts.
+     * @return discount percentage histogram
+     */
+    public Histogram getDiscountPercentHistogram() {
+        return discountPercent;
+    }
+    
     // Getters
     public int getTotalDrinksSold() {
         return totalDrinksSold;
@@ -192,12 +379,227 @@ public class SalesStatistics {
         return new HashMap<>(categoryRevenue);
     }
     
+    /**
+     * Returns shots sold per add-on.
+     * @return add-on name -> count (add-ons that sold)
+     */
     public Map<String, Integer> getAddonCount() {
-        return new HashMap<>(addonCount);
+        Map<String, Integer> result = new HashMap<>();
+        for (int id = 0; id < addonNames.size(); id++) {
+            if (addonCount[id] > 0) {
+                result.put(addonNames.get(id), addonCount[id]);
+            }
+        }
+        return result;
     }
     
+    /**
+     * Returns revenue per add-on.
+     * @return add-on name -> revenue (add-ons that sold)
+     */
     public Map<String, Double> getAddonRevenue() {
-        return new HashMap<>(addonRevenue);
+        Map<String, Double> result = new HashMap<>();
+        for (int id = 0; id < addonNames.size(); id++) {
+            if (addonCount[id] > 0) {
+                result.put(addonNames.get(id), addonRevenue[id]);
+            }
+        }
+        return result;
+    }
+    
+    // Maps a catalog's ids to statistics ids once per catalog
+    private int[] addonIdMap(AddonCatalog catalog) {
+        int[] idMap = addonIdMaps.get(catalog);
+        if (idMap == null) {
+            idMap = new int[catalog.size()];
+            for (int i = 0; i < idMap.length; i++) {
+                idMap[i] = addonId(catalog.nameAt(i));
+            }
+            addonIdMaps.put(catalog, idMap);
+        }
+        lastCatalog = catalog;
+        lastIdMap = idMap;
+        return idMap;
+    }
+    
+    private int addonId(String name) {
+        String key = name.toLowerCase();
+        int id = addonNames.indexOf(key);
+        if (id < 0) {
+            id = addonNames.size();
+            addonNames.add(key);
+            if (id == addonCount.length) {
+                addonCount = Arrays.copyOf(addonCount, id * 2);
+                addonRevenue = Arrays.copyOf(addonRevenue, id * 2);
+            }
+        }
+        return id;
+    }
+    
+    /**
+     * An immutable view of the statistics as of one version: every value
+     * comes from the same set of recorded orders, so totals, counts and
+     * distributions agree with each other. Derived values (most popular
+     * drink, top add-ons) are computed once when the snapshot is published.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final long orderCount;
+        private final int totalDrinksSold;
+        private final double totalRevenue;
+        private final double totalDiscountGiven;
+        private final int ordersWithPromotions;
+        private final String mostPopularDrink;
+        private final int mostPopularDrinkCount;
+        private final Map<String, Integer> drinkCountByNameAndSize;
+        private final Set<String> uniqueDrinkTypesSold;
+        private final Map<String, Integer> categoryItemCount;
+        private final Map<String, Double> categoryRevenue;
+        private final Map<String, Integer> addonCount;
+        private final Map<String, Double> addonRevenue;
+        private final List<String> top3Addons;
+        private final double totalAddonRevenue;
+        private final Histogram orderValue;
+        private final Histogram basketSize;
+        private final Histogram addonsPerOrder;
+        private final Histogram discountPercent;
+        private final SoldDrinkBitmaps soldDrinks;
+        private final BitSet everSold;
+        
+        // Runs on the recording thread; the volatile write of the snapshot publishes these fields
+        private Snapshot(SalesStatistics stats) {
+            version = stats.version;
+            orderCount = stats.orderValue.getCount();
+            totalDrinksSold = stats.totalDrinksSold;
+            totalRevenue = stats.totalRevenue;
+            totalDiscountGiven = stats.totalDiscountGiven;
+            ordersWithPromotions = stats.ordersWithPromotions;
+            mostPopularDrink = stats.getMostPopularDrink();
+            mostPopularDrinkCount = stats.getMostPopularDrinkCount();
+            drinkCountByNameAndSize = Collections.unmodifiableMap(new HashMap<>(stats.drinkCountByNameAndSize));
+            uniqueDrinkTypesSold = Collections.unmodifiableSet(new TreeSet<>(stats.uniqueDrinkTypesSold));
+            categoryItemCount = Collections.unmodifiableMap(new TreeMap<>(stats.categoryItemCount));
+            categoryRevenue = Collections.unmodifiableMap(new TreeMap<>(stats.categoryRevenue));
+            addonCount = Collections.unmodifiableMap(stats.getAddonCount());
+            addonRevenue = Collections.unmodifiableMap(stats.getAddonRevenue());
+            top3Addons = List.copyOf(stats.getTop3Addons());
+            totalAddonRevenue = stats.getTotalAddonRevenue();
+            orderValue = stats.orderValue.copy();
+            basketSize = stats.basketSize.copy();
+            addonsPerOrder = stats.addonsPerOrder.copy();
+            discountPercent = stats.discountPercent.copy();
+            // The bitmaps' id lookup is immutable; only the sold bits need copying
+            soldDrinks = stats.soldDrinks;
+            everSold = soldDrinks != null ? soldDrinks.everSold() : null;
+        }
+        
+        /** Returns the statistics version this snapshot was taken at; higher is newer. */
+        public long getVersion() {
+            return version;
+        }
+        
+        public long getOrderCount() {
+            return orderCount;
+        }
+        
+        public int getTotalDrinksSold() {
+            return totalDrinksSold;
+        }
+        
+        public double getTotalRevenue() {
+            return totalRevenue;
+        }
+        
+        public double getTotalDiscountGiven() {
+            return totalDiscountGiven;
+        }
+        
+        public int getOrdersWithPromotions() {
+            return ordersWithPromotions;
+        }
+        
+        /** Returns the most popular "Name (Size)", or null if no drinks sold. */
+        public String getMostPopularDrink() {
+            return mostPopularDrink;
+        }
+        
+        public int getMostPopularDrinkCount() {
+            return mostPopularDrinkCount;
+        }
+        
+        /** Returns drinks sold per "Name (Size)". */
+        public Map<String, Integer> getDrinkCounts() {
+            return drinkCountByNameAndSize;
+        }
+        
+        /** Returns the category names sold, sorted. */
+        public Set<String> getUniqueDrinkTypesSold() {
+            return uniqueDrinkTypesSold;
+        }
+        
+        /** Returns items sold per category, sorted by category. */
+        public Map<String, Integer> getCategoryItemCount() {
+            return categoryItemCount;
+        }
+        
+        public Map<String, Double> getCategoryRevenue() {
+            return categoryRevenue;
+        }
+        
+        public Map<String, Integer> getAddonCount() {
+            return addonCount;
+        }
+        
+        public Map<String, Double> getAddonRevenue() {
+            return addonRevenue;
+        }
+        
+        public List<String> getTop3Addons() {
+            return top3Addons;
+        }
+        
+        public double getTotalAddonRevenue() {
+            return totalAddonRevenue;
+        }
+        
+        /**
+         * Returns the menu drinks not sold as of this snapshot.
+         * @param menu the full menu
+         * @return set of "Name (Size)" strings for unsold drinks
+         */
+        public Set<String> getUnsoldDrinks(List<Drink> menu) {
+            Set<String> unsold = new LinkedHashSet<>();
+            for (Drink drink : menu) {
+                boolean sold;
+                if (everSold != null) {
+                    int id = soldDrinks.idOf(drink);
+                    sold = id >= 0 && everSold.get(id);
+                } else {
+                    sold = drinkCountByNameAndSize.containsKey(drink.getName() + " (" + drink.getSize() + ")");
+                }
+                if (!sold) {
+                    unsold.add(drink.getName() + " (" + drink.getSize() + ")");
+                }
+            }
+            return unsold;
+        }
+        
+        // Histograms are mutable, so each reader gets its own copy of the snapshot's
+        
+        public Histogram getOrderValueHistogram() {
+            return orderValue.copy();
+        }
+        
+        public Histogram getBasketSizeHistogram() {
+            return basketSize.copy();
+        }
+        
+        public Histogram getAddonsPerOrderHistogram() {
+            return addonsPerOrder.copy();
+        }
+        
+        public Histogram getDiscountPercentHistogram() {
+            return discountPercent.copy();
+        }
     }
 }
-
@@ -0,0 +1,360 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Which drinks sold when, as bitmaps over {@link MenuCatalog} drink ids:
+ * one bitmap per hour of the day, per day.
+ *
+ * Coverage questions are answered with bitmap operations instead of
+ * per-drink string keys and hash sets, e.g.
+ * <pre>
+ *   unsold 6-9 AM today:      unsold(soldBetween(today, 6, 9))
+ *   sold every day this week: soldEveryDay(monday, sunday)
+ * </pre>
+ * Results are {@link BitSet}s, so further combinations are one
+ * {@code and}/{@code or}/{@code andNot} call each.
+ *
+ * The latest day is kept as plain words, updated in place. When orders move
+ * on to a new day, the previous day's 24 bitmaps are run-length compressed
+ * (runs of empty or full words, as after closing time, take one marker),
+ * so a long history costs little more than the hours in which drinks sold.
+ * A bitmap of every drink ever sold is kept alongside for the all-time
+ * questions. An order for an earlier, already compressed day is still
+ * recorded; that day is decompressed and compressed again.
+ *
+ * Not thread-safe; updated and read like {@link SalesStatistics}, which
+ * records into it.
+ */
+public class SoldDrinkBitmaps {
+    static final int HOURS = 24;
+
+    private final MenuCatalog catalog;
+    private final Map<Drink, Integer> drinkIds = new IdentityHashMap<>();
+    private final int words;                 // words per hourly bitmap
+    private final long[] latest;             // latestDay's bitmaps: hour * words + word
+    private final long[] everSold;
+    private final NavigableMap<LocalDate, long[]> history = new TreeMap<>(); // compressed earlier days
+    private LocalDate latestDay;
+
+    /**
+     * @param catalog the menu that drink ids refer to
+     */
+    public SoldDrinkBitmaps(MenuCatalog catalog) {
+        this.catalog = catalog;
+        this.words = Math.max(1, (catalog.size() + 63) / 64);
+        this.latest = new long[HOURS * words];
+        this.everSold = new long[words];
+        for (int id = 0; id < catalog.size(); id++) {
+            drinkIds.put(catalog.drinkAt(id), id);
+        }
+    }
+
+    public MenuCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Marks the order's drinks as sold in its hour. Drinks not on the catalog are ignored.
+     * @param order the completed order
+     */
+    public void recordOrder(Order order) {
+        LocalDateTime timestamp = order.getTimestamp();
+        long[] day = dayForWrite(timestamp.toLocalDate());
+        int base = timestamp.getHour() * words;
+        for (int i = 0; i < order.getItemCount(); i++) {
+            int id = idOf(order.getItem(i).getDrink());
+            if (id >= 0) {
+                day[base + (id >>> 6)] |= 1L << id;
+                everSold[id >>> 6] |= 1L << id;
+            }
+        }
+        if (day != latest) {
+            history.put(timestamp.toLocalDate(), compress(day));
+        }
+    }
+
+    /**
+     * Adds another set of bitmaps over the same catalog into this one, e.g. to combine stores.
+     * @param other bitmaps to add
+     * @throws IllegalArgumentException if the other bitmaps use a different catalog
+     */
+    public void merge(SoldDrinkBitmaps other) {
+        if (other == this) {
+            return;
+        }
+        if (other.catalog != catalog) {
+            throw new IllegalArgumentException("Sold-drink bitmaps are over different catalogs");
+        }
+        for (LocalDate day : other.getDays()) {
+            long[] theirs = other.dayForRead(day);
+            long[] ours = dayForWrite(day);
+            for (int w = 0; w < ours.length; w++) {
+                ours[w] |= theirs[w];
+            }
+            if (ours != latest) {
+                history.put(day, compress(ours));
+            }
+        }
+        for (int w = 0; w < words; w++) {
+            everSold[w] |= other.everSold[w];
+        }
+    }
+
+    /**
+     * Copies these bitmaps onto another catalog, matching drinks by name and
+     * size, e.g. after the menu is reloaded. Drinks not on the new catalog are dropped.
+     * @param newCatalog the catalog to move to
+     * @return the bitmaps over the new catalog
+     */
+    public SoldDrinkBitmaps remap(MenuCatalog newCatalog) {
+        SoldDrinkBitmaps result = new SoldDrinkBitmaps(newCatalog);
+        int[] newIds = new int[catalog.size()];
+        for (int id = 0; id < newIds.length; id++) {
+            Drink drink = catalog.drinkAt(id);
+            newIds[id] = newCatalog.idOf(drink.getName(), drink.getSize());
+        }
+        for (LocalDate day : getDays()) {
+            long[] from = dayForRead(day);
+            long[] to = result.dayForWrite(day);
+            for (int hour = 0; hour < HOURS; hour++) {
+                remapInto(from, hour * words, to, hour * result.words, newIds);
+            }
+            if (to != result.latest) {
+                result.history.put(day, compress(to));
+            }
+        }
+        remapInto(everSold, 0, result.everSold, 0, newIds);
+        return result;
+    }
+
+    /**
+     * Returns the days with at least one recorded order.
+     * @return days, oldest first
+     */
+    public NavigableSet<LocalDate> getDays() {
+        NavigableSet<LocalDate> days = new TreeSet<>(history.keySet());
+        if (latestDay != null) {
+            days.add(latestDay);
+        }
+        return days;
+    }
+
+    /**
+     * Returns the drinks sold on a day within [fromHour, toHour), e.g. 6 to 9
+     * for the morning rush.
+     * @param day the day
+     * @param fromHour first hour (0-23)
+     * @param toHour end hour, exclusive (1-24)
+     * @return drink ids sold (empty for a day without orders)
+     */
+    public BitSet soldBetween(LocalDate day, int fromHour, int toHour) {
+        if (fromHour < 0 || toHour > HOURS || fromHour > toHour) {
+            throw new IllegalArgumentException("Hours must satisfy 0 <= from <= to <= 24");
+        }
+        long[] bitmaps = dayForRead(day);
+        long[] sold = new long[words];
+        if (bitmaps != null) {
+            for (int hour = fromHour; hour < toHour; hour++) {
+                for (int w = 0, p = hour * words; w < words; w++, p++) {
+                    sold[w] |= bitmaps[p];
+                }
+            }
+        }
+        return BitSet.valueOf(sold);
+    }
+
+    /**
+     * Returns the drinks sold at any time on a day.
+     * @param day the day
+     * @return drink ids sold
+     */
+    public BitSet soldOn(LocalDate day) {
+        return soldBetween(day, 0, HOURS);
+    }
+
+    /**
+     * Returns the drinks sold on every day of a range; a day without orders
+     * leaves nothing.
+     * @param from first day (inclusive)
+     * @param to last day (inclusive)
+     * @return drink ids sold on each of the days
+     */
+    public BitSet soldEveryDay(LocalDate from, LocalDate to) {
+        BitSet result = allDrinks();
+        for (LocalDate day = from; !day.isAfter(to) && !result.isEmpty(); day = day.plusDays(1)) {
+            result.and(soldOn(day));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the drinks sold on at least one day of a range.
+     * @param from first day (inclusive)
+     * @param to last day (inclusive)
+     * @return drink ids sold on any of the days
+     */
+    public BitSet soldAnyDay(LocalDate from, LocalDate to) {
+        BitSet result = new BitSet(catalog.size());
+        for (LocalDate day : getDays().subSet(from, true, to, true)) {
+            result.or(soldOn(day));
+        }
+        return result;
+    }
+
+    /**
+     * Returns every drink sold since recording began.
+     * @return drink ids
+     */
+    public BitSet everSold() {
+        return BitSet.valueOf(everSold);
+    }
+
+    /**
+     * Tells whether a drink has ever sold, without allocating.
+     * @param id catalog drink id
+     * @return true if it sold
+     */
+    public boolean hasEverSold(int id) {
+        return id >= 0 && id < catalog.size() && (everSold[id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * Returns every drink on the catalog.
+     * @return drink ids 0 to size - 1
+     */
+    public BitSet allDrinks() {
+        BitSet all = new BitSet(catalog.size());
+        all.set(0, catalog.size());
+        return all;
+    }
+
+    /**
+     * Returns the catalog drinks not in a sold set.
+     * @param sold drink ids sold
+     * @return drink ids not sold
+     */
+    public BitSet unsold(BitSet sold) {
+        BitSet unsold = allDrinks();
+        unsold.andNot(sold);
+        return unsold;
+    }
+
+    /**
+     * Names the drinks in a set.
+     * @param ids drink ids
+     * @return "Name (Size)" per drink, in catalog order
+     */
+    public Set<String> names(BitSet ids) {
+        Set<String> names = new LinkedHashSet<>();
+        for (int id = ids.nextSetBit(0); id >= 0 && id < catalog.size(); id = ids.nextSetBit(id + 1)) {
+            Drink drink = catalog.drinkAt(id);
+            names.add(drink.getName() + " (" + drink.getSize() + ")");
+        }
+        return names;
+    }
+
+    /**
+     * Looks up a drink's catalog id.
+     * @param drink a drink from the catalog, or an equal one from another menu instance
+     * @return the id, or -1 if not on the catalog
+     */
+    public int idOf(Drink drink) {
+        Integer id = drinkIds.get(drink);
+        // Same drink from another menu instance (e.g. a store overlay)
+        return id != null ? id : catalog.idOf(drink.getName(), drink.getSize());
+    }
+
+    /** Returns the heap used by the bitmaps, compressed history included. */
+    public long getMemoryBytes() {
+        long bytes = 8L * (latest.length + everSold.length);
+        for (long[] compressed : history.values()) {
+            bytes += 8L * compressed.length;
+        }
+        return bytes;
+    }
+
+    // The day's bitmaps to update: the latest day itself, or a decompressed copy of an earlier one
+    private long[] dayForWrite(LocalDate day) {
+        if (latestDay == null || day.isAfter(latestDay)) {
+            if (latestDay != null) {
+                history.put(latestDay, compress(latest));
+                Arrays.fill(latest, 0L);
+            }
+            latestDay = day;
+            return latest;
+        }
+        if (day.equals(latestDay)) {
+            return latest;
+        }
+        long[] compressed = history.get(day);
+        return compressed != null ? decompress(compressed, latest.length) : new long[latest.length];
+    }
+
+    private long[] dayForRead(LocalDate day) {
+        if (day.equals(latestDay)) {
+            return latest;
+        }
+        long[] compressed = history.get(day);
+        return compressed != null ? decompress(compressed, latest.length) : null;
+    }
+
+    private static void remapInto(long[] from, int fromOffset, long[] to, int toOffset, int[] newIds) {
+        for (int id = 0; id < newIds.length; id++) {
+            if (newIds[id] >= 0 && (from[fromOffset + (id >>> 6)] & (1L << id)) != 0) {
+                to[toOffset + (newIds[id] >>> 6)] |= 1L << newIds[id];
+            }
+        }
+    }
+
+    /*
+     * Run-length compression of a word array. The output is a sequence of
+     * markers, each followed by its literal words:
+     *   bit 63      fill value (0 = empty words, 1 = full words)
+     *   bits 32-62  number of fill words
+     *   bits 0-31   number of literal words that follow the marker
+     */
+    static long[] compress(long[] words) {
+        long[] out = new long[words.length + 1];
+        int n = 0;
+        int i = 0;
+        while (i < words.length) {
+            long fill = words[i] == -1L ? -1L : 0L;
+            int run = 0;
+            while (i < words.length && words[i] == fill) {
+                run++;
+                i++;
+            }
+            int literalsStart = i;
+            while (i < words.length && words[i] != 0L && words[i] != -1L) {
+                i++;
+            }
+            int literals = i - literalsStart;
+            if (n + 1 + literals > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, n + 1 + literals));
+            }
+            out[n++] = (fill & (1L << 63)) | ((long) run << 32) | literals;
+            System.arraycopy(words, literalsStart, out, n, literals);
+            n += literals;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    static long[] decompress(long[] compressed, int length) {
+        long[] words = new long[length];
+        int i = 0;
+        for (int n = 0; n < compressed.length; ) {
+            long marker = compressed[n++];
+            int run = (int) ((marker >>> 32) & 0x7FFFFFFFL);
+            int literals = (int) marker;
+            if (marker < 0) {
+                Arrays.fill(words, i, i + run, -1L);
+            }
+            i += run;
+            System.arraycopy(compressed, n, words, i, literals);
+            i += literals;
+            n += literals;
+        }
+        return words;
+    }
+}
@@ -2,43 +2,86 @@
 // Implements all requirements: OOP principles, interfaces, design patterns, and all features.
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 public class StarbucksSalesTracker {
 
     // ======= Config =======
-    private static final double TAX_RATE = 0.0825; // 8.25% tax rate
+    private static final double TAX_RATE = OrderPricer.DEFAULT_TAX_RATE; // 8.25% tax rate
 
     // ======= State =======
-    private final List<Drink> menu = new ArrayList<>();
+    private List<Drink> menu = new ArrayList<>();
+    private MenuOverlay overlay; // null unless the menu is a store overlay's view
+    private MenuSnapshot menuSnapshot; // the snapshot the menu was loaded from; null once the menu changes
+    private AddonCatalog addons = AddonCatalog.standard();
     private final List<CartItem> cart = new ArrayList<>();
     private final SalesStatistics statistics = new SalesStatistics();
     private final List<Order> completedOrders = new ArrayList<>();
+    private OrderLineStore orderStore; // null: completed orders are kept on heap
+    private Inventory inventory; // null: stock is not tracked
+    private PrepScheduler prepScheduler; // null: orders are not sent to prep stations
+    private volatile SalesAnomalyDetector anomalyDetector; // null: no sales alerts; read by the event bus thread
     private PromotionManager promotionManager;
+    private OrderPricer orderPricer;
+    private DrinkSearchIndex searchIndex;
+    private DemandForecaster forecaster; // built on first use; reset when the menu changes
+    private final PromotionScheduler promotionScheduler;
+    private boolean promotionStacking = false;
+    private final ReceiptWriter receiptWriter = new ReceiptWriter();
+    private OrderEventBus eventBus; // null: statistics are recorded inline
 
     // For JUnit tests
     public List<Drink> getMenu() {
-        return Collections.unmodifiableList(menu);
+        return Collections.unmodifiableList(currentMenu());
     }
 
     public List<Order> getCompletedOrders() {
+        if (orderStore != null) {
+            return orderStore.asOrderList();
+        }
         return Collections.unmodifiableList(completedOrders);
     }
 
     public SalesStatistics getStatistics() {
+        awaitEventBus();
         return statistics;
     }
 
+    /**
+     * Returns a consistent, immutable view of the statistics as of the last
+     * completed order. With the event bus, the statistics subscriber
+     * publishes it after every batch; inline, checkout's thread owns the
+     * statistics and publishes on demand.
+     * @return the statistics snapshot
+     */
+    public SalesStatistics.Snapshot getStatisticsSnapshot() {
+        if (eventBus != null) {
+            awaitEventBus();
+            return statistics.getSnapshot();
+        }
+        return statistics.publishSnapshot();
+    }
+
     // ======= Initialization =======
     public StarbucksSalesTracker() {
+        this(Clock.systemDefaultZone());
+    }
+
+    // Clock drives time-window promotions (injectable for tests)
+    public StarbucksSalesTracker(Clock clock) {
+        this.promotionScheduler = new PromotionScheduler(clock);
         // Initialize promotions
         List<Promotion> promotions = new ArrayList<>();
         promotions.add(new BulkOrderPromotion());
         promotions.add(new HappyHourPromotion());
         // BuyNGetMPromotion will be initialized after menu is loaded
         this.promotionManager = new PromotionManager(promotions);
+        this.orderPricer = new OrderPricer(promotionManager, TAX_RATE);
+        promotionScheduler.setPromotionManager(promotionManager);
     }
 
     // ======= UI =======
@@ -84,20 +127,110 @@ public class StarbucksSalesTracker {
 
     // For tests to inspect unsold drinks
     public Set<String> getUnsoldDrinkNames() {
-        return statistics.getUnsoldDrinks(menu);
+        awaitEventBus();
+        return statistics.getUnsoldDrinks(currentMenu());
     }
 
 // Total revenue and discounts
     public double getTotalRevenue() {
+        awaitEventBus();
         return statistics.getTotalRevenue();
     }
 
     public double getTotalDiscountGiven() {
+        awaitEventBus();
         return statistics.getTotalDiscountGiven();
     }
 
+    /**
+     * Moves statistics recording and receipt writing off the checkout thread:
+     * checkout publishes to a ring-buffer event bus and both run as subscribers.
+     * @param ringSize event slots (rounded up to a power of two)
+     * @param waitStrategy how idle subscribers wait
+     */
+    public void enableEventBus(int ringSize, OrderEventBus.WaitStrategy waitStrategy) {
+        if (eventBus != null) {
+            return;
+        }
+        OrderEventBus bus = new OrderEventBus(ringSize, waitStrategy);
+        bus.subscribe("statistics", statistics);
+        bus.subscribe("receipts", receiptWriter);
+        bus.subscribe("forecast", (event, sequence, endOfBatch) ->
+                demandForecaster().onEvent(event, sequence, endOfBatch));
+        bus.subscribe("anomalies", (event, sequence, endOfBatch) -> {
+            SalesAnomalyDetector detector = anomalyDetector;
+            if (detector != null) {
+                detector.onEvent(event, sequence, endOfBatch);
+            }
+        });
+        bus.start();
+        this.eventBus = bus;
+    }
+
+    /**
+     * Drains the event bus and stops its subscriber threads; statistics are
+     * recorded inline at checkout again afterwards.
+     */
+    public void disableEventBus() {
+        if (eventBus != null) {
+            eventBus.close();
+            eventBus = null;
+        }
+    }
+
+    /**
+     * Keeps completed orders in an off-heap store instead of a heap list.
+     * {@link #getCompletedOrders()} then rebuilds orders from the store on access.
+     * The tracker does not own the store: pass null to go back to the heap list
+     * before closing it, or the next checkout fails on the closed store.
+     * @param store the store for the current business day, or null to detach
+     */
+    public void useOrderLineStore(OrderLineStore store) {
+        this.orderStore = store;
+    }
+
+    /**
+     * Returns the hourly demand forecast, fed by every completed order.
+     * @return the forecaster for the current menu
+     */
+    public DemandForecaster getDemandForecaster() {
+        awaitEventBus();
+        return demandForecaster();
+    }
+
+    private synchronized DemandForecaster demandForecaster() {
+        if (forecaster == null) {
+            forecaster = new DemandForecaster(new MenuCatalog(currentMenu()));
+        }
+        return forecaster;
+    }
+
+    // Readers of statistics wait until subscribers have caught up with checkout
+    private void awaitEventBus() {
+        if (eventBus != null) {
+            eventBus.drain();
+        }
+    }
+
+    // Publishes time-window promotion changes now; checkout also does this itself
+    public void refreshPromotions() {
+        promotionScheduler.publishIfDue();
+    }
+
+    // Pricing with this tracker's live promotions, e.g. for bulk ingestion
+    public OrderPricer getOrderPricer() {
+        return orderPricer;
+    }
+
+    // Combine promotions on disjoint cart lines instead of picking one
+    public void setPromotionStacking(boolean enabled) {
+        this.promotionStacking = enabled;
+        promotionManager.setStackingEnabled(enabled);
+    }
+
     // ======= Menu browsing =======
     private void showAllDrinks() {
+        List<Drink> menu = currentMenu();
         if (menu.isEmpty()) {
             System.out.println("(Menu is empty)");
             return;
@@ -108,7 +241,7 @@ public class StarbucksSalesTracker {
         int index = 1;
         for (Drink drink : menu) {
             String key = drink.getName() + "|" + drink.getSize();
-            if (!seen.contains(key)) {
+            if (isOnSale(drink) && !seen.contains(key)) {
                 seen.add(key);
                 System.out.printf("%2d) %s | Type: %s%n",
                         index++, drink.getDisplayLabel(), drink.getCategoryName());
@@ -124,9 +257,8 @@ public class StarbucksSalesTracker {
         System.out.println("\n=== Results for type: " + typeName + " ===");
         boolean any = false;
         Set<String> seen = new HashSet<>();
-        for (Drink drink : menu) {
-            // Use polymorphism - getCategoryName() instead of string comparison
-            if (drink.getCategoryName().equalsIgnoreCase(typeName)) {
+        for (Drink drink : drinksOfType(typeName)) {
+            if (isOnSale(drink)) {
                 String key = drink.getName() + "|" + drink.getSize();
                 if (!seen.contains(key)) {
                     seen.add(key);
@@ -139,7 +271,7 @@ public class StarbucksSalesTracker {
             System.out.println("(No drinks found for that type)");
             // Show distinct types to guide user
             Set<String> types = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-            for (Drink drink : menu) {
+            for (Drink drink : currentMenu()) {
                 types.add(drink.getCategoryName());
             }
             if (!types.isEmpty()) {
@@ -150,7 +282,7 @@ public class StarbucksSalesTracker {
 
     // ======= Ordering =======
     private void placeOrder(Scanner scanner) {
-        if (menu.isEmpty()) {
+        if (currentMenu().isEmpty()) {
             System.out.println("Menu is empty. Load menu first.");
             return;
         }
@@ -165,14 +297,17 @@ public class StarbucksSalesTracker {
             Drink chosen = findMenuItem(drinkName, size);
             if (chosen == null) {
                 System.out.println("Not found. Tip: use option 1 to list the exact names and sizes.");
+                List<String> suggestions = suggestDrinkNames(drinkName);
+                if (!suggestions.isEmpty()) {
+                    System.out.println("Did you mean: " + String.join(", ", suggestions) + "?");
+                }
+            } else if (!isOnSale(chosen)) {
+                System.out.println("Sorry, " + chosen.getName() + " (" + chosen.getSize() + ") is sold out.");
             } else {
                 // Prompt for quantity
                 int quantity = promptForPositiveInt(scanner, "Quantity: ");
-                int vanilla = promptForNonNegativeInt(scanner,
-                        "How many shots of vanilla syrup? (each $0.60): ");
-                int espresso = promptForNonNegativeInt(scanner,
-                        "How many extra espresso shots? (each $0.50): ");
-                CartItem cartItem = new CartItem(chosen, quantity, vanilla, espresso);
+                int[] addonCounts = promptForAddons(scanner);
+                CartItem cartItem = new CartItem(chosen, quantity, addons, addonCounts);
                 cart.add(cartItem);
 
                 // Show added item with quantity
@@ -215,6 +350,28 @@ public class StarbucksSalesTracker {
         }
     }
 
+    // Reads add-ons as one line, e.g. "vanilla syrup x2, extra shot"
+    private int[] promptForAddons(Scanner scanner) {
+        if (addons.size() == 0) {
+            return new int[0]; // the catalog sells no add-ons
+        }
+        List<String> choices = new ArrayList<>();
+        for (int id = 0; id < addons.size(); id++) {
+            if (inventory == null || inventory.isAddonAvailable(addons.nameAt(id))) {
+                choices.add(String.format("%s ($%.2f)", addons.nameAt(id), addons.priceAt(id)));
+            }
+        }
+        System.out.println("Add-ons: " + String.join(", ", choices));
+        while (true) {
+            System.out.print("Add-ons per drink (e.g. \"" + addons.nameAt(0) + " x2\", blank for none): ");
+            try {
+                return addons.parseCounts(scanner.nextLine());
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
     private int promptForPositiveInt(Scanner scanner, String prompt) {
         while (true) {
             System.out.print(prompt);
@@ -232,51 +389,134 @@ public class StarbucksSalesTracker {
         }
     }
 
-    private Drink findMenuItem(String name, String size) {
-        for (Drink drink : menu) {
-            if (drink.getName() != null && drink.getSize() != null) {
-                if (drink.getName().equalsIgnoreCase(name)
-                        && drink.getSize().equalsIgnoreCase(size)) {
-                    return drink;
+    Drink findMenuItem(String name, String size) {
+        List<Drink> menu = currentMenu();
+        MenuSnapshot snapshot = menuSnapshot;
+        if (snapshot != null && name != null && size != null) {
+            // The snapshot's name index serves exact lookups; the search index is built on the first suggestion
+            for (int id : snapshot.recordsNamed(name)) {
+                if (menu.get(id).getSize().equalsIgnoreCase(size)) {
+                    return menu.get(id);
                 }
             }
+            return null;
         }
-        return null;
+        return getSearchIndex().find(name, size);
     }
 
-    // ======= Promotions & Checkout =======
-    private void checkoutAndSaveReceipt(Scanner scanner) {
-        // Compute totals
-        double baseTotal = 0.0;   // drinks only (for promos)
-        double addonsTotal = 0.0; // add-ons only
-
-        for (CartItem ci : cart) {
-            baseTotal += ci.basePrice();
-            addonsTotal += ci.addonsCost();
+    // The menu's drinks of one category: from the snapshot's category index when the menu came from one
+    private List<Drink> drinksOfType(String typeName) {
+        List<Drink> menu = currentMenu();
+        List<Drink> drinks = new ArrayList<>();
+        MenuSnapshot snapshot = menuSnapshot;
+        if (snapshot != null) {
+            for (int id : snapshot.recordsInCategory(typeName)) {
+                drinks.add(menu.get(id));
+            }
+            return drinks;
         }
+        for (Drink drink : menu) {
+            // Use polymorphism - getCategoryName() instead of string comparison
+            if (drink.getCategoryName().equalsIgnoreCase(typeName)) {
+                drinks.add(drink);
+            }
+        }
+        return drinks;
+    }
 
-        // Use PromotionManager to select best promotion
-        Promotion bestPromotion = promotionManager.selectBestPromotion(cart, baseTotal, addonsTotal);
-        double appliedDisc = 0.0;
-        String promoLabel = "None";
+    /**
+     * Suggests drink names for a partial or misspelled entry: close matches
+     * first, then prefix completions, each ranked by today's popularity.
+     */
+    public List<String> suggestDrinkNames(String typed) {
+        awaitEventBus(); // popularity ranking reads the statistics
+        DrinkSearchIndex index = getSearchIndex();
+        Set<String> suggestions = new LinkedHashSet<>(index.suggest(typed, 3, statistics));
+        suggestions.addAll(index.autocomplete(typed, 3, statistics));
+        List<String> result = new ArrayList<>(suggestions);
+        return result.size() > 3 ? result.subList(0, 3) : result;
+    }
 
-        if (bestPromotion != null) {
-            appliedDisc = bestPromotion.calculateDiscount(cart, baseTotal, addonsTotal);
-            promoLabel = bestPromotion.getPromotionName();
+    // Built at menu load; rebuilt lazily if the menu was changed since
+    private DrinkSearchIndex getSearchIndex() {
+        List<Drink> menu = currentMenu();
+        if (searchIndex == null) {
+            searchIndex = new DrinkSearchIndex(menu);
         }
+        return searchIndex;
+    }
 
-        double subtotal = baseTotal + addonsTotal;
-        double finalTotalBeforeTax = subtotal - appliedDisc;
-        double tax = finalTotalBeforeTax * TAX_RATE;
-        double finalTotal = finalTotalBeforeTax + tax;
+    // A store overlay publishes a new menu list whenever a price or availability
+    // changes; switch to it and drop the search index built from the old one
+    private List<Drink> currentMenu() {
+        MenuOverlay store = overlay;
+        if (store != null && menu != store.asList()) {
+            menu = store.asList();
+            searchIndex = null;
+        }
+        return menu;
+    }
+
+    // ======= Promotions & Checkout =======
+    /**
+     * Prices the given cart lines, applies promotions and tax, and records the
+     * completed order. Used by the interactive checkout and by other front ends.
+     * With an inventory, the cart's ingredients are reserved first. The order
+     * is placed at the tracker's clock time, with the promotions live then.
+     * @param items the cart lines
+     * @return the completed order
+     * @throws IllegalStateException if an ingredient is out of stock
+     */
+    public Order checkout(List<CartItem> items) {
+        // Without a scheduler thread, a passed window boundary is published here
+        promotionScheduler.publishIfDue();
+        Inventory.Reservation reservation = null;
+        if (inventory != null) {
+            reservation = inventory.reserve(items);
+            if (!reservation.isReserved()) {
+                throw new IllegalStateException("Out of stock: " + reservation.getShortage());
+            }
+        }
+        Order order;
+        try {
+            order = orderPricer.price(items, LocalDateTime.now(promotionScheduler.getClock()));
+        } catch (RuntimeException e) {
+            if (reservation != null) {
+                reservation.release();
+            }
+            throw e;
+        }
+        if (orderStore != null) {
+            orderStore.append(order);
+        } else {
+            completedOrders.add(order);
+        }
 
-        // Create Order object
-        Order order = new Order(new ArrayList<>(cart), baseTotal, addonsTotal,
-                appliedDisc, promoLabel, finalTotalBeforeTax, tax, finalTotal);
-        completedOrders.add(order);
+        // Record order in statistics (inline, or by the event bus subscriber)
+        if (eventBus != null) {
+            eventBus.publish(OrderEvent.Type.ORDER_COMPLETED, order);
+        } else {
+            statistics.recordOrder(order);
+            demandForecaster().recordOrder(order);
+            SalesAnomalyDetector detector = anomalyDetector;
+            if (detector != null) {
+                detector.recordOrder(order);
+            }
+        }
+        if (prepScheduler != null) {
+            prepScheduler.submit(order);
+        }
+        return order;
+    }
 
-        // Record order in statistics
-        statistics.recordOrder(order);
+    private void checkoutAndSaveReceipt(Scanner scanner) {
+        Order order;
+        try {
+            order = checkout(cart);
+        } catch (IllegalStateException e) {
+            System.out.println("Sorry, we can't make this order: " + e.getMessage());
+            return;
+        }
 
         // Print checkout summary
         System.out.println("\n===== CHECKOUT =====");
@@ -284,110 +524,128 @@ public class StarbucksSalesTracker {
             System.out.printf("- %s  base $%.2f  | add-ons [%s] $%.2f%n",
                     ci.getDisplayString(), ci.basePrice(), ci.addonsLabel(), ci.addonsCost());
         }
-        System.out.printf("Drinks total:     $%.2f%n", baseTotal);
-        System.out.printf("Add-ons total:    $%.2f%n", addonsTotal);
-        System.out.printf("Promotion:  %s  (-$%.2f)%n", promoLabel, appliedDisc);
-        System.out.printf("Subtotal:         $%.2f%n", finalTotalBeforeTax);
-        System.out.printf("Tax (8.25%%):      $%.2f%n", tax);
-        System.out.printf("Amount due:       $%.2f%n", finalTotal);
+        System.out.printf("Drinks total:     $%.2f%n", order.getBaseTotal());
+        System.out.printf("Add-ons total:    $%.2f%n", order.getAddonsTotal());
+        System.out.printf("Promotion:  %s  (-$%.2f)%n", order.getPromotionName(), order.getDiscount());
+        System.out.printf("Subtotal:         $%.2f%n", order.getSubtotalBeforeTax());
+        System.out.printf("Tax (8.25%%):      $%.2f%n", order.getTax());
+        System.out.printf("Amount due:       $%.2f%n", order.getFinalTotal());
         System.out.println("====================\n");
 
         // Offer to save receipt
         System.out.print("Save receipt? (Y/N): ");
         String save = scanner.nextLine().trim();
         if (save.equalsIgnoreCase("Y")) {
-            saveReceipt(order);
+            if (eventBus != null) {
+                eventBus.publish(OrderEvent.Type.RECEIPT_REQUESTED, order);
+            } else {
+                saveReceipt(order);
+            }
         }
 
         cart.clear();
     }
 
     private void saveReceipt(Order order) {
-        // Create timestamped filename
-        LocalDateTime now = LocalDateTime.now();
-        DateTimeFormatter fileFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm");
-        String fileName = "receipt_" + now.format(fileFormatter) + ".txt";
-
-        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("==== Starbucks Receipt ====\n");
-        sb.append("Date: ").append(now.format(dateFormatter))
-                .append("  Time: ").append(now.format(timeFormatter)).append("\n\n");
-
-        for (CartItem ci : order.getItems()) {
-            sb.append(String.format("%-28s  base $%5.2f  add-ons [%s] $%4.2f%n",
-                    ci.getDisplayString(), ci.basePrice(), ci.addonsLabel(), ci.addonsCost()));
-        }
-
-        sb.append(String.format("\nDrinks total:     $%.2f%n", order.getBaseTotal()));
-        sb.append(String.format("Add-ons total:    $%.2f%n", order.getAddonsTotal()));
-        sb.append(String.format("Promotion:  %s  (-$%.2f)%n", order.getPromotionName(), order.getDiscount()));
-        sb.append(String.format("Subtotal:         $%.2f%n", order.getSubtotalBeforeTax()));
-        sb.append(String.format("Tax (8.25%%):      $%.2f%n", order.getTax()));
-        sb.append(String.format("TOTAL DUE:        $%.2f%n", order.getFinalTotal()));
-        sb.append("===========================\n");
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-            writer.write(sb.toString());
-            System.out.println("Receipt saved to " + fileName);
-        } catch (IOException e) {
-            System.err.println("Error writing receipt: " + e.getMessage());
-        }
+        receiptWriter.save(order);
     }
 
     // ======= Reporting =======
     private void printSalesSummary() {
+        // One snapshot for the sales figures, so they all come from the same orders.
+        // Co-purchases, the forecast and open alerts are read live below and may
+        // already include orders placed after the snapshot.
+        SalesStatistics.Snapshot stats = getStatisticsSnapshot();
         System.out.println("\n=== Today's Sales Summary ===");
-        System.out.printf("Total Drinks Sold: %d%n", statistics.getTotalDrinksSold());
-        System.out.printf("Total Revenue: $%.2f%n", statistics.getTotalRevenue());
+        System.out.printf("Total Drinks Sold: %d%n", stats.getTotalDrinksSold());
+        System.out.printf("Total Revenue: $%.2f%n", stats.getTotalRevenue());
 
-        if (statistics.getTotalDrinksSold() == 0) {
+        if (stats.getTotalDrinksSold() == 0) {
             System.out.println("No drinks sold yet.");
             return;
         }
 
         // Most popular drink (by name + size)
-        String mostPopular = statistics.getMostPopularDrink();
+        String mostPopular = stats.getMostPopularDrink();
         if (mostPopular != null) {
-            int count = statistics.getMostPopularDrinkCount();
+            int count = stats.getMostPopularDrinkCount();
             System.out.printf("Most Popular Drink: %s (%d sold)%n", mostPopular, count);
         }
 
+        // Most frequent companion of the most popular drink (live)
+        CoPurchaseStatistics baskets = getStatistics().getCoPurchases();
+        if (mostPopular != null) {
+            String popularName = mostPopular.substring(0, mostPopular.lastIndexOf(" ("));
+            List<String> companions = baskets.topCompanions(popularName, 1);
+            if (!companions.isEmpty()) {
+                System.out.printf("Often Bought With %s: %s (lift %.2f)%n", popularName,
+                        companions.get(0), baskets.lift(popularName, companions.get(0)));
+            }
+        }
+
         // Unique drink types sold today
-        Set<String> uniqueTypes = statistics.getUniqueDrinkTypesSold();
+        Set<String> uniqueTypes = stats.getUniqueDrinkTypesSold();
         if (!uniqueTypes.isEmpty()) {
             System.out.println("Unique Drink Types Sold: " + String.join(", ", uniqueTypes));
         }
 
         // Drinks not sold today
-        Set<String> unsold = statistics.getUnsoldDrinks(menu);
+        Set<String> unsold = stats.getUnsoldDrinks(currentMenu());
         if (!unsold.isEmpty()) {
             System.out.println("Drinks Not Sold Today: " + String.join(", ", unsold));
         }
 
         // Top 3 add-ons
-        List<String> top3Addons = statistics.getTop3Addons();
+        List<String> top3Addons = stats.getTop3Addons();
         if (!top3Addons.isEmpty()) {
             System.out.println("\nTop 3 Add-ons (by count):");
-            Map<String, Integer> addonCounts = statistics.getAddonCount();
+            Map<String, Integer> addonCounts = stats.getAddonCount();
             for (String addon : top3Addons) {
                 System.out.printf("  - %s: %d%n", addon, addonCounts.get(addon));
             }
         }
 
         // Add-on revenue
-        double addonRevenue = statistics.getTotalAddonRevenue();
+        double addonRevenue = stats.getTotalAddonRevenue();
         System.out.printf("Total Add-on Revenue: $%.2f%n", addonRevenue);
 
         // Promotion impact
-        System.out.printf("Total Discount Given: $%.2f%n", statistics.getTotalDiscountGiven());
-        System.out.printf("Orders with Promotions: %d%n", statistics.getOrdersWithPromotions());
+        System.out.printf("Total Discount Given: $%.2f%n", stats.getTotalDiscountGiven());
+        System.out.printf("Orders with Promotions: %d%n", stats.getOrdersWithPromotions());
+
+        // Distributions
+        Histogram values = stats.getOrderValueHistogram();
+        Histogram sizes = stats.getBasketSizeHistogram();
+        Histogram addonsPerOrder = stats.getAddonsPerOrderHistogram();
+        Histogram discounts = stats.getDiscountPercentHistogram();
+        System.out.println("\nOrder Distributions (median / p95):");
+        System.out.printf("  - Order value: $%.2f / $%.2f%n", values.getMedian(), values.percentile(95));
+        System.out.printf("  - Drinks per order: %.1f / %.1f%n", sizes.getMedian(), sizes.percentile(95));
+        System.out.printf("  - Add-ons per order: %.1f / %.1f%n", addonsPerOrder.getMedian(), addonsPerOrder.percentile(95));
+        System.out.printf("  - Discount rate: %.1f%% / %.1f%%%n", discounts.getMedian(), discounts.percentile(95));
+
+        // Demand forecast for the coming hour (live)
+        DemandForecaster demand = getDemandForecaster();
+        Map<String, Double> nextHour = demand.topNextHour(3);
+        if (!nextHour.isEmpty()) {
+            System.out.printf("%nForecast for %s (units):%n", demand.getCurrentHour().plusHours(1).toLocalTime());
+            for (Map.Entry<String, Double> entry : nextHour.entrySet()) {
+                System.out.printf("  - %s: %.1f%n", entry.getKey(), entry.getValue());
+            }
+        }
+
+        // Sales alerts still open (live)
+        SalesAnomalyDetector detector = getAnomalyDetector();
+        if (detector != null && !detector.getActiveAnomalies().isEmpty()) {
+            System.out.println("\nOpen Sales Alerts:");
+            for (SalesAnomalyDetector.Anomaly anomaly : detector.getActiveAnomalies()) {
+                System.out.println("  - " + anomaly);
+            }
+        }
 
         // Per-category breakdown
-        Map<String, Integer> categoryCounts = statistics.getCategoryItemCount();
-        Map<String, Double> categoryRevenues = statistics.getCategoryRevenue();
+        Map<String, Integer> categoryCounts = stats.getCategoryItemCount();
+        Map<String, Double> categoryRevenues = stats.getCategoryRevenue();
         if (!categoryCounts.isEmpty()) {
             System.out.println("\nPer-Category Breakdown:");
             for (String category : categoryCounts.keySet()) {
@@ -400,7 +658,10 @@ public class StarbucksSalesTracker {
 
     // ======= CSV =======
     public void loadMenuFromCsv(String filePath) {
-        menu.clear();
+        menu = new ArrayList<>();
+        overlay = null;
+        menuSnapshot = null;
+        searchIndex = null;
         Set<String> seen = new HashSet<>(); // To handle duplicates
 
         try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
@@ -473,23 +734,154 @@ public class StarbucksSalesTracker {
                 }
             }
 
-            // Update BuyNGetMPromotion with menu
-            List<Promotion> promotions = new ArrayList<>();
-            promotions.add(new BulkOrderPromotion());
-            promotions.add(new HappyHourPromotion());
-            promotions.add(new BuyNGetMPromotion(menu));
-            this.promotionManager = new PromotionManager(promotions);
-
+            onMenuLoaded(null);
             System.out.println("Loaded " + menu.size() + " menu items from " + filePath);
         } catch (IOException e) {
             System.err.println("Error reading CSV file: " + e.getMessage());
         }
     }
+
+    /**
+     * Loads the menu from its precompiled snapshot when it is up to date with
+     * the CSV; otherwise parses the CSV and (re)writes the snapshot.
+     * @param filePath the menu CSV path
+     */
+    public void loadMenu(String filePath) {
+        Path csvPath = Paths.get(filePath);
+        Path snapshotPath = MenuSnapshot.snapshotPathFor(filePath);
+        MenuSnapshot snapshot = MenuSnapshot.openIfFresh(snapshotPath, csvPath);
+        if (snapshot != null) {
+            menu = snapshot.toMenu();
+            onMenuLoaded(snapshot);
+            System.out.println("Loaded " + menu.size() + " menu items from " + snapshotPath);
+            return;
+        }
+
+        loadMenuFromCsv(filePath);
+        if (!menu.isEmpty()) {
+            try {
+                MenuSnapshot.write(menu, csvPath, snapshotPath);
+            } catch (IOException e) {
+                System.err.println("Could not write menu snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reserves ingredients at checkout and hides sold-out drinks and add-ons.
+     * @param inventory the shared stock (null to stop tracking)
+     */
+    public void useInventory(Inventory inventory) {
+        this.inventory = inventory;
+    }
+
+    public Inventory getInventory() {
+        return inventory;
+    }
+
+    /**
+     * Sends every completed order's drinks to the prep stations.
+     * @param scheduler a started scheduler (null to stop routing)
+     */
+    public void usePrepScheduler(PrepScheduler scheduler) {
+        this.prepScheduler = scheduler;
+    }
+
+    /**
+     * Feeds every completed order to an anomaly detector, whose listeners
+     * are alerted to unusual revenue, discounts, promotion or category mix.
+     * @param detector the detector (null to stop alerting)
+     */
+    public void useAnomalyDetector(SalesAnomalyDetector detector) {
+        this.anomalyDetector = detector;
+    }
+
+    public SalesAnomalyDetector getAnomalyDetector() {
+        awaitEventBus();
+        return anomalyDetector;
+    }
+
+    // Sold-out drinks are hidden from listings and cannot be ordered
+    private boolean isOnSale(Drink drink) {
+        return inventory == null || inventory.isAvailable(drink);
+    }
+
+    /**
+     * Uses the given add-on catalog for orders placed from now on.
+     * @param catalog the add-ons on offer
+     */
+    public void useAddons(AddonCatalog catalog) {
+        this.addons = catalog;
+    }
+
+    public AddonCatalog getAddons() {
+        return addons;
+    }
+
+    /**
+     * Replaces the menu with the given drinks (e.g. one shared by many stores).
+     * @param drinks the menu items
+     */
+    public void useMenu(List<Drink> drinks) {
+        menu = new ArrayList<>(drinks);
+        onMenuLoaded(null);
+    }
+
+    /**
+     * Uses a store overlay over a shared catalog as the menu. Nothing is
+     * copied: the menu and the Buy-N-Get-M price table are views of the
+     * overlay, and price or availability changes are picked up (and the
+     * search index rebuilt) on the next menu access.
+     * @param overlay the store's menu overlay
+     */
+    public void useMenu(MenuOverlay overlay) {
+        this.overlay = overlay;
+        menuSnapshot = null;
+        menu = overlay.asList();
+        installPromotions(new BuyNGetMPromotion(overlay.cheapestPriceByName()));
+        this.searchIndex = null; // built on first search
+        resetForecaster();
+        trackSoldDrinks(overlay.getBase());
+    }
+
+    // Rebuilds everything derived from the menu. A menu loaded from a snapshot
+    // uses its category and name indexes, and builds the search index on first use.
+    private void onMenuLoaded(MenuSnapshot source) {
+        overlay = null;
+        menuSnapshot = source;
+        // Update BuyNGetMPromotion with menu
+        installPromotions(new BuyNGetMPromotion(menu));
+        this.searchIndex = source != null ? null : new DrinkSearchIndex(menu);
+        resetForecaster();
+        trackSoldDrinks(new MenuCatalog(menu));
+    }
+
+    // Drink ids change with the menu, so forecasting starts over
+    private synchronized void resetForecaster() {
+        forecaster = null;
+    }
+
+    // Sold-drink bitmaps follow the menu's drink ids; what sold so far carries over
+    private void trackSoldDrinks(MenuCatalog catalog) {
+        awaitEventBus();
+        statistics.trackSoldDrinks(catalog);
+    }
+
+    private void installPromotions(Promotion buyNGetM) {
+        List<Promotion> promotions = new ArrayList<>();
+        promotions.add(new BulkOrderPromotion());
+        promotions.add(new HappyHourPromotion());
+        promotions.add(buyNGetM);
+        this.promotionManager = new PromotionManager(promotions);
+        promotionManager.setStackingEnabled(promotionStacking);
+        this.orderPricer = new OrderPricer(promotionManager, TAX_RATE);
+        promotionScheduler.setPromotionManager(promotionManager);
+    }
   // StarbucksSalesTracker.java
 public List<Drink> searchByTypeForTest(String typeName) {
     List<Drink> result = new ArrayList<>();
-    for (Drink drink : menu) {
-        if (drink.getCategoryName().equalsIgnoreCase(typeName)) {
+    for (Drink drink : drinksOfType(typeName)) {
+        if (isOnSale(drink)) {
             result.add(drink);
         }
     }
@@ -505,8 +897,33 @@ public List<Drink> searchByTypeForTest(String typeName) {
         if (args != null && args.length > 0) {
             path = args[0];
         }
-        app.loadMenuFromCsv(path);
+        app.loadMenu(path);
+        if (new File("addons.csv").exists()) {
+            try {
+                app.useAddons(AddonCatalog.load("addons.csv"));
+            } catch (IOException e) {
+                System.err.println("Could not load addons.csv, using the standard add-ons: " + e.getMessage());
+            }
+        }
+        if (new File("ingredients.csv").exists() && new File("recipes.csv").exists()) {
+            try {
+                Inventory inventory = Inventory.load("ingredients.csv", "recipes.csv",
+                        new MenuCatalog(app.getMenu()), app.getAddons());
+                inventory.addListener((item, available) ->
+                        System.out.println(available ? "(" + item + " is back in stock)" : "(" + item + " is now sold out)"));
+                app.useInventory(inventory);
+            } catch (IOException e) {
+                System.err.println("Could not load inventory, stock is not tracked: " + e.getMessage());
+            }
+        }
+        SalesAnomalyDetector detector = new SalesAnomalyDetector();
+        detector.addListener(anomaly -> System.out.println("(Sales alert: " + anomaly + ")"));
+        app.useAnomalyDetector(detector);
+        app.enableEventBus(1024, OrderEventBus.WaitStrategy.SLEEPING);
+        app.promotionScheduler.start();
         app.runMenu();
+        app.promotionScheduler.stop();
+        app.disableEventBus(); // finish pending receipts before exit
     }
 
     // ======= Test-friendly ordering method =======
@@ -517,38 +934,21 @@ public void placeOrderTest(Drink drink, int quantity, int vanillaShots, int espr
     cart.clear();
     cart.add(cartItem);
 
-    // Compute totals and apply promotions exactly like checkout
-    double baseTotal = 0.0;
-    double addonsTotal = 0.0;
-
-    for (CartItem ci : cart) {
-        baseTotal += ci.basePrice();
-        addonsTotal += ci.addonsCost();
-    }
-
-    Promotion bestPromotion = promotionManager.selectBestPromotion(cart, baseTotal, addonsTotal);
-    double appliedDisc = 0.0;
-    String promoLabel = "None";
-    if (bestPromotion != null) {
-        appliedDisc = bestPromotion.calculateDiscount(cart, baseTotal, addonsTotal);
-        promoLabel = bestPromotion.getPromotionName();
-    }
-
-    double subtotal = baseTotal + addonsTotal;
-    double finalTotalBeforeTax = subtotal - appliedDisc;
-    double tax = finalTotalBeforeTax * TAX_RATE;
-    double finalTotal = finalTotalBeforeTax + tax;
-
-    Order order = new Order(new ArrayList<>(cart), baseTotal, addonsTotal,
-            appliedDisc, promoLabel, finalTotalBeforeTax, tax, finalTotal);
-
-    completedOrders.add(order);
-    statistics.recordOrder(order);
+    // Apply promotions exactly like checkout
+    checkout(cart);
     cart.clear();
 }
 
 public void addDrinkForTest(Drink drink) {
+    if (overlay != null) {
+        menu = new ArrayList<>(currentMenu()); // detach from a shared overlay view
+        overlay = null;
+    }
     menu.add(drink);
+    menuSnapshot = null;
+    searchIndex = null;
+    resetForecaster();
+    trackSoldDrinks(new MenuCatalog(menu));
 }
 
 public void placeOrderForTest(Drink drink, int quantity, int vanillaShots, int espressoShots) {
@@ -556,33 +956,8 @@ public void placeOrderForTest(Drink drink, int quantity, int vanillaShots, int e
     CartItem ci = new CartItem(drink, quantity, vanillaShots, espressoShots);
     cart.add(ci);
 
-    // Compute totals and promotions
-    double baseTotal = 0.0;
-    double addonsTotal = 0.0;
-
-    for (CartItem item : cart) {
-        baseTotal += item.basePrice();
-        addonsTotal += item.addonsCost();
-    }
-
-    Promotion bestPromotion = promotionManager.selectBestPromotion(cart, baseTotal, addonsTotal);
-    double appliedDiscount = 0.0;
-    String promoLabel = "None";
-    if (bestPromotion != null) {
-        appliedDiscount = bestPromotion.calculateDiscount(cart, baseTotal, addonsTotal);
-        promoLabel = bestPromotion.getPromotionName();
-    }
-
-    double subtotal = baseTotal + addonsTotal;
-    double totalBeforeTax = subtotal - appliedDiscount;
-    double tax = totalBeforeTax * TAX_RATE;
-    double finalTotal = totalBeforeTax + tax;
-
-    Order order = new Order(new ArrayList<>(cart), baseTotal, addonsTotal, appliedDiscount,
-            promoLabel, totalBeforeTax, tax, finalTotal);
-
-    completedOrders.add(order);
-    statistics.recordOrder(order);
+    // Apply promotions exactly like checkout
+    checkout(cart);
     cart.clear();
 }
 }
@@ -1,10 +1,39 @@
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 public class StarbucksTest {
 
@@ -12,6 +41,7 @@ public class StarbucksTest {
     private Drink latte;
     private Drink cappuccino;
     private Drink greenTea;
+    private final List<Path> tempDirectories = new ArrayList<>();
 
     @Before
     public void setUp() {
@@ -28,6 +58,22 @@ public class StarbucksTest {
         tracker.addDrinkForTest(greenTea);
     }
 
+    @After
+    public void tearDown() throws IOException {
+        for (Path dir : tempDirectories) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    // A temporary directory, deleted with its contents after the test
+    private Path tempDirectory(String prefix) throws IOException {
+        Path dir = Files.createTempDirectory(prefix);
+        tempDirectories.add(dir);
+        return dir;
+    }
+
     // ======= Test 1: Show all drinks =======
     @Test
     public void testShowAllDrinks() {
@@ -97,4 +143,1059 @@ public class StarbucksTest {
         double revenue = tracker.getTotalRevenue();
         assertTrue(revenue >= latte.getPrice() + greenTea.getPrice());
     }
+
+    // ======= Test 7: Completed orders are immutable snapshots =======
+    @Test
+    public void testOrderItemsAreReadOnly() {
+        tracker.placeOrderTest(latte, 2, 0, 0);
+
+        Order order = tracker.getCompletedOrders().get(0);
+        assertSame(order.getItems(), order.getItems());
+        assertEquals(1, order.getItemCount());
+        try {
+            order.getItems().clear();
+            fail("Order items should not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+            assertEquals(1, order.getItems().size());
+        }
+    }
+
+    // ======= Test 8: Drink search suggestions =======
+    @Test
+    public void testSuggestDrinkNames() {
+        // Typo-tolerant match
+        assertTrue(tracker.suggestDrinkNames("Lattte").contains("Latte"));
+        // Prefix match on any word of the name
+        assertTrue(tracker.suggestDrinkNames("gre").contains("Green Tea"));
+        assertTrue(tracker.suggestDrinkNames("tea").contains("Green Tea"));
+    }
+
+    // ======= Test 9: Happy hour follows the injected clock =======
+    @Test
+    public void testHappyHourUsesScheduledWindow() {
+        ZoneId zone = ZoneId.systemDefault();
+        Clock duringHappyHour = Clock.fixed(
+                LocalDateTime.of(2024, 5, 1, 15, 0).atZone(zone).toInstant(), zone);
+        Clock morning = Clock.fixed(
+                LocalDateTime.of(2024, 5, 1, 9, 0).atZone(zone).toInstant(), zone);
+
+        StarbucksSalesTracker happy = new StarbucksSalesTracker(duringHappyHour);
+        happy.addDrinkForTest(greenTea);
+        happy.placeOrderTest(greenTea, 1, 0, 0);
+        assertTrue(happy.getTotalDiscountGiven() > 0);
+
+        StarbucksSalesTracker early = new StarbucksSalesTracker(morning);
+        early.addDrinkForTest(greenTea);
+        early.placeOrderTest(greenTea, 1, 0, 0);
+        assertEquals(0.0, early.getTotalDiscountGiven(), 0.0001);
+    }
+
+    // ======= Test 10: Promotion stacking on disjoint lines =======
+    @Test
+    public void testPromotionStackingBeatsSingleBest() {
+        List<Promotion> promotions = Arrays.asList(new BulkOrderPromotion(), new HappyHourPromotion());
+        PromotionManager manager = new PromotionManager(promotions);
+        manager.setActivePromotions(promotions); // as if during happy hour
+
+        List<CartItem> cart = new ArrayList<>();
+        cart.add(new CartItem(latte, 4, 0, 0));
+        cart.add(new CartItem(greenTea, 2, 0, 0));
+
+        Promotion single = manager.selectBestPromotion(cart, 4 * 4.50 + 2 * 3.50, 0.0);
+        double singleDiscount = single.calculateDiscount(cart, 4 * 4.50 + 2 * 3.50, 0.0);
+
+        PromotionStack stack = manager.selectBestStack(cart);
+        // Bulk on the lattes (10% of 18.00) + Happy Hour on the teas (20% of 7.00)
+        assertEquals(1.80 + 1.40, stack.getTotalDiscount(), 0.0001);
+        assertTrue(stack.getTotalDiscount() > singleDiscount);
+        assertEquals(2, stack.getPromotions().size());
+    }
+
+    // ======= Test 11: Buy-N-Get-M applies repeatedly to the best drink =======
+    @Test
+    public void testBuyNGetMRepeatsOnBestDrink() {
+        Drink tallLatte = DrinkFactory.createDrink("Latte", "Tall", 3.50, "Coffee");
+        BuyNGetMPromotion promo = new BuyNGetMPromotion(Arrays.asList(latte, tallLatte, cappuccino));
+
+        List<CartItem> cart = new ArrayList<>();
+        cart.add(new CartItem(latte, 9, 0, 0));      // 3 groups of 3
+        cart.add(new CartItem(cappuccino, 3, 0, 0)); // 1 group of 3
+
+        assertTrue(promo.isApplicable(cart));
+        // Lattes win: 3 free at the cheapest Latte size ($3.50)
+        assertEquals(3 * 3.50, promo.calculateDiscount(cart, 0.0, 0.0), 0.0001);
+        assertEquals("Buy 3 Get 1 Free (cheapest size)", promo.getPromotionName());
+    }
+
+    // ======= Test 12: Fleet summary merges per-store statistics =======
+    @Test
+    public void testFleetStatisticsMergeStores() {
+        try (StoreFleet fleet = new StoreFleet(2, Arrays.asList(latte, cappuccino, greenTea))) {
+            fleet.addStore("store-1").join();
+            fleet.addStore("store-2").join();
+            fleet.submitOrder("store-1", Arrays.asList(new CartItem(latte, 1, 0, 0))).join();
+            fleet.submitOrder("store-2", Arrays.asList(new CartItem(cappuccino, 2, 0, 0))).join();
+
+            SalesStatistics fleetStats = fleet.fleetStatistics();
+            assertEquals(3, fleetStats.getTotalDrinksSold());
+            assertEquals(2, fleetStats.getDrinkNameCount("Cappuccino"));
+            assertEquals(3, (int) fleetStats.getCategoryItemCount().get("Coffee"));
+        }
+    }
+
+    // ======= Test 13: Regional overlay over a shared catalog =======
+    @Test
+    public void testMenuOverlayResolvesOverBase() {
+        MenuCatalog catalog = new MenuCatalog(Arrays.asList(latte, cappuccino, greenTea));
+        MenuOverlay overlay = new MenuOverlay(catalog);
+        int latteId = catalog.idOf("latte", "grande");
+
+        overlay.setPrice(latteId, 5.00);
+        overlay.setAvailable(catalog.idOf("Cappuccino", "Grande"), false);
+
+        assertEquals(5.00, overlay.priceOf(latteId), 0.0001);
+        assertEquals(4.50, catalog.drinkAt(latteId).getPrice(), 0.0001);
+        List<Drink> storeMenu = overlay.asList();
+        assertEquals(2, storeMenu.size());
+        assertEquals("Green Tea", storeMenu.get(1).getName());
+        assertEquals(5.00, overlay.cheapestPriceByName().get("latte"), 0.0001);
+        assertNull(overlay.cheapestPriceByName().get("cappuccino"));
+    }
+
+    // ======= Test 14: Statistics recorded through the event bus =======
+    @Test
+    public void testEventBusRecordsStatistics() {
+        tracker.enableEventBus(8, OrderEventBus.WaitStrategy.YIELDING);
+        try {
+            for (int i = 0; i < 20; i++) { // more orders than ring slots
+                tracker.placeOrderTest(cappuccino, 1, 0, 0);
+            }
+
+            assertEquals(20, tracker.getStatistics().getTotalDrinksSold());
+            assertEquals(20, tracker.getCompletedOrders().size());
+        } finally {
+            tracker.disableEventBus(); // stop the yielding consumer threads
+        }
+    }
+
+    // ======= Test 15: Flow pipeline ingests, records and persists =======
+    @Test
+    public void testOrderPipelineIngestsLines() {
+        SalesStatistics stats = new SalesStatistics();
+        List<Order> persisted = Collections.synchronizedList(new ArrayList<>());
+        OrderPipeline.StageSettings settings = new OrderPipeline.StageSettings(2, 4, 4);
+        OrderPipeline pipeline = new OrderPipeline(new DrinkSearchIndex(tracker.getMenu()),
+                tracker.getOrderPricer(), stats, persisted::addAll, settings);
+
+        for (int i = 0; i < 50; i++) {
+            pipeline.submit("Latte,Grande,1;Green Tea,Tall,2,1,0");
+        }
+        pipeline.submit("Unknown Drink,Tall,1");
+        pipeline.submit("Latte,Grande,1,300"); // more vanilla than a drink can hold
+        pipeline.close();
+
+        assertEquals(50, persisted.size());
+        assertEquals(150, stats.getTotalDrinksSold());
+        assertEquals(2L, (long) pipeline.getMetrics().get("rejectedLines"));
+    }
+
+    // ======= Test 16: Journal compacts a day and replays it =======
+    @Test
+    public void testOrderJournalCompactsAndReplaysDay() throws Exception {
+        Path dir = tempDirectory("journal");
+        LocalDate day = LocalDate.of(2024, 3, 1);
+        OrderJournal journal = new OrderJournal(dir, new MenuCatalog(tracker.getMenu()), 50);
+
+        List<Order> written = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            Order priced = tracker.getOrderPricer().price(Arrays.asList(
+                    new CartItem(latte, 1 + i % 5, i % 2, 0), new CartItem(greenTea, 1, 0, 1)));
+            written.add(new Order(priced.getItems(), priced.getBaseTotal(), priced.getAddonsTotal(),
+                    priced.getDiscount(), priced.getPromotionName(), priced.getSubtotalBeforeTax(),
+                    priced.getTax(), priced.getFinalTotal(), day.atTime(8, 0).plusSeconds(i * 37L)));
+        }
+        journal.write(written);
+        assertEquals(3, journal.segmentsFor(day).size());
+
+        Path daily = journal.compact(day);
+        journal.close();
+        assertTrue(journal.segmentsFor(day).isEmpty());
+        assertTrue(Files.size(daily) < 120 * 36); // order ids take 4-10 bytes of each record
+
+        List<Order> replayed = journal.readDay(day);
+        assertEquals(120, replayed.size());
+        for (int i = 0; i < 120; i++) {
+            assertEquals(written.get(i).getTimestamp(), replayed.get(i).getTimestamp());
+            assertEquals(written.get(i).getId(), replayed.get(i).getId());
+            assertEquals(written.get(i).getFinalTotal(), replayed.get(i).getFinalTotal(), 0.011);
+            assertEquals(written.get(i).getPromotionName(), replayed.get(i).getPromotionName());
+            assertEquals(1 + i % 5, replayed.get(i).getItem(0).getQuantity());
+        }
+    }
+
+    // ======= Test 17: Archive range queries across days =======
+    @Test
+    public void testOrderArchiveRangeQueries() throws Exception {
+        Path dir = tempDirectory("archive");
+        MenuCatalog catalog = new MenuCatalog(tracker.getMenu());
+        LocalDate monday = LocalDate.of(2024, 3, 4);
+        double teaSales = 0.0;
+        try (OrderJournal journal = new OrderJournal(dir, catalog)) {
+            for (int d = 0; d < 3; d++) {
+                List<Order> day = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    List<CartItem> items = new ArrayList<>();
+                    items.add(new CartItem(latte, 1, 0, 0));
+                    if (i % 4 == 0) {
+                        items.add(new CartItem(greenTea, 2, 0, 0));
+                        teaSales += d < 2 ? 7.00 : 0.0;
+                    }
+                    Order priced = tracker.getOrderPricer().price(items);
+                    day.add(new Order(priced.getItems(), priced.getBaseTotal(), priced.getAddonsTotal(),
+                            priced.getDiscount(), priced.getPromotionName(), priced.getSubtotalBeforeTax(),
+                            priced.getTax(), priced.getFinalTotal(), monday.plusDays(d).atTime(7, 0).plusMinutes(i)));
+                }
+                journal.write(day);
+                journal.compact(monday.plusDays(d));
+            }
+        }
+
+        OrderArchive archive = new OrderArchive(dir, catalog);
+        assertEquals(3, archive.getDays().size());
+        LocalDate tuesday = monday.plusDays(1);
+        assertEquals(teaSales, archive.getGrossSalesByCategory(monday, tuesday).get("Tea"), 0.001);
+        assertEquals(200, archive.getUnitsSold("latte", monday, tuesday));
+        assertEquals(75, archive.getOrdersContaining("Green Tea", monday, monday.plusDays(2)).size());
+        assertEquals(30, archive.getOrders(tuesday.atTime(8, 0), tuesday.atTime(8, 30)).size());
+    }
+
+    // ======= Test 18: Co-purchase support, confidence and lift =======
+    @Test
+    public void testCoPurchaseStatistics() {
+        for (int i = 0; i < 3; i++) {
+            tracker.checkout(Arrays.asList(new CartItem(latte, 1, 0, 0), new CartItem(greenTea, 1, 0, 0)));
+        }
+        tracker.checkout(Arrays.asList(new CartItem(latte, 2, 0, 0)));
+        tracker.checkout(Arrays.asList(new CartItem(cappuccino, 1, 0, 0), new CartItem(greenTea, 1, 0, 0)));
+
+        CoPurchaseStatistics baskets = tracker.getStatistics().getCoPurchases();
+        assertEquals(3, baskets.getPairCount("Latte", "Green Tea"));
+        assertEquals(3, baskets.getPairCount("Green Tea", "Latte"));
+        assertEquals(0.75, baskets.confidence("Latte", "Green Tea"), 1e-9);
+        assertEquals(0.9375, baskets.lift("Latte", "Green Tea"), 1e-9);
+        assertEquals(Arrays.asList("Latte", "Cappuccino"), baskets.topCompanions("Green Tea", 2));
+    }
+
+    // ======= Test 19: Promotion simulator replays history =======
+    @Test
+    public void testPromotionSimulatorReplaysHistory() {
+        LocalDate day = LocalDate.of(2024, 3, 1);
+        List<Order> history = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            LocalDateTime time = day.atTime(i % 2 == 0 ? 15 : 10, 0);
+            history.add(new Order(Arrays.asList(new CartItem(greenTea, 2, 0, 0)),
+                    7.00, 0.0, 0.0, "None", 7.00, 0.58, 7.58, time));
+        }
+
+        PromotionSimulator simulator = new PromotionSimulator(
+                Arrays.asList(new HappyHourPromotion()), false);
+        PromotionSimulator.Report report = simulator.simulate(history, 4);
+
+        assertEquals(10000, report.getOrders());
+        assertEquals(5000, report.getAffectedOrders());
+        assertEquals(7000.0, report.getSimulatedDiscount(), 0.01);
+        assertEquals(7000.0, report.getDiscountCostDelta(), 0.01);
+        assertEquals(-7000.0, report.getCategoryRevenueDeltas().get("Tea"), 0.01);
+    }
+
+    // ======= Test 20: Order distribution histograms =======
+    @Test
+    public void testOrderDistributionHistograms() {
+        for (int i = 1; i <= 100; i++) {
+            tracker.checkout(Arrays.asList(new CartItem(greenTea, 1 + i % 3, i % 2, 0)));
+        }
+        SalesStatistics stats = tracker.getStatistics();
+        Histogram sizes = stats.getBasketSizeHistogram();
+        assertEquals(100, sizes.getCount());
+        // 33 baskets of 1, 34 of 2, 33 of 3; estimates stay inside the true value's bucket
+        double width = 1.0; // 100 buckets over [0, 100)
+        assertEquals(2.0 + width / 2, sizes.getMedian(), width / 2);
+        assertEquals(3.0, sizes.percentile(95), 1e-9); // capped at the largest basket seen
+        assertEquals(1.0 + width / 2, sizes.percentile(20), width / 2);
+        assertEquals(1.0, sizes.getMin(), 1e-9);
+        assertEquals(3.0, sizes.getMax(), 1e-9);
+
+        SalesStatistics other = new SalesStatistics();
+        other.merge(stats);
+        assertEquals(100, other.getOrderValueHistogram().getCount());
+        assertEquals(stats.getOrderValueHistogram().getMedian(), other.getOrderValueHistogram().getMedian(), 1e-9);
+    }
+
+    // ======= Test 21: Add-ons loaded from a catalog =======
+    @Test
+    public void testConfigurableAddons() throws Exception {
+        AddonCatalog addons = new AddonCatalog(
+                Arrays.asList("vanilla syrup", "extra shot", "oat milk", "cold foam"),
+                Arrays.asList("vanilla", "extra shot", "oat", "cold foam"),
+                new double[] {0.60, 0.50, 0.70, 1.00});
+        tracker.useAddons(addons);
+
+        CartItem item = new CartItem(latte, 2, addons, addons.parseCounts("Oat Milk, cold foam x2, vanilla syrup"));
+        assertEquals(3, item.getModifierCount());
+        assertEquals(1, item.getVanillaShots());
+        assertEquals(0, item.getEspressoShots());
+        assertEquals(2 * (0.60 + 0.70 + 2 * 1.00), item.addonsCost(), 1e-9);
+        assertEquals("1x vanilla, 1x oat, 2x cold foam", item.addonsLabel());
+
+        tracker.checkout(Arrays.asList(item, new CartItem(greenTea, 1, 1, 1)));
+        SalesStatistics stats = tracker.getStatistics();
+        assertEquals(Integer.valueOf(4), stats.getAddonCount().get("cold foam"));
+        assertEquals(Integer.valueOf(3), stats.getAddonCount().get("vanilla syrup"));
+        assertEquals(Integer.valueOf(1), stats.getAddonCount().get("extra shot"));
+        assertEquals(4.00, stats.getAddonRevenue().get("cold foam"), 1e-9);
+        assertEquals("cold foam", stats.getTop3Addons().get(0));
+
+        // More than 255 of one add-on per drink is refused, not silently capped
+        try {
+            addons.parseCounts("cold foam x200, cold foam x100");
+            fail("Add-on count above 255 was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new CartItem(latte, 1, addons, new int[] {0, 0, 0, 256});
+            fail("Add-on count above 255 was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // An add-on file without valid rows leaves a catalog that sells nothing extra
+        Path csv = tempDirectory("addons").resolve("addons.csv");
+        Files.write(csv, Arrays.asList("name,label,price", "cold foam,,free"));
+        AddonCatalog none = AddonCatalog.load(csv.toString());
+        assertEquals(0, none.size());
+        tracker.useAddons(none);
+        assertEquals(0, tracker.checkout(Arrays.asList(new CartItem(latte, 1, none, new int[0]))).getAddonsTotal(), 0.0);
+    }
+
+    // ======= Test 22: Off-heap order line store =======
+    @Test
+    public void testOffHeapOrderLineStore() {
+        MenuCatalog catalog = new MenuCatalog(tracker.getMenu());
+        LocalDate day = LocalDate.of(2024, 3, 1);
+        try (OrderLineStore store = new OrderLineStore(catalog, day)) {
+            tracker.useOrderLineStore(store);
+            for (int i = 0; i < 50000; i++) {
+                tracker.checkout(Arrays.asList(new CartItem(latte, 2, 1, 0), new CartItem(greenTea, 1, 0, 0)));
+            }
+            assertEquals(50000, store.getOrderCount());
+            assertEquals(100000, store.getLineCount());
+            assertEquals(100000, store.getUnitsSold()[catalog.idOf("Latte", "Grande")]);
+            double finalTotal = tracker.getStatistics().getTotalRevenue() / 50000;
+            assertEquals(50000 * (Math.round(finalTotal * 100) / 100.0), store.getRevenue(), 0.01); // kept in cents
+            assertEquals(50000 * 3.50, store.getGrossSalesByCategory().get("Tea"), 0.01);
+
+            Order order = tracker.getCompletedOrders().get(49999);
+            assertEquals(2, order.getItemCount());
+            assertEquals(1, order.getItem(0).getVanillaShots());
+            assertEquals(50000, tracker.getCompletedOrders().size());
+
+            OrderLineStore.LineCursor lines = store.lines();
+            assertTrue(lines.next());
+            assertEquals(1, lines.getModifierCount());
+            assertEquals(AddonCatalog.standard().idOf(AddonCatalog.VANILLA_SYRUP), lines.getModifierId(0));
+
+            long bytes = store.getOffHeapBytes();
+            store.startDay(day.plusDays(1));
+            assertEquals(0, store.getOrderCount());
+            tracker.checkout(Arrays.asList(new CartItem(cappuccino, 1, 0, 0)));
+            assertEquals(1, store.getOrderCount());
+            assertEquals(bytes, store.getOffHeapBytes()); // memory reused
+            tracker.useOrderLineStore(null); // detach before the store closes
+        }
+        tracker.checkout(Arrays.asList(new CartItem(latte, 1, 0, 0)));
+        assertEquals(1, tracker.getCompletedOrders().size());
+    }
+
+    // ======= Test 23: Workload generator drives checkout =======
+    @Test
+    public void testWorkloadGeneratorAndLoadDriver() {
+        WorkloadGenerator a = new WorkloadGenerator(tracker.getMenu(), AddonCatalog.standard(), 7L);
+        WorkloadGenerator b = new WorkloadGenerator(tracker.getMenu(), AddonCatalog.standard(), 7L);
+        LocalDate day = LocalDate.of(2024, 3, 1);
+        int latteLines = 0;
+        int teaLines = 0;
+        for (int i = 0; i < 2000; i++) {
+            List<CartItem> cartA = a.nextCart();
+            List<CartItem> cartB = b.nextCart();
+            assertEquals(cartA.size(), cartB.size());
+            assertSame(cartA.get(0).getDrink(), cartB.get(0).getDrink());
+            assertEquals(a.nextTime(day), b.nextTime(day));
+            for (CartItem item : cartA) {
+                latteLines += item.getDrink() == latte ? 1 : 0;
+                teaLines += item.getDrink() == greenTea ? 1 : 0;
+            }
+        }
+        assertTrue("Zipf: first drink is the most popular", latteLines > teaLines);
+
+        LoadDriver driver = new LoadDriver(tracker.getMenu(), AddonCatalog.standard(), 7L);
+        driver.setDay(day);
+        driver.setWarmupOrders(100);
+        LoadDriver.Report report = driver.run(4, 20000, 0);
+        assertEquals(20000, report.getOrders());
+        assertEquals(20000, report.getLatencyMicros().getCount());
+        assertTrue(report.getThroughput() > 0);
+
+        // Every order went through checkout: order store, statistics, sold bitmaps at its generated time
+        SalesStatistics stats = report.getStatistics();
+        assertEquals(20000, report.getStoredOrders());
+        assertEquals(20000, stats.getOrderValueHistogram().getCount());
+        assertTrue(stats.getTotalRevenue() > 0);
+        assertTrue(stats.getUnsoldDrinks(tracker.getMenu()).isEmpty());
+        SoldDrinkBitmaps sold = stats.getSoldDrinks();
+        assertTrue(sold.soldBetween(day, 14, 16).get(sold.idOf(greenTea)));
+        assertTrue(sold.soldOn(day.plusDays(1)).isEmpty());
+        assertTrue(stats.getOrdersWithPromotions() > 0); // happy hour traffic
+    }
+
+    // ======= Test 24: Demand forecast learns the hourly pattern =======
+    @Test
+    public void testDemandForecasterLearnsHourlyPattern() {
+        MenuCatalog catalog = new MenuCatalog(tracker.getMenu());
+        DemandForecaster forecaster = new DemandForecaster(catalog);
+        LocalDate day = LocalDate.of(2024, 3, 1);
+        for (int d = 0; d < 10; d++) {
+            LocalDateTime morning = day.plusDays(d).atTime(8, 15);
+            LocalDateTime afternoon = day.plusDays(d).atTime(15, 30);
+            forecaster.recordOrder(new Order(Arrays.asList(new CartItem(latte, 10, 0, 0)),
+                    45.0, 0.0, 0.0, null, 45.0, 0.0, 45.0, morning));
+            forecaster.recordOrder(new Order(Arrays.asList(new CartItem(greenTea, 4, 0, 0)),
+                    14.0, 0.0, 0.0, null, 14.0, 0.0, 14.0, afternoon));
+        }
+        // Next morning at 7 AM: the 8 AM forecast is the latte rush, no tea
+        forecaster.recordOrder(new Order(Arrays.asList(new CartItem(cappuccino, 1, 0, 0)),
+                4.0, 0.0, 0.0, null, 4.0, 0.0, 4.0, day.plusDays(10).atTime(7, 5)));
+        double[] nextHour = forecaster.forecastNextHour();
+        assertEquals(10.0, nextHour[catalog.idOf("Latte", "Grande")], 0.01);
+        assertEquals(0.0, nextHour[catalog.idOf("Green Tea", "Tall")], 0.01);
+        assertEquals(4.0, forecaster.forecast(catalog.idOf("Green Tea", "Tall"), 15), 0.01);
+        assertEquals("Latte (Grande)", forecaster.topNextHour(1).keySet().iterator().next());
+
+        tracker.checkout(Arrays.asList(new CartItem(latte, 2, 0, 0)));
+        assertNotNull(tracker.getDemandForecaster().getCurrentHour());
+    }
+
+    // ======= Test 25: Inventory reserves without overselling =======
+    @Test
+    public void testInventoryReservesWithoutOverselling() throws Exception {
+        Drink pumpkin = DrinkFactory.createDrink("Pumpkin Spice Latte", "Grande", 5.25, "Seasonal");
+        tracker.addDrinkForTest(pumpkin);
+        Inventory inventory = new Inventory(new MenuCatalog(tracker.getMenu()), AddonCatalog.standard(),
+                Arrays.asList("pumpkin sauce", "espresso", "vanilla syrup"));
+        inventory.addDrinkUsage("Pumpkin Spice Latte", null, "pumpkin sauce", 3);
+        inventory.addDrinkUsage("Pumpkin Spice Latte", null, "espresso", 2);
+        inventory.addAddonUsage(AddonCatalog.VANILLA_SYRUP, "vanilla syrup", 1);
+        inventory.restock("pumpkin sauce", 3 * 500);
+        inventory.restock("espresso", 1_000_000);
+        inventory.restock("vanilla syrup", 1);
+        List<String> feed = new CopyOnWriteArrayList<>();
+        inventory.addListener((item, available) -> feed.add(item + (available ? " back" : " out")));
+        tracker.useInventory(inventory);
+
+        // All or nothing: the vanilla is short, so the pumpkin sauce is given back
+        Inventory.Reservation failed = inventory.reserve(Arrays.asList(
+                new CartItem(pumpkin, 1, 0, 0), new CartItem(latte, 1, 2, 0)));
+        assertFalse(failed.isReserved());
+        assertEquals("vanilla syrup", failed.getShortage());
+        assertEquals(1500, inventory.getStock("pumpkin sauce"));
+
+        // Eight registers race for 500 drinks
+        ExecutorService registers = Executors.newFixedThreadPool(8);
+        AtomicInteger sold = new AtomicInteger();
+        List<Future<?>> runs = new ArrayList<>();
+        for (int r = 0; r < 8; r++) {
+            runs.add(registers.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    if (inventory.reserve(Arrays.asList(new CartItem(pumpkin, 1, 0, 0))).isReserved()) {
+                        sold.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> run : runs) {
+            run.get();
+        }
+        registers.shutdown();
+        assertEquals(500, sold.get());
+        assertEquals(0, inventory.getStock("pumpkin sauce"));
+        assertEquals(1_000_000 - 1000, inventory.getStock("espresso"));
+
+        // The depletion feed hides the drink and checkout refuses it
+        assertEquals(Arrays.asList("Pumpkin Spice Latte (Grande) out"), feed);
+        assertTrue(tracker.searchByTypeForTest("Seasonal").isEmpty());
+        try {
+            tracker.checkout(Arrays.asList(new CartItem(pumpkin, 1, 0, 0)));
+            fail("Sold-out drink was sold");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("pumpkin sauce"));
+        }
+
+        inventory.restock("pumpkin sauce", 30);
+        assertEquals(Arrays.asList(pumpkin), tracker.searchByTypeForTest("Seasonal"));
+        assertEquals("Pumpkin Spice Latte (Grande) back", feed.get(1));
+    }
+
+    // ======= Test 26: Prep scheduler routes, ages and steals =======
+    @Test
+    public void testPrepSchedulerRoutesAgesAndSteals() throws Exception {
+        // Priority with aging: an urgent ticket passes recent tickets but not old ones
+        List<String> made = new CopyOnWriteArrayList<>();
+        PrepScheduler scheduler = new PrepScheduler(Map.of(PrepScheduler.Station.ESPRESSO_BAR, 1),
+                task -> made.add(task.getDrink().getName()), 20, 1.0);
+        PromotionManager none = new PromotionManager(new ArrayList<>());
+        OrderPricer pricer = new OrderPricer(none);
+        Drink mocha = DrinkFactory.createDrink("Mocha", "Grande", 4.75, "Coffee");
+        scheduler.submit(pricer.price(Arrays.asList(new CartItem(cappuccino, 1, 0, 0))));
+        Thread.sleep(60); // the cappuccino has waited three aging periods
+        scheduler.submit(pricer.price(Arrays.asList(new CartItem(latte, 1, 0, 0))));
+        scheduler.submit(pricer.price(Arrays.asList(new CartItem(mocha, 1, 0, 0))), 2);
+        PrepScheduler.Ticket tea = scheduler.submit(pricer.price(Arrays.asList(new CartItem(greenTea, 2, 0, 0))));
+        assertEquals(3, scheduler.getQueueDepth(PrepScheduler.Station.ESPRESSO_BAR));
+        assertEquals(2, scheduler.getQueueDepth(PrepScheduler.Station.COLD_BAR));
+        scheduler.start();
+        assertTrue(tea.await(5000));
+        assertTrue(scheduler.awaitIdle(5000));
+        scheduler.close();
+        // The urgent mocha passes the latte but not the cappuccino; the teas are
+        // stolen from the cold bar once the espresso bar is empty
+        assertEquals(Arrays.asList("Cappuccino", "Mocha", "Latte", "Green Tea", "Green Tea"), made);
+        assertEquals(2, scheduler.getStolenTasks());
+        assertEquals(4, scheduler.getTicketSeconds().getCount());
+
+        // Simulation: 1 simulated second = 0.2 ms
+        double scale = 0.0002;
+        PrepScheduler simulated = new PrepScheduler(
+                Map.of(PrepScheduler.Station.ESPRESSO_BAR, 2, PrepScheduler.Station.COLD_BAR, 1),
+                PrepScheduler.simulatedWork(scale), 60_000, scale);
+        PrepScheduler.SimulationReport report = PrepScheduler.simulate(simulated, tracker.getMenu(), 300, 120, 3L);
+        assertEquals(300, report.getOrders());
+        assertEquals(300, report.getTicketSeconds().getCount());
+        assertTrue(report.getDrinks() >= 300);
+        assertTrue(report.getTicketSeconds().getMedian() >= 40);
+        assertTrue(report.isComplete());
+        assertEquals(report.getDrinks(), report.getWaitSeconds().getCount());
+
+        // Idle baristas sleep until an order is submitted instead of polling
+        PrepScheduler quiet = new PrepScheduler(Map.of(PrepScheduler.Station.ESPRESSO_BAR, 2), task -> { }, 60_000, 1.0);
+        quiet.start();
+        try {
+            Thread.sleep(50);
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith("barista-")) {
+                    assertTrue(thread.getState() != Thread.State.TIMED_WAITING);
+                }
+            }
+            assertTrue(quiet.submit(pricer.price(Arrays.asList(new CartItem(greenTea, 1, 0, 0)))).await(1000));
+        } finally {
+            quiet.close();
+        }
+    }
+
+    // ======= Test 27: Order ids and duplicate uploads =======
+    @Test
+    public void testOrderIdsAndDuplicateUploads() {
+        // Ids are time-ordered and stay unique past 4096 orders in one millisecond
+        Instant now = Instant.parse("2026-03-02T08:00:00Z");
+        Clock fixed = Clock.fixed(now, ZoneId.of("UTC"));
+        OrderIdGenerator register = new OrderIdGenerator(7, fixed);
+        long previous = -1;
+        for (int i = 0; i < 10_000; i++) {
+            long id = register.next();
+            assertTrue(id > previous);
+            previous = id;
+        }
+        assertEquals(7, OrderIdGenerator.nodeOf(previous));
+        assertEquals(now.toEpochMilli() + 2, OrderIdGenerator.millisOf(previous));
+
+        // Every upload is retried once; each order is counted once
+        SalesStatistics stats = new SalesStatistics();
+        List<Order> persisted = Collections.synchronizedList(new ArrayList<>());
+        DuplicateOrderFilter duplicates = new DuplicateOrderFilter(Duration.ofHours(24), 24, 1000, fixed);
+        OrderPipeline pipeline = new OrderPipeline(new DrinkSearchIndex(tracker.getMenu()), tracker.getOrderPricer(),
+                stats, persisted::addAll, new OrderPipeline.StageSettings(4, 8, 8), duplicates);
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            long id = register.next();
+            ids.add(id);
+            pipeline.submit("#" + id + ";Latte,Grande,1");
+            pipeline.submit("#" + id + ";Latte,Grande,1");
+        }
+        // An upload from a register offline for a day cannot be checked, but is not lost
+        long stale = OrderIdGenerator.compose(now.toEpochMilli() - 25 * 3_600_000L, 1);
+        ids.add(stale);
+        pipeline.submit("#" + stale + ";Latte,Grande,1");
+        pipeline.close();
+        assertEquals(201, persisted.size());
+        assertEquals(201, stats.getTotalDrinksSold());
+        assertEquals(200L, (long) pipeline.getMetrics().get("duplicateLines"));
+        assertEquals(1L, (long) pipeline.getMetrics().get("uncheckedLines"));
+        assertEquals(200, duplicates.getDuplicates());
+        assertEquals(1, duplicates.getOutOfWindow());
+        for (Order order : persisted) {
+            assertTrue(ids.remove(order.getId()));
+            assertEquals(OrderIdGenerator.instantOf(order.getId()),
+                    order.getTimestamp().atZone(ZoneId.systemDefault()).toInstant());
+        }
+
+        // No false duplicates across many ids; rolling the window forgets old partitions
+        DuplicateOrderFilter filter = new DuplicateOrderFilter(Duration.ofHours(2), 2, 100_000, fixed);
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(DuplicateOrderFilter.Result.NEW,
+                    filter.add(OrderIdGenerator.compose(now.toEpochMilli() - 3_600_000L + i, i)));
+        }
+        assertTrue(filter.contains(OrderIdGenerator.compose(now.toEpochMilli() - 3_600_000L, 0)));
+        assertEquals(DuplicateOrderFilter.Result.DUPLICATE,
+                filter.add(OrderIdGenerator.compose(now.toEpochMilli() - 3_600_000L + 5, 5)));
+        assertEquals(DuplicateOrderFilter.Result.NEW, filter.add(OrderIdGenerator.compose(now.toEpochMilli() + 3_600_000L, 0)));
+        assertFalse(filter.contains(OrderIdGenerator.compose(now.toEpochMilli() - 3_600_000L, 0)));
+        assertEquals(DuplicateOrderFilter.Result.UNCHECKABLE,
+                filter.add(OrderIdGenerator.compose(now.toEpochMilli() - 3_600_000L, 0)));
+        assertEquals(DuplicateOrderFilter.Result.UNCHECKABLE,
+                filter.add(OrderIdGenerator.compose(now.toEpochMilli() + 3 * 3_600_000L, 0)));
+        assertTrue(filter.getFalsePositives() < 2_000);
+    }
+
+    // ======= Test 28: Sold-drink bitmaps answer coverage queries =======
+    @Test
+    public void testSoldDrinkBitmapsAnswerCoverageQueries() {
+        MenuCatalog catalog = new MenuCatalog(Arrays.asList(latte, cappuccino, greenTea));
+        SalesStatistics stats = new SalesStatistics();
+        stats.trackSoldDrinks(catalog);
+        LocalDate monday = LocalDate.of(2026, 3, 2);
+        OrderPricer pricer = new OrderPricer(null);
+        BiConsumer<Drink, LocalDateTime> sell = (drink, time) ->
+                stats.recordOrder(pricer.price(Arrays.asList(new CartItem(drink, 1, 0, 0)), time));
+        sell.accept(latte, monday.atTime(7, 10));
+        sell.accept(greenTea, monday.atTime(15, 0));
+        sell.accept(latte, monday.plusDays(1).atTime(8, 0));
+        sell.accept(cappuccino, monday.plusDays(1).atTime(7, 30));
+        sell.accept(latte, monday.plusDays(2).atTime(10, 0));
+        sell.accept(cappuccino, monday.atTime(20, 0)); // late upload for a compressed day
+
+        SoldDrinkBitmaps sold = stats.getSoldDrinks();
+        assertEquals(Set.of("Latte (Grande)", "Cappuccino (Grande)", "Green Tea (Tall)"),
+                sold.names(sold.unsold(sold.soldBetween(monday.plusDays(2), 6, 9))));
+        assertEquals(Set.of("Green Tea (Tall)"), sold.names(sold.unsold(sold.soldBetween(monday.plusDays(1), 6, 9))));
+        assertEquals(Set.of("Latte (Grande)"), sold.names(sold.soldEveryDay(monday, monday.plusDays(2))));
+        assertEquals(3, sold.soldAnyDay(monday, monday.plusDays(6)).cardinality());
+        assertEquals(3, sold.soldOn(monday).cardinality());
+        assertTrue(sold.soldEveryDay(monday, monday.plusDays(3)).isEmpty());
+        assertTrue(stats.getUnsoldDrinks(catalog.getDrinks()).isEmpty());
+        SalesStatistics.Snapshot before = stats.publishSnapshot();
+        assertTrue(before.getUnsoldDrinks(catalog.getDrinks()).isEmpty());
+
+        // Reloading the menu keeps what sold, under the new ids
+        Drink mocha = DrinkFactory.createDrink("Mocha", "Grande", 4.75, "Coffee");
+        stats.trackSoldDrinks(new MenuCatalog(Arrays.asList(mocha, greenTea, latte)));
+        sold = stats.getSoldDrinks();
+        assertEquals(Set.of("Green Tea (Tall)", "Latte (Grande)"), sold.names(sold.soldOn(monday)));
+        assertEquals(Set.of("Mocha (Grande)"), stats.getUnsoldDrinks(Arrays.asList(mocha, greenTea, latte)));
+        assertEquals(Set.of("Mocha (Grande)"), stats.publishSnapshot().getUnsoldDrinks(Arrays.asList(mocha, greenTea, latte)));
+        sell.accept(mocha, monday.plusDays(2).atTime(11, 0));
+        assertEquals(Set.of("Mocha (Grande)"), before.getUnsoldDrinks(Arrays.asList(mocha, greenTea, latte)));
+        assertTrue(stats.publishSnapshot().getUnsoldDrinks(Arrays.asList(mocha, greenTea, latte)).isEmpty());
+
+        // Compression keeps runs of empty and full words small and round-trips exactly
+        long[] words = new long[24 * 4];
+        words[7 * 4] = 0b1011L;
+        Arrays.fill(words, 12 * 4, 14 * 4, -1L);
+        words[15 * 4 + 3] = 1L << 40;
+        long[] compressed = SoldDrinkBitmaps.compress(words);
+        assertEquals(7, compressed.length); // 5 runs, 2 literal words
+        assertTrue(Arrays.equals(words, SoldDrinkBitmaps.decompress(compressed, words.length)));
+    }
+
+    // ======= Test 29: Anomaly detector flags a runaway discount =======
+    @Test
+    public void testSalesAnomalyDetectorFlagsRunawayDiscount() {
+        SalesAnomalyDetector detector = new SalesAnomalyDetector();
+        List<SalesAnomalyDetector.Anomaly> alerts = new ArrayList<>();
+        detector.addListener(alerts::add);
+        LocalDateTime open = LocalDateTime.of(2026, 3, 2, 10, 0);
+        // Two orders a minute; one in five gets 10% off, until a misconfigured 40% runs 2-4 PM
+        List<Order> day = new ArrayList<>();
+        for (int minute = 0; minute < 390; minute++) {
+            for (int k = 0; k < 2; k++) {
+                Drink drink = k == 0 ? latte : greenTea;
+                boolean runaway = minute >= 240 && minute < 360;
+                boolean bulk = (minute * 2 + k) % 5 == 0;
+                double base = drink.getPrice() * 2;
+                double discount = runaway ? base * 0.4 : bulk ? base * 0.1 : 0.0;
+                String promotion = runaway ? "Happy Hour" : bulk ? "Bulk Order Discount" : null;
+                double subtotal = base - discount;
+                day.add(new Order(Arrays.asList(new CartItem(drink, 2, 0, 0)), base, 0.0, discount, promotion,
+                        subtotal, subtotal * 0.0825, subtotal * 1.0825, open.plusMinutes(minute).plusSeconds(20 * k)));
+            }
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean measured = threads instanceof com.sun.management.ThreadMXBean;
+        for (Order order : day.subList(0, 200)) {
+            detector.recordOrder(order); // warm up
+        }
+        long before = measured ? ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes() : 0;
+        for (Order order : day.subList(200, 480)) {
+            detector.recordOrder(order);
+        }
+        long allocated = measured ? ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes() - before : 0;
+        assertTrue("allocated " + allocated, allocated < 4096);
+        assertTrue(alerts.isEmpty());
+
+        for (Order order : day.subList(480, day.size())) {
+            detector.recordOrder(order);
+        }
+        detector.advanceTo(open.plusMinutes(391));
+        // The first runaway minute trips the discount cap (and the revenue drop);
+        // the discount alert stays open until the promotion is fixed
+        assertEquals(open.plusMinutes(240), alerts.get(0).getMinute());
+        SalesAnomalyDetector.Anomaly raised = null;
+        SalesAnomalyDetector.Anomaly cleared = null;
+        for (SalesAnomalyDetector.Anomaly alert : alerts) {
+            if (alert.getMetric() == SalesAnomalyDetector.Metric.DISCOUNT_RATIO) {
+                if (alert.isCleared()) {
+                    assertNull(cleared);
+                    cleared = alert;
+                } else {
+                    assertNull(raised);
+                    raised = alert;
+                }
+            }
+        }
+        assertEquals(open.plusMinutes(240), raised.getMinute());
+        assertEquals(0.4, raised.getValue(), 1e-9);
+        assertEquals(open.plusMinutes(360), cleared.getMinute());
+        for (SalesAnomalyDetector.Anomaly alert : detector.getActiveAnomalies()) {
+            assertTrue(alert.getMetric() != SalesAnomalyDetector.Metric.DISCOUNT_RATIO);
+        }
+        assertEquals(0.5, detector.getMean(SalesAnomalyDetector.Metric.CATEGORY_SHARE, "Tea"), 1e-9);
+    }
+
+    // ======= Test 30: Statistics snapshots stay consistent under concurrent recording =======
+    @Test
+    public void testStatisticsSnapshotsStayConsistentUnderConcurrentRecording() throws Exception {
+        SalesStatistics stats = new SalesStatistics();
+        SalesStatistics.Snapshot empty = stats.getSnapshot();
+        assertEquals(0, empty.getOrderCount());
+        assertNull(empty.getMostPopularDrink());
+        assertTrue(empty == stats.publishSnapshot()); // nothing changed, nothing copied
+
+        // Every order is 2 lattes, so each figure can be checked against the order count
+        LocalDateTime open = LocalDateTime.of(2026, 3, 2, 7, 0);
+        double base = latte.getPrice() * 2;
+        int orders = 20_000;
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < orders; i++) {
+                stats.recordOrder(new Order(Arrays.asList(new CartItem(latte, 2, 0, 0)), base, 0.0, 0.0, null,
+                        base, base * 0.0825, base * 1.0825, open.plusSeconds(i)));
+                stats.publishSnapshot();
+            }
+        });
+        writer.start();
+        long lastVersion = -1;
+        int reads = 0;
+        while (writer.isAlive() || reads == 0) {
+            SalesStatistics.Snapshot snapshot = stats.getSnapshot();
+            long n = snapshot.getOrderCount();
+            assertTrue(snapshot.getVersion() >= lastVersion);
+            lastVersion = snapshot.getVersion();
+            assertEquals(2 * n, snapshot.getTotalDrinksSold());
+            assertEquals(n * base * 1.0825, snapshot.getTotalRevenue(), 1e-6 * (n + 1));
+            assertEquals(n, snapshot.getOrderValueHistogram().getCount());
+            int categoryItems = 0;
+            for (int count : snapshot.getCategoryItemCount().values()) {
+                categoryItems += count;
+            }
+            assertEquals(2 * n, categoryItems);
+            assertEquals(n == 0 ? 0 : 2 * n, snapshot.getMostPopularDrinkCount());
+            reads++;
+        }
+        writer.join();
+
+        SalesStatistics.Snapshot last = stats.getSnapshot();
+        assertEquals(orders, last.getOrderCount());
+        assertTrue(last == stats.getSnapshot());
+        // A published snapshot does not move with later orders
+        stats.recordOrder(new Order(Arrays.asList(new CartItem(latte, 2, 0, 0)), base, 0.0, 0.0, null,
+                base, base * 0.0825, base * 1.0825, open));
+        assertEquals(orders, last.getOrderCount());
+        assertEquals(orders + 1, stats.publishSnapshot().getOrderCount());
+        // Nor does a reader recording into the histogram it was handed
+        last.getBasketSizeHistogram().record(50);
+        assertEquals(orders, last.getBasketSizeHistogram().getCount());
+        assertEquals(2.0, last.getBasketSizeHistogram().getMax(), 0.0);
+        assertTrue(stats.getSnapshot().getUnsoldDrinks(Arrays.asList(latte, greenTea)).contains(
+                greenTea.getName() + " (" + greenTea.getSize() + ")"));
+    }
+
+    // ======= Test 31: Segments left behind by an interrupted compaction are not replayed twice =======
+    @Test
+    public void testJournalReplaySkipsCompactedSegments() throws Exception {
+        Path dir = tempDirectory("journal");
+        LocalDate day = LocalDate.of(2024, 3, 1);
+        List<Order> written = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            Order priced = tracker.getOrderPricer().price(Arrays.asList(new CartItem(latte, 1, 0, 0)));
+            written.add(new Order(priced.getItems(), priced.getBaseTotal(), priced.getAddonsTotal(),
+                    priced.getDiscount(), priced.getPromotionName(), priced.getSubtotalBeforeTax(),
+                    priced.getTax(), priced.getFinalTotal(), day.atTime(9, 0).plusMinutes(i)));
+        }
+        try (OrderJournal journal = new OrderJournal(dir, new MenuCatalog(tracker.getMenu()), 20)) {
+            journal.write(written);
+            journal.flush();
+            // Keep a segment, compact, then put it back: a crash before the segments were deleted
+            Path segment = journal.segmentsFor(day).get(0);
+            Path saved = Files.copy(segment, dir.resolve("saved.bin"));
+            journal.compact(day);
+            Files.move(saved, segment);
+
+            List<Order> replayed = journal.readDay(day);
+            assertEquals(30, replayed.size());
+            Set<Long> ids = new HashSet<>();
+            for (Order order : replayed) {
+                assertTrue(ids.add(order.getId()));
+            }
+
+            // Orders journaled after the compaction still replay, and the next compaction removes the leftover
+            journal.write(Arrays.asList(tracker.getOrderPricer().price(
+                    Arrays.asList(new CartItem(greenTea, 1, 0, 0)), day.atTime(17, 0))));
+            assertEquals(31, journal.readDay(day).size());
+            journal.compact(day);
+            assertTrue(journal.segmentsFor(day).isEmpty());
+            assertEquals(31, journal.readDay(day).size());
+        }
+    }
+
+    // ======= Test 32: Store overlay changes reach search and stay consistent while iterated =======
+    @Test
+    public void testMenuOverlayChangesReachSearchIndex() throws Exception {
+        MenuCatalog catalog = new MenuCatalog(Arrays.asList(latte, cappuccino, greenTea));
+        MenuOverlay overlay = new MenuOverlay(catalog);
+        tracker.useMenu(overlay);
+        assertEquals(4.50, tracker.findMenuItem("Latte", "Grande").getPrice(), 0.0001);
+
+        overlay.setPrice(catalog.idOf("Latte", "Grande"), 9.99);
+        assertEquals(9.99, tracker.getMenu().get(0).getPrice(), 0.0001);
+        assertEquals(9.99, tracker.findMenuItem("Latte", "Grande").getPrice(), 0.0001);
+        overlay.setAvailable(catalog.idOf("Green Tea", "Tall"), false);
+        assertNull(tracker.findMenuItem("Green Tea", "Tall"));
+        overlay.setAvailable(catalog.idOf("Green Tea", "Tall"), true);
+        assertEquals(3.50, tracker.findMenuItem("Green Tea", "Tall").getPrice(), 0.0001);
+
+        // A list from asList() is one state of the overlay: size and elements agree while it changes
+        List<Drink> before = overlay.asList();
+        assertTrue(before == overlay.asList());
+        Thread toggler = new Thread(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                overlay.setAvailable(i % 3, i % 2 == 0);
+            }
+        });
+        toggler.start();
+        while (toggler.isAlive()) {
+            List<Drink> menu = overlay.asList();
+            for (int i = 0; i < menu.size(); i++) {
+                assertNotNull(menu.get(i));
+            }
+        }
+        toggler.join();
+        assertEquals(3, before.size());
+    }
+
+    // ======= Test 33: Co-purchase pruning stays bounded and reports its error =======
+    @Test
+    public void testCoPurchasePruningBoundsTableAndUndercount() {
+        List<Drink> drinks = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            drinks.add(DrinkFactory.createDrink("Drink " + i, "Tall", 2.00, "Coffee"));
+        }
+        // A pair dropped, bought again and dropped again is low by both prunes' thresholds
+        CoPurchaseStatistics small = new CoPurchaseStatistics(16);
+        int next = 2;
+        for (int round = 0; round < 2; round++) {
+            small.recordOrder(basket(drinks.get(0), drinks.get(1)));
+            for (int i = 0; i < 16; i++, next += 2) {
+                small.recordOrder(basket(drinks.get(next % 58 + 2), drinks.get((next + 1) % 58 + 2)));
+            }
+        }
+        assertEquals(0, small.getPairCount("Drink 0", "Drink 1"));
+        assertTrue(small.getMaxUndercount() >= 2);
+
+        // Merging two stores' frequent pairs: more than maxPairs pairs above any count
+        CoPurchaseStatistics merged = new CoPurchaseStatistics(16);
+        CoPurchaseStatistics other = new CoPurchaseStatistics(16);
+        for (int i = 0; i < 100; i++) {
+            merged.recordOrder(basket(drinks.subList(0, 6).toArray(new Drink[0])));
+            other.recordOrder(basket(drinks.subList(6, 12).toArray(new Drink[0])));
+        }
+        assertEquals(15, merged.getTrackedPairs());
+        merged.merge(other);
+        assertTrue(merged.getTrackedPairs() <= 12);
+        assertEquals(100, merged.getMaxUndercount());
+        int kept = 0;
+        for (int a = 0; a < 12; a++) {
+            for (int b = a + 1; b < 12; b++) {
+                int count = merged.getPairCount("Drink " + a, "Drink " + b);
+                boolean together = (a < 6) == (b < 6);
+                assertTrue(count == 0 || (together && count == 100));
+                kept += count > 0 ? 1 : 0;
+            }
+        }
+        assertEquals(merged.getTrackedPairs(), kept);
+    }
+
+    private Order basket(Drink... drinks) {
+        List<CartItem> items = new ArrayList<>();
+        for (Drink drink : drinks) {
+            items.add(new CartItem(drink, 1, 0, 0));
+        }
+        return tracker.getOrderPricer().price(items);
+    }
+
+    // ======= Test 34: Menu snapshot round trip, indexes and fallbacks =======
+    @Test
+    public void testMenuSnapshotRoundTripAndFallbacks() throws Exception {
+        Path dir = tempDirectory("menu");
+        Path csv = dir.resolve("menu.csv");
+        Files.write(csv, Arrays.asList("Drink Name,Drink Type,Size,Price",
+                "Caffe Latte,Coffee,Tall,3.45", "Caffe Latte,Coffee,Grande,4.25",
+                "Chai Tea Latte,Tea,Grande,4.45", "Caffe Mocha,Coffee,Venti,4.95"));
+        Path snapshotPath = MenuSnapshot.snapshotPathFor(csv.toString());
+
+        // First load parses the CSV and writes the snapshot; the next one maps it
+        StarbucksSalesTracker parsed = new StarbucksSalesTracker();
+        parsed.loadMenu(csv.toString());
+        assertTrue(Files.isRegularFile(snapshotPath));
+        MenuSnapshot snapshot = MenuSnapshot.openIfFresh(snapshotPath, csv);
+        assertNotNull(snapshot);
+        List<Drink> restored = snapshot.toMenu();
+        assertEquals(parsed.getMenu().size(), restored.size());
+        for (int i = 0; i < restored.size(); i++) {
+            Drink original = parsed.getMenu().get(i);
+            assertEquals(original.getName(), restored.get(i).getName());
+            assertEquals(original.getSize(), restored.get(i).getSize());
+            assertEquals(original.getCategoryName(), restored.get(i).getCategoryName());
+            assertEquals(original.getPrice(), restored.get(i).getPrice(), 0.0);
+        }
+        assertTrue(Arrays.equals(new int[] {0, 1, 3}, snapshot.recordsInCategory("COFFEE")));
+        assertTrue(Arrays.equals(new int[] {0, 1}, snapshot.recordsNamed("caffe latte")));
+        assertEquals(0, snapshot.recordsNamed("Flat White").length);
+
+        // Lookups on a snapshot-loaded menu go through its indexes
+        StarbucksSalesTracker mapped = new StarbucksSalesTracker();
+        mapped.loadMenu(csv.toString());
+        assertEquals(4.25, mapped.findMenuItem("CAFFE LATTE", "grande").getPrice(), 0.0001);
+        assertNull(mapped.findMenuItem("Caffe Latte", "Venti"));
+        assertEquals(3, mapped.searchByTypeForTest("coffee").size());
+        assertEquals(Arrays.asList("Caffe Mocha"), mapped.suggestDrinkNames("Caffe Moca"));
+
+        // A corrupt body fails its checksum: the CSV is parsed again and the snapshot rewritten
+        byte[] bytes = Files.readAllBytes(snapshotPath);
+        bytes[bytes.length - 1] ^= 0x01;
+        Files.write(snapshotPath, bytes);
+        assertNull(MenuSnapshot.openIfFresh(snapshotPath, csv));
+        StarbucksSalesTracker recovered = new StarbucksSalesTracker();
+        recovered.loadMenu(csv.toString());
+        assertEquals(4, recovered.getMenu().size());
+        assertNotNull(MenuSnapshot.openIfFresh(snapshotPath, csv));
+
+        // An edited CSV makes the snapshot stale
+        Files.write(csv, Arrays.asList("Caffe Americano,Coffee,Tall,2.95"), StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(csv, FileTime.fromMillis(Files.getLastModifiedTime(csv).toMillis() + 2_000));
+        assertNull(MenuSnapshot.openIfFresh(snapshotPath, csv));
+        StarbucksSalesTracker reparsed = new StarbucksSalesTracker();
+        reparsed.loadMenu(csv.toString());
+        assertEquals(5, reparsed.getMenu().size());
+        assertNotNull(reparsed.findMenuItem("Caffe Americano", "Tall"));
+        assertEquals(5, MenuSnapshot.openIfFresh(snapshotPath, csv).size());
+    }
+
+    // ======= Test 35: Checkout follows happy hour as the clock moves =======
+    @Test
+    public void testCheckoutPublishesPromotionWindowsAsClockMoves() {
+        ZoneId zone = ZoneId.systemDefault();
+        ManualClock clock = new ManualClock(LocalDateTime.of(2024, 5, 1, 13, 50).atZone(zone).toInstant(), zone);
+        StarbucksSalesTracker store = new StarbucksSalesTracker(clock);
+        store.addDrinkForTest(greenTea);
+        List<CartItem> tea = Arrays.asList(new CartItem(greenTea, 1, 0, 0));
+
+        Order before = store.checkout(tea);
+        assertEquals(0.0, before.getDiscount(), 0.0001);
+        assertEquals(LocalDateTime.of(2024, 5, 1, 13, 50), before.getTimestamp());
+
+        // No refreshPromotions() and no scheduler thread: checkout notices the boundary itself
+        clock.advance(Duration.ofMinutes(20));
+        assertEquals(0.70, store.checkout(tea).getDiscount(), 0.0001);
+        clock.advance(Duration.ofHours(2));
+        assertEquals(0.0, store.checkout(tea).getDiscount(), 0.0001);
+
+        // A clock set back into the window is noticed too
+        clock.set(LocalDateTime.of(2024, 5, 1, 15, 0).atZone(zone).toInstant());
+        assertEquals(0.70, store.checkout(tea).getDiscount(), 0.0001);
+    }
+
+    // ======= Test 36: Fleet checkout uses the store's overlay =======
+    @Test
+    public void testFleetCheckoutResolvesThroughStoreOverlay() {
+        try (StoreFleet fleet = new StoreFleet(2, Arrays.asList(latte, cappuccino, greenTea))) {
+            fleet.addStore("downtown").join();
+            fleet.addStore("airport").join();
+            MenuCatalog catalog = fleet.getCatalog();
+            MenuOverlay airport = fleet.getMenuOverlay("airport");
+            airport.setPrice(catalog.idOf("Latte", "Grande"), 5.25);
+            airport.setAvailable(catalog.idOf("Cappuccino", "Grande"), false);
+
+            // Carts built from the shared base menu
+            List<CartItem> latteCart = Arrays.asList(new CartItem(latte, 2, 1, 0));
+            assertEquals(2 * 4.50, fleet.submitOrder("downtown", latteCart).join().getBaseTotal(), 0.0001);
+            Order regional = fleet.submitOrder("airport", latteCart).join();
+            assertEquals(2 * 5.25, regional.getBaseTotal(), 0.0001);
+            assertEquals(1, regional.getItem(0).getVanillaShots());
+
+            List<CartItem> cappuccinoCart = Arrays.asList(new CartItem(cappuccino, 1, 0, 0));
+            assertEquals(4.00, fleet.submitOrder("downtown", cappuccinoCart).join().getBaseTotal(), 0.0001);
+            try {
+                fleet.submitOrder("airport", cappuccinoCart).join();
+                fail("A delisted drink was sold");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            assertEquals(1, (int) fleet.query("airport", store -> store.getCompletedOrders().size()).join());
+        }
+    }
+
+    // ======= Test 37: Pipeline ingests any catalog add-on by name =======
+    @Test
+    public void testOrderPipelineParsesNamedAddons() throws Exception {
+        AddonCatalog addons = new AddonCatalog(
+                Arrays.asList("vanilla syrup", "extra shot", "oat milk", "cold foam"),
+                Arrays.asList("vanilla", "extra shot", "oat", "cold foam"),
+                new double[] {0.60, 0.50, 0.70, 1.00});
+        SalesStatistics stats = new SalesStatistics();
+        List<Order> persisted = Collections.synchronizedList(new ArrayList<>());
+        OrderPipeline pipeline = new OrderPipeline(new DrinkSearchIndex(tracker.getMenu()),
+                tracker.getOrderPricer(), stats, persisted::addAll, new OrderPipeline.StageSettings(2, 4, 4));
+        pipeline.useAddons(addons);
+
+        pipeline.submit("Latte,Grande,2,Oat Milk:1,cold foam:2");
+        pipeline.submit("Green Tea,Tall,1,1,0,cold foam:1"); // legacy columns, then named
+        pipeline.submit("Latte,Grande,1,caramel drizzle:1"); // not in the catalog
+        pipeline.submit("Latte,Grande,1,cold foam:200,cold foam:100");
+        pipeline.submit("Latte,Grande,1,oat milk");
+        pipeline.close();
+
+        assertEquals(2, persisted.size());
+        assertEquals(3L, (long) pipeline.getMetrics().get("rejectedLines"));
+        assertEquals(Integer.valueOf(5), stats.getAddonCount().get("cold foam"));
+        assertEquals(Integer.valueOf(2), stats.getAddonCount().get("oat milk"));
+        assertEquals(Integer.valueOf(1), stats.getAddonCount().get("vanilla syrup"));
+        Order foam = persisted.get(0).getItem(0).getDrink() == latte ? persisted.get(0) : persisted.get(1);
+        assertEquals(2 * (0.70 + 2 * 1.00), foam.getAddonsTotal(), 1e-9);
+        assertSame(addons, foam.getItem(0).getAddonCatalog());
+    }
 }
@@ -0,0 +1,201 @@
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Hosts many stores in one JVM.
+ * Stores are partitioned across worker threads: every store is owned by exactly
+ * one worker, which performs all of its checkouts and reads, so each store has
+ * a single writer and needs no locks. Fleet-wide summaries are produced on
+ * demand by having each worker merge the statistics of its own stores and then
+ * merging the per-worker results. All stores share one {@link MenuCatalog};
+ * each has its own sparse {@link MenuOverlay} for regional prices and
+ * availability. Time-window promotions are refreshed
+ * periodically on each worker rather than by one scheduler thread per store.
+ */
+public class StoreFleet implements AutoCloseable {
+    private final MenuCatalog catalog;
+    private final Clock clock;
+    private static final long PROMOTION_REFRESH_SECONDS = 30;
+    
+    private final ExecutorService[] workers;
+    private final ScheduledExecutorService promotionTicker;
+    private final Map<String, StarbucksSalesTracker> stores = new ConcurrentHashMap<>();
+    private final Map<String, MenuOverlay> overlays = new ConcurrentHashMap<>();
+    private final Map<String, Integer> storeWorker = new ConcurrentHashMap<>();
+    
+    public StoreFleet(int workerCount, List<Drink> baseMenu) {
+        this(workerCount, baseMenu, Clock.systemDefaultZone());
+    }
+    
+    public StoreFleet(int workerCount, List<Drink> baseMenu, Clock clock) {
+        this.catalog = new MenuCatalog(baseMenu != null ? baseMenu : Collections.emptyList());
+        this.clock = clock;
+        this.workers = new ExecutorService[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            final int worker = i;
+            workers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "store-worker-" + worker);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.promotionTicker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "store-promotion-ticker");
+            t.setDaemon(true);
+            return t;
+        });
+        promotionTicker.scheduleAtFixedRate(this::refreshPromotions,
+                PROMOTION_REFRESH_SECONDS, PROMOTION_REFRESH_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Opens a store on the worker chosen by its id.
+     * @param storeId the store id
+     * @return a future completing once the store is ready
+     */
+    public CompletableFuture<Void> addStore(String storeId) {
+        int worker = Math.floorMod(storeId.hashCode(), workers.length);
+        if (storeWorker.putIfAbsent(storeId, worker) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        MenuOverlay overlay = new MenuOverlay(catalog);
+        overlays.put(storeId, overlay);
+        // Build the store on its owning worker so all its state stays thread-confined
+        return CompletableFuture.runAsync(() -> {
+            StarbucksSalesTracker store = new StarbucksSalesTracker(clock);
+            store.useMenu(overlay);
+            stores.put(storeId, store);
+        }, workers[worker]);
+    }
+    
+    /**
+     * Checks out a cart at a store, on that store's worker thread. Each line
+     * is resolved through the store's overlay first, so it is priced at the
+     * store's price even if it was built from the base catalog.
+     * @param storeId the store id
+     * @param items the cart lines
+     * @return a future with the completed order; it fails with an
+     *         IllegalArgumentException for a drink not on the catalog and an
+     *         IllegalStateException for one the store does not sell
+     */
+    public CompletableFuture<Order> submitOrder(String storeId, List<CartItem> items) {
+        Integer worker = storeWorker.get(storeId);
+        if (worker == null) {
+            CompletableFuture<Order> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("Unknown store: " + storeId));
+            return failed;
+        }
+        MenuOverlay overlay = overlays.get(storeId);
+        return CompletableFuture.supplyAsync(
+                () -> stores.get(storeId).checkout(resolve(storeId, overlay, items)), workers[worker]);
+    }
+    
+    // The store's version of each line's drink; lines already at the store's price are kept
+    private List<CartItem> resolve(String storeId, MenuOverlay overlay, List<CartItem> items) {
+        List<CartItem> resolved = new ArrayList<>(items.size());
+        for (CartItem item : items) {
+            Drink drink = item.getDrink();
+            int id = catalog.idOf(drink.getName(), drink.getSize());
+            if (id < 0) {
+                throw new IllegalArgumentException("Not on the menu: " + item.getDisplayString());
+            }
+            if (!overlay.isAvailable(id)) {
+                throw new IllegalStateException("Not sold at store " + storeId + ": " + item.getDisplayString());
+            }
+            resolved.add(item.withDrink(overlay.drinkAt(id)));
+        }
+        return resolved;
+    }
+    
+    /**
+     * Runs a read-only task against a store on its worker thread.
+     * @param storeId the store id
+     * @param task the task
+     * @return a future with the task's result
+     */
+    public <T> CompletableFuture<T> query(String storeId, java.util.function.Function<StarbucksSalesTracker, T> task) {
+        Integer worker = storeWorker.get(storeId);
+        if (worker == null) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("Unknown store: " + storeId));
+            return failed;
+        }
+        return CompletableFuture.supplyAsync(() -> task.apply(stores.get(storeId)), workers[worker]);
+    }
+    
+    /**
+     * Builds fleet-wide statistics by merging every store's aggregates.
+     * Each worker merges its own stores, so no store is read off its owner thread.
+     * @return merged statistics for the whole fleet
+     */
+    public SalesStatistics fleetStatistics() {
+        List<CompletableFuture<SalesStatistics>> partials = new ArrayList<>();
+        for (int i = 0; i < workers.length; i++) {
+            final int worker = i;
+            partials.add(CompletableFuture.supplyAsync(() -> {
+                SalesStatistics partial = new SalesStatistics();
+                for (Map.Entry<String, Integer> entry : storeWorker.entrySet()) {
+                    StarbucksSalesTracker store = stores.get(entry.getKey());
+                    if (entry.getValue() == worker && store != null) {
+                        partial.merge(store.getStatistics());
+                    }
+                }
+                return partial;
+            }, workers[worker]));
+        }
+        SalesStatistics fleet = new SalesStatistics();
+        for (CompletableFuture<SalesStatistics> partial : partials) {
+            fleet.merge(partial.join());
+        }
+        return fleet;
+    }
+    
+    // Asks each worker to publish due promotion windows for the stores it owns
+    private void refreshPromotions() {
+        for (int i = 0; i < workers.length; i++) {
+            final int worker = i;
+            workers[i].execute(() -> {
+                for (Map.Entry<String, Integer> entry : storeWorker.entrySet()) {
+                    StarbucksSalesTracker store = stores.get(entry.getKey());
+                    if (entry.getValue() == worker && store != null) {
+                        store.refreshPromotions();
+                    }
+                }
+            });
+        }
+    }
+    
+    public MenuCatalog getCatalog() {
+        return catalog;
+    }
+    
+    /**
+     * Returns a store's menu overlay. Overrides may be changed from any
+     * thread; the store sees them on its next read.
+     * @param storeId the store id
+     * @return the overlay, or null for an unknown store
+     */
+    public MenuOverlay getMenuOverlay(String storeId) {
+        return overlays.get(storeId);
+    }
+    
+    public Set<String> getStoreIds() {
+        return new TreeSet<>(storeWorker.keySet());
+    }
+    
+    public int getWorkerCount() {
+        return workers.length;
+    }
+    
+    /**
+     * Stops the worker threads after pending work completes.
+     */
+    @Override
+    public void close() {
+        promotionTicker.shutdownNow();
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import java.time.LocalTime;
+
+/**
+ * A promotion that is only live during a daily time window.
+ * The window is enforced by {@link PromotionScheduler}, which publishes the
+ * active set to {@link PromotionManager}, so implementations should not
+ * check the clock in {@code isApplicable}.
+ */
+public interface TimeWindowPromotion extends Promotion {
+    /**
+     * Returns the time of day at which the promotion starts (inclusive).
+     * @return window start
+     */
+    LocalTime getWindowStart();
+    
+    /**
+     * Returns the time of day at which the promotion ends (exclusive).
+     * @return window end
+     */
+    LocalTime getWindowEnd();
+    
+    /**
+     * Checks if the window contains the given time of day.
+     * Windows that wrap past midnight (start after end) are supported.
+     * @param time the time of day
+     * @return true if the promotion is live at that time
+     */
+    default boolean isActiveAt(LocalTime time) {
+        LocalTime start = getWindowStart();
+        LocalTime end = getWindowEnd();
+        if (start.isBefore(end)) {
+            return !time.isBefore(start) && time.isBefore(end);
+        }
+        return !time.isBefore(start) || time.isBefore(end);
+    }
+}
@@ -0,0 +1,176 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ * Seeded generator of realistic carts for load tests and benchmarks.
+ * The same seed and menu always produce the same sequence of carts and times.
+ *
+ * Drink popularity follows a Zipf distribution over the drink names in menu
+ * order (the first name is the most popular). Each name's sizes are drawn
+ * from a size mix (Tall/Grande/Venti 30/50/20, renormalized over the
+ * sizes on the menu). A line gets add-ons with a fixed probability, also
+ * Zipf-ranked over the catalog. Order times follow an hourly traffic curve
+ * with a morning rush, a lunch peak and an afternoon bump that falls in the
+ * Happy Hour window.
+ *
+ * Not thread-safe; give each thread its own generator (e.g. seed + thread).
+ */
+public class WorkloadGenerator {
+    /** Relative orders per hour of the day, midnight first; open 6 AM to 9 PM. */
+    static final double[] DEFAULT_HOURLY_TRAFFIC = {
+        0, 0, 0, 0, 0, 0, 4, 10, 12, 8, 5, 6, 8, 6, 7, 7, 4, 4, 3, 2, 1, 0, 0, 0
+    };
+
+    private final Drink[][] sizesByName;
+    private final double[][] sizeCumulative;
+    private final double[] nameCumulative;
+    private final AddonCatalog addons;
+    private final double[] addonCumulative;
+    private final double[] hourCumulative;
+    private final SplittableRandom random;
+    private double addonRate = 0.35;
+
+    /**
+     * @param menu the drinks to order from
+     * @param addons the add-ons on offer
+     * @param seed random seed
+     */
+    public WorkloadGenerator(List<Drink> menu, AddonCatalog addons, long seed) {
+        this(menu, addons, seed, 1.0, DEFAULT_HOURLY_TRAFFIC);
+    }
+
+    /**
+     * @param menu the drinks to order from
+     * @param addons the add-ons on offer
+     * @param seed random seed
+     * @param zipfExponent popularity skew (0 = uniform, 1 = classic Zipf)
+     * @param hourlyTraffic 24 relative order rates, one per hour of the day
+     */
+    public WorkloadGenerator(List<Drink> menu, AddonCatalog addons, long seed,
+                             double zipfExponent, double[] hourlyTraffic) {
+        if (menu.isEmpty()) {
+            throw new IllegalArgumentException("Cannot generate orders from an empty menu");
+        }
+        if (hourlyTraffic.length != 24) {
+            throw new IllegalArgumentException("Hourly traffic needs 24 values");
+        }
+        Map<String, List<Drink>> byName = new LinkedHashMap<>();
+        for (Drink drink : menu) {
+            byName.computeIfAbsent(drink.getName().toLowerCase(), k -> new ArrayList<>()).add(drink);
+        }
+        String[] names = byName.keySet().toArray(new String[0]);
+        this.sizesByName = new Drink[names.length][];
+        this.sizeCumulative = new double[names.length][];
+        double[] nameWeights = new double[names.length];
+        for (int n = 0; n < names.length; n++) {
+            List<Drink> sizes = byName.get(names[n]);
+            sizesByName[n] = sizes.toArray(new Drink[0]);
+            double[] weights = new double[sizes.size()];
+            for (int s = 0; s < weights.length; s++) {
+                weights[s] = sizeWeight(sizes.get(s).getSize());
+            }
+            sizeCumulative[n] = cumulative(weights);
+            nameWeights[n] = 1.0 / Math.pow(n + 1, zipfExponent);
+        }
+        this.nameCumulative = cumulative(nameWeights);
+        this.addons = addons;
+        double[] addonWeights = new double[addons.size()];
+        for (int a = 0; a < addonWeights.length; a++) {
+            addonWeights[a] = 1.0 / (a + 1);
+        }
+        this.addonCumulative = cumulative(addonWeights);
+        this.hourCumulative = cumulative(hourlyTraffic.clone());
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Sets the chance that a cart line has add-ons.
+     * @param addonRate 0.0-1.0
+     */
+    public void setAddonRate(double addonRate) {
+        this.addonRate = addonRate;
+    }
+
+    /**
+     * Builds the next cart: 1-6 lines, mostly single drinks.
+     * @return cart lines
+     */
+    public List<CartItem> nextCart() {
+        int lines = 1;
+        while (lines < 6 && random.nextDouble() < 0.4) {
+            lines++;
+        }
+        List<CartItem> cart = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            int n = pick(nameCumulative);
+            Drink drink = sizesByName[n][pick(sizeCumulative[n])];
+            double q = random.nextDouble();
+            int quantity = q < 0.85 ? 1 : q < 0.97 ? 2 : 3;
+            cart.add(new CartItem(drink, quantity, addons, nextAddons()));
+        }
+        return cart;
+    }
+
+    /**
+     * Draws an order time on the given day from the traffic curve.
+     * @param day the business day
+     * @return a time on that day
+     */
+    public LocalDateTime nextTime(LocalDate day) {
+        int hour = pick(hourCumulative);
+        return day.atTime(LocalTime.of(hour, 0)).plusNanos((long) (random.nextDouble() * 3_600_000_000_000L));
+    }
+
+    private int[] nextAddons() {
+        int[] counts = new int[addons.size()];
+        if (counts.length == 0 || random.nextDouble() >= addonRate) {
+            return counts;
+        }
+        do {
+            counts[pick(addonCumulative)] += random.nextDouble() < 0.8 ? 1 : 2;
+        } while (random.nextDouble() < 0.25);
+        return counts;
+    }
+
+    // Index drawn from a cumulative weight table: the first entry above r
+    private int pick(double[] cumulative) {
+        double r = random.nextDouble() * cumulative[cumulative.length - 1];
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] > r) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private static double sizeWeight(String size) {
+        return switch (size.toLowerCase()) {
+            case "tall" -> 0.3;
+            case "grande" -> 0.5;
+            default -> 0.2;
+        };
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double[] result = new double[weights.length];
+        double sum = 0.0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("Weights must not be negative");
+            }
+            sum += weights[i];
+            result[i] = sum;
+        }
+        if (weights.length > 0 && sum <= 0) {
+            throw new IllegalArgumentException("Weights must not all be zero");
+        }
+        return result;
+    }
+}